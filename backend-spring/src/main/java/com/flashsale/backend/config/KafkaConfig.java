@@ -1,7 +1,10 @@
 package com.flashsale.backend.config;
 
+import com.flashsale.backend.kafka.OrderRetryRouter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
@@ -9,12 +12,18 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.util.backoff.ExponentialBackOff;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -23,6 +32,40 @@ import java.util.Map;
 public class KafkaConfig {
     @Value("${kafka.brokers}")
     private String brokers;
+    @Value("${kafka.producer.profile:default}")
+    private String producerProfile;
+    @Value("${kafka.producer.throughput.linger-ms:10}")
+    private int lingerMs;
+    @Value("${kafka.producer.throughput.batch-size:131072}")
+    private int batchSize;
+    @Value("${kafka.producer.throughput.compression:lz4}")
+    private String compression;
+    @Value("${kafka.producer.throughput.buffer-memory:67108864}")
+    private long bufferMemory;
+    @Value("${kafka.producer.throughput.max-block-ms:200}")
+    private long maxBlockMs;
+    @Value("${kafka.consumer.max-poll-records:500}")
+    private int maxPollRecords;
+    @Value("${kafka.consumer.concurrency:1}")
+    private int concurrency;
+    @Value("${kafka.order-topic}")
+    private String orderTopic;
+    @Value("${kafka.order-topic-partitions:12}")
+    private int orderTopicPartitions;
+    @Value("${kafka.order-topic-replicas:1}")
+    private short orderTopicReplicas;
+    @Value("${kafka.order-retry.partitions:3}")
+    private int retryTopicPartitions;
+    @Value("${kafka.consumer.redelivery.initial-ms:500}")
+    private long redeliveryInitialMs;
+    @Value("${kafka.consumer.redelivery.max-ms:30000}")
+    private long redeliveryMaxMs;
+
+    private final MeterRegistry registry;
+
+    public KafkaConfig(MeterRegistry registry) {
+        this.registry = registry;
+    }
 
     @Bean
     public ProducerFactory<String, String> producerFactory() {
@@ -35,7 +78,18 @@ public class KafkaConfig {
         props.put(ProducerConfig.RETRIES_CONFIG, Integer.MAX_VALUE);
         props.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, 120000);
         props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
-        return new DefaultKafkaProducerFactory<>(props);
+        if ("throughput".equals(producerProfile)) {
+            props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+            props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+            props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+            props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
+            // a full buffer fails the send quickly so the seckill path rolls back instead of parking request threads
+            props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlockMs);
+        }
+        var factory = new DefaultKafkaProducerFactory<String, String>(props);
+        // exposes the client's batch-size-avg/max, records-per-request and buffer metrics
+        factory.addListener(new MicrometerProducerListener<>(registry));
+        return factory;
     }
 
     @Bean
@@ -45,14 +99,69 @@ public class KafkaConfig {
 
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
+        var factory = new ConcurrentKafkaListenerContainerFactory<String, String>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(consumerProps()));
+        factory.setConcurrency(concurrency);
+        factory.setCommonErrorHandler(redeliveringErrorHandler(redeliveryInitialMs, redeliveryMaxMs));
+        return factory;
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> batchKafkaListenerContainerFactory() {
+        Map<String, Object> props = consumerProps();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        var factory = new ConcurrentKafkaListenerContainerFactory<String, String>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setConcurrency(concurrency);
+        factory.setBatchListener(true);
+        factory.setCommonErrorHandler(redeliveringErrorHandler(redeliveryInitialMs, redeliveryMaxMs));
+        // offsets of a poll are committed only once the listener has returned for the whole batch
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        return factory;
+    }
+
+    // retry tiers and the DLQ replayer: one record at a time, acknowledged only once it has been handled or re-routed
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> manualAckKafkaListenerContainerFactory() {
+        var factory = new ConcurrentKafkaListenerContainerFactory<String, String>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(consumerProps()));
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    // an order the listener could not hand to a retry tier or the DLQ is redelivered until it can be, never skipped:
+    // the default handler gives up after ten immediate attempts and commits past the record
+    public static DefaultErrorHandler redeliveringErrorHandler(long initialMs, long maxMs) {
+        ExponentialBackOff backOff = new ExponentialBackOff(initialMs, 2.0);
+        backOff.setMaxInterval(maxMs);
+        backOff.setMaxElapsedTime(Long.MAX_VALUE);
+        return new DefaultErrorHandler(backOff);
+    }
+
+    @Bean
+    public KafkaAdmin kafkaAdmin() {
+        return new KafkaAdmin(Map.of(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, brokers));
+    }
+
+    // consumers beyond the partition count sit idle, so the topic is provisioned for the concurrency we want to run
+    @Bean
+    public NewTopic orderTopic() {
+        return TopicBuilder.name(orderTopic).partitions(orderTopicPartitions).replicas(orderTopicReplicas).build();
+    }
+
+    @Bean
+    public KafkaAdmin.NewTopics orderRetryTopics(OrderRetryRouter router) {
+        return new KafkaAdmin.NewTopics(router.tiers().stream()
+                .map(t -> TopicBuilder.name(t).partitions(retryTopicPartitions).replicas(orderTopicReplicas).build())
+                .toArray(NewTopic[]::new));
+    }
+
+    private Map<String, Object> consumerProps() {
         Map<String, Object> props = new HashMap<>();
         props.put(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG, brokers);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
-        var factory = new ConcurrentKafkaListenerContainerFactory<String, String>();
-        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
-        return factory;
+        return props;
     }
 }
-
@@ -0,0 +1,34 @@
+package com.flashsale.backend.config;
+
+import com.flashsale.backend.service.GoodsMetadataCache;
+import com.flashsale.backend.service.ProductDetailCache;
+import com.flashsale.backend.service.ProductListCache;
+import com.flashsale.backend.service.SoldOutRegistry;
+import com.flashsale.backend.service.StockStream;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SoldOutRegistry soldOutRegistry,
+                                                                       GoodsMetadataCache goodsMetadataCache,
+                                                                       ProductListCache productListCache,
+                                                                       StockStream stockStream,
+                                                                       ProductDetailCache productDetailCache) {
+        var container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(soldOutRegistry, new ChannelTopic(SoldOutRegistry.CHANNEL));
+        container.addMessageListener(goodsMetadataCache, new ChannelTopic(GoodsMetadataCache.CHANNEL));
+        // goods deletions evict the detail body as well
+        container.addMessageListener(productDetailCache, new ChannelTopic(GoodsMetadataCache.CHANNEL));
+        container.addMessageListener(productListCache, new ChannelTopic(ProductListCache.CHANNEL));
+        container.addMessageListener(stockStream, new ChannelTopic(StockStream.CHANNEL));
+        return container;
+    }
+}
@@ -1,6 +1,7 @@
 package com.flashsale.backend.controller;
 
 import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.service.MetricsService;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -27,9 +28,14 @@ public class BusinessController {
 
     @GetMapping("/overview")
     public ResponseEntity<?> overview() {
-        String turnoverStr = redis.opsForValue().get("mall:turnover");
+        List<String> turnoverVals = redis.opsForValue().multiGet(List.of(MetricsService.TURNOVER_CENTS_KEY, MetricsService.LEGACY_TURNOVER_KEY));
         double turnover = 0.0;
-        try { turnover = Double.parseDouble(turnoverStr == null ? "0" : turnoverStr); } catch (Exception ignored) {}
+        try {
+            String cents = turnoverVals == null ? null : turnoverVals.get(0);
+            String legacy = turnoverVals == null ? null : turnoverVals.get(1);
+            long totalCents = (cents == null ? 0L : Long.parseLong(cents)) + (legacy == null ? 0L : Math.round(Double.parseDouble(legacy) * 100));
+            turnover = totalCents / 100.0;
+        } catch (Exception ignored) {}
         var q = em.createNativeQuery("SELECT COUNT(*) as total_sold FROM seckill_orders WHERE status = 2");
         Number totalSoldNum = (Number) q.getSingleResult();
         long totalSold = totalSoldNum == null ? 0 : totalSoldNum.longValue();
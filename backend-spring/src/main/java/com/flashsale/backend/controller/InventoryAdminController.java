@@ -0,0 +1,86 @@
+package com.flashsale.backend.controller;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.flashsale.backend.service.InventoryRebuildService;
+import com.flashsale.backend.service.InventoryService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/api/admin/inventory")
+public class InventoryAdminController {
+    private static final int MAX_SHARDS = 64;
+
+    private final InventoryService inventory;
+    private final SeckillGoodsRepository goodsRepo;
+    private final InventoryRebuildService rebuild;
+    private final LoggerService log;
+
+    public InventoryAdminController(InventoryService inventory, SeckillGoodsRepository goodsRepo, InventoryRebuildService rebuild, LoggerService log) {
+        this.inventory = inventory;
+        this.goodsRepo = goodsRepo;
+        this.rebuild = rebuild;
+        this.log = log;
+    }
+
+    @GetMapping("/rebuild")
+    public ResponseEntity<?> rebuildStatus() {
+        return ResponseEntity.ok(rebuild.status());
+    }
+
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuild() {
+        if (!rebuild.start("admin")) {
+            return ResponseEntity.status(409).body(Map.of("error", "Inventory rebuild already running"));
+        }
+        log.info("inventory_rebuild_started", Map.of("trigger", "admin"));
+        return ResponseEntity.status(202).body(rebuild.status());
+    }
+
+    @GetMapping("/{goodsId}")
+    public ResponseEntity<?> get(@PathVariable("goodsId") long goodsId) {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("goods_id", goodsId);
+        resp.put("shards", inventory.shardCount(goodsId));
+        resp.put("stock", inventory.stockOf(goodsId));
+        return ResponseEntity.ok(resp);
+    }
+
+    @PostMapping("/{goodsId}/shards")
+    public ResponseEntity<?> shard(@PathVariable("goodsId") long goodsId, @RequestBody Map<String, Object> body) {
+        int shards = body.get("shards") instanceof Number n ? n.intValue() : 0;
+        if (shards < 2 || shards > MAX_SHARDS) {
+            return ResponseEntity.badRequest().body(Map.of("error", "shards must be between 2 and " + MAX_SHARDS));
+        }
+        Optional<SeckillGoods> opt = goodsRepo.findById(goodsId);
+        if (opt.isEmpty()) {
+            return ResponseEntity.status(404).body(Map.of("error", "Product not found"));
+        }
+        Integer seed = opt.get().getStock();
+        long total = inventory.enableSharding(goodsId, shards, seed == null ? 0 : seed);
+        if (total == -4L) {
+            return ResponseEntity.status(409).body(Map.of("error", "Product stock is already sharded"));
+        }
+        log.info("inventory_sharded", Map.of("goods_id", goodsId, "shards", shards, "stock", total));
+        return get(goodsId);
+    }
+
+    @DeleteMapping("/{goodsId}/shards")
+    public ResponseEntity<?> unshard(@PathVariable("goodsId") long goodsId) {
+        long total = inventory.disableSharding(goodsId);
+        if (total == -4L) {
+            return ResponseEntity.status(409).body(Map.of("error", "Product stock is not sharded"));
+        }
+        if (total < 0) {
+            return ResponseEntity.status(500).body(Map.of("error", "Internal server error"));
+        }
+        log.info("inventory_unsharded", Map.of("goods_id", goodsId, "stock", total));
+        return get(goodsId);
+    }
+}
@@ -0,0 +1,58 @@
+package com.flashsale.backend.controller;
+
+import com.flashsale.backend.kafka.OrderDlqReplayer;
+import com.flashsale.backend.kafka.OrderRetryBacklogMonitor;
+import com.flashsale.backend.logging.LoggerService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/orders/dlq")
+public class OrderDlqAdminController {
+    private static final double MAX_RATE = 5000;
+
+    private final OrderDlqReplayer replayer;
+    private final OrderRetryBacklogMonitor backlog;
+    private final LoggerService log;
+
+    public OrderDlqAdminController(OrderDlqReplayer replayer, OrderRetryBacklogMonitor backlog, LoggerService log) {
+        this.replayer = replayer;
+        this.backlog = backlog;
+        this.log = log;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> status() {
+        Map<String, Object> resp = new LinkedHashMap<>(replayer.status());
+        resp.put("backlog", backlog.snapshot());
+        return ResponseEntity.ok(resp);
+    }
+
+    @PostMapping("/start")
+    public ResponseEntity<?> start() {
+        replayer.start();
+        log.info("order_dlq_replay_started", replayer.status());
+        return status();
+    }
+
+    @PostMapping("/pause")
+    public ResponseEntity<?> pause() {
+        replayer.pause();
+        log.info("order_dlq_replay_paused", replayer.status());
+        return status();
+    }
+
+    @PutMapping("/rate")
+    public ResponseEntity<?> rate(@RequestBody Map<String, Object> body) {
+        double rate = body.get("per_second") instanceof Number n ? n.doubleValue() : -1;
+        if (rate <= 0 || rate > MAX_RATE) {
+            return ResponseEntity.badRequest().body(Map.of("error", "per_second must be between 0 and " + (long) MAX_RATE));
+        }
+        replayer.setRatePerSecond(rate);
+        log.info("order_dlq_replay_rate_changed", Map.of("per_second", rate));
+        return status();
+    }
+}
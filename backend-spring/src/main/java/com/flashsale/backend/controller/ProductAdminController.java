@@ -3,6 +3,8 @@ package com.flashsale.backend.controller;
 import com.flashsale.backend.logging.LoggerService;
 import com.flashsale.backend.model.SeckillGoods;
 import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.flashsale.backend.service.CacheService;
+import com.flashsale.backend.service.InventoryService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.http.ResponseEntity;
@@ -23,12 +25,14 @@ public class ProductAdminController {
     private final StringRedisTemplate redis;
     private final LoggerService log;
     private final ObjectMapper mapper;
+    private final CacheService cacheService;
 
-    public ProductAdminController(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, LoggerService log, ObjectMapper mapper) {
+    public ProductAdminController(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, LoggerService log, ObjectMapper mapper, CacheService cacheService) {
         this.goodsRepo = goodsRepo;
         this.redis = redis;
         this.log = log;
         this.mapper = mapper;
+        this.cacheService = cacheService;
     }
 
     @PostMapping
@@ -56,6 +60,7 @@ public class ProductAdminController {
             g.setName(namePrefix + "-" + i);
             g.setDescription(description + "-" + i);
             g.setStock(stockPerItem);
+            g.setInitialStock(stockPerItem);
             g.setSeckillPrice(seckillPrice);
             g.setOriginalPrice(originalPrice);
             g.setStartTime(startTime);
@@ -65,7 +70,7 @@ public class ProductAdminController {
                 List<SeckillGoods> saved = goodsRepo.saveAll(batch);
                 for (SeckillGoods s : saved) {
                     createdIds.add(s.getId());
-                    String stockKey = "seckill:stock:" + s.getId();
+                    String stockKey = InventoryService.stockKey(s.getId());
                     redis.opsForValue().set(stockKey, String.valueOf(s.getStock()));
                     try {
                         String json = mapper.writeValueAsString(s);
@@ -82,12 +87,7 @@ public class ProductAdminController {
             }
         }
 
-        try {
-            Set<String> keys = redis.keys("products:*");
-            if (keys != null && !keys.isEmpty()) {
-                redis.delete(keys);
-            }
-        } catch (Exception ignore) {}
+        cacheService.invalidateProductListCaches();
 
         long idStart = createdIds.isEmpty() ? 0 : Collections.min(createdIds);
         long idEnd = createdIds.isEmpty() ? 0 : Collections.max(createdIds);
@@ -3,10 +3,17 @@ package com.flashsale.backend.controller;
 import com.flashsale.backend.logging.LoggerService;
 import com.flashsale.backend.model.SeckillGoods;
 import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.flashsale.backend.service.CacheService;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.ProductDetailCache;
+import com.flashsale.backend.service.ProductListCache;
+import com.flashsale.backend.service.SeckillScripts;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.persistence.EntityManager;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -14,7 +21,9 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 
@@ -26,13 +35,19 @@ public class ProductController {
     private final LoggerService log;
     private final EntityManager em;
     private final ObjectMapper mapper;
+    private final ProductListCache listCache;
+    private final InventoryService inventory;
+    private final ProductDetailCache detailCache;
 
-    public ProductController(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, LoggerService log, EntityManager em, ObjectMapper mapper) {
+    public ProductController(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, LoggerService log, EntityManager em, ObjectMapper mapper, ProductListCache listCache, InventoryService inventory, ProductDetailCache detailCache) {
         this.goodsRepo = goodsRepo;
         this.redis = redis;
         this.log = log;
         this.em = em;
         this.mapper = mapper;
+        this.listCache = listCache;
+        this.inventory = inventory;
+        this.detailCache = detailCache;
     }
 
     @GetMapping
@@ -43,16 +58,45 @@ public class ProductController {
                                   @RequestParam(name = "sort_order", required = false) String sortOrder,
                                   @RequestParam(name = "expired", required = false) Boolean expired,
                                   @RequestParam(name = "available", required = false) Boolean available,
+                                  @RequestParam(name = "cursor", required = false) String cursor,
                                   HttpServletRequest req) {
         int offset = Math.max(0, (page - 1) * limit);
         String s = (status == null || status.isBlank()) ? "all" : status;
         String sb = (sortBy == null || sortBy.isBlank()) ? "start_time" : sortBy;
         String so = (sortOrder == null || sortOrder.isBlank()) ? "asc" : sortOrder;
-        String cacheKey = String.format("products:%d:%d:%s:%s:%s:%s:%s", page, limit, s, sb, so, expired == null ? "null" : expired.toString(), available == null ? "null" : available.toString());
-        String cached = redis.opsForValue().get(cacheKey);
-        if (cached != null) {
+        // any cursor parameter, even an empty one, switches to keyset pages; an empty cursor asks for the first page
+        boolean keyset = cursor != null;
+        Cursor after = keyset && !cursor.isBlank() ? Cursor.decode(cursor) : null;
+        if (keyset && !cursor.isBlank()) {
+            // a cursor only continues the ordering it was issued for
+            String dbSort = sortColumn(sb) + ":" + sortOrder(so);
+            if (after == null || !(after.sort().equals(dbSort) || ("active".equals(s) && Cursor.ACTIVE.equals(after.sort())))) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+            }
+        }
+        String query = String.format("%d:%d:%s:%s:%s:%s:%s", page, limit, s, sb, so, expired == null ? "null" : expired.toString(), available == null ? "null" : available.toString());
+        if (keyset) query = query + ":c" + cursor;
+        // the loader may run after this request has finished, so it must not touch req
+        String requestId = String.valueOf(req.getAttribute("requestId"));
+        // a conditional request is answered before the page is fetched when its ETag is known from L1 or Redis
+        String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String known = listCache.matchingEtag(query, etag -> notModified(ifNoneMatch, etag));
+            if (known != null) return ResponseEntity.status(304).eTag(known).build();
+        }
+        ProductListCache.Result cached;
+        try {
+            cached = listCache.getOrLoad(query, "active".equals(s), () -> buildPage(page, limit, offset, s, sb, so, expired, available, keyset, after, requestId));
+        } catch (PageQueryException e) {
+            return ResponseEntity.status(500).body(Map.of("error", "Internal server error"));
+        }
+        // the page fetched just now can still match, e.g. when its ETag key had expired before the body
+        if (notModified(ifNoneMatch, cached.etag())) {
+            return ResponseEntity.status(304).eTag(cached.etag()).build();
+        }
+        if (!ProductListCache.LOADED.equals(cached.source())) {
             java.util.Map<String,Object> ctx = new java.util.HashMap<>();
-            ctx.put("requestId", String.valueOf(req.getAttribute("requestId")));
+            ctx.put("requestId", requestId);
             ctx.put("page", page);
             ctx.put("limit", limit);
             ctx.put("status", s);
@@ -60,58 +104,49 @@ public class ProductController {
             ctx.put("sort_order", so);
             ctx.put("expired", expired);
             ctx.put("available", available);
+            ctx.put("level", cached.source());
             log.info("products_cache_hit", ctx);
-            try {
-                var node = mapper.readTree(cached);
-                return ResponseEntity.ok(node);
-            } catch (Exception ignore) {}
         }
+        // the cached UTF-8 bytes go out as they are; ByteArrayHttpMessageConverter copies them to the response stream
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).contentLength(cached.body().length).eTag(cached.etag()).body(cached.body());
+    }
+
+    private byte[] buildPage(int page, int limit, int offset, String s, String sb, String so, Boolean expired, Boolean available,
+                             boolean keyset, Cursor after, String requestId) {
         LocalDateTime now = LocalDateTime.now();
-        if ("active".equals(s)) {
+        if ("active".equals(s) && (after == null || Cursor.ACTIVE.equals(after.sort()))) {
             try {
-                Long total = redis.opsForZSet().zCard("goods:active_by_stock");
+                // the zset is ordered by stock, so goods at zero sit at its tail and in-stock goods are a prefix of it
+                boolean inStock = Boolean.TRUE.equals(available);
+                Long total = inStock
+                        ? redis.opsForZSet().count("goods:active_by_stock", 1, Double.POSITIVE_INFINITY)
+                        : redis.opsForZSet().zCard("goods:active_by_stock");
                 total = total == null ? 0L : total;
-                java.util.Set<String> ids = redis.opsForZSet().reverseRange("goods:active_by_stock", offset, Math.max(0, offset + limit - 1));
-                java.util.List<SeckillGoods> items = new java.util.ArrayList<>();
-                if (ids != null) {
-                    for (String idStr : ids) {
-                        long id = Long.parseLong(idStr);
-                        SeckillGoods g = null;
-                        String pj = redis.opsForValue().get("product:" + id);
-                        if (pj != null) {
-                            try { g = mapper.readValue(pj, SeckillGoods.class); } catch (Exception ignored) {}
-                        }
-                        if (g == null) {
-                            var opt = goodsRepo.findById(id);
-                            if (opt.isPresent()) {
-                                g = opt.get();
-                                try {
-                                    String json = mapper.writeValueAsString(g);
-                                    redis.opsForValue().set("product:" + id, json);
-                                } catch (Exception ignored) {}
-                            }
-                        }
-                        if (g != null) {
-                            String sv = redis.opsForValue().get("seckill:stock:" + id);
-                            if (sv != null) {
-                                try { g.setStock(Integer.parseInt(sv)); } catch (Exception ignored) {}
-                            }
-                            items.add(g);
-                        }
+                java.util.Collection<String> ids;
+                String next = null;
+                if (keyset) {
+                    // seeks from the cursor's (stock, id) position, so a deep page costs the same as the first
+                    List<?> raw = redis.execute(SeckillScripts.ACTIVE_PAGE, List.of(CacheService.ACTIVE_BY_STOCK_KEY),
+                            after == null ? "" : after.value(), after == null ? "" : String.valueOf(after.id()), String.valueOf(limit));
+                    List<String> pageIds = new java.util.ArrayList<>();
+                    for (int i = 0; raw != null && i + 1 < raw.size(); i += 2) {
+                        if (inStock && Double.parseDouble(String.valueOf(raw.get(i + 1))) < 1) break;
+                        pageIds.add(String.valueOf(raw.get(i)));
                     }
+                    if (limit > 0 && pageIds.size() == limit) {
+                        next = new Cursor(Cursor.ACTIVE, String.valueOf(raw.get(raw.size() - 1)), Long.parseLong(pageIds.get(limit - 1))).encode();
+                    }
+                    ids = pageIds;
+                } else if (inStock) {
+                    ids = redis.opsForZSet().reverseRangeByScore("goods:active_by_stock", 1, Double.POSITIVE_INFINITY, offset, limit);
+                } else {
+                    ids = redis.opsForZSet().reverseRange("goods:active_by_stock", offset, Math.max(0, offset + limit - 1));
                 }
-                if (Boolean.TRUE.equals(available)) {
-                    items.removeIf(g -> {
-                        Integer st = g.getStock();
-                        return st == null || st <= 0;
-                    });
-                    total = (long) items.size();
-                }
-                Map<String, Object> resp = Map.of("products", items, "total", total, "page", page);
-                String json = mapper.writeValueAsString(resp);
-                redis.opsForValue().set(cacheKey, json, java.time.Duration.ofSeconds(2));
+                java.util.List<SeckillGoods> items = ids == null ? new java.util.ArrayList<>() : loadActivePage(ids);
+                Map<String, Object> resp = keyset ? keysetPage(items, total, next) : Map.of("products", items, "total", total, "page", page);
+                byte[] body = mapper.writeValueAsBytes(resp);
                 java.util.Map<String,Object> ctx = new java.util.HashMap<>();
-                ctx.put("requestId", String.valueOf(req.getAttribute("requestId")));
+                ctx.put("requestId", requestId);
                 ctx.put("page", page);
                 ctx.put("limit", limit);
                 ctx.put("status", s);
@@ -121,11 +156,13 @@ public class ProductController {
                 ctx.put("available", available);
                 ctx.put("total", total);
                 log.info("products_fetched", ctx);
-                return ResponseEntity.ok(resp);
+                return body;
             } catch (Exception e) {
                 java.util.Map<String,Object> err = new java.util.HashMap<>();
                 err.put("error", String.valueOf(e.getMessage()));
                 log.error("products_active_redis_error", err);
+                // a zset cursor cannot be continued in MySQL's order
+                if (after != null) throw new PageQueryException(e);
                 // Fallback to DB path below
             }
         }
@@ -139,6 +176,10 @@ public class ProductController {
         } else {
             where.append(" 1=1");
         }
+        if (Boolean.TRUE.equals(available)) {
+            // in_stock is a generated column over the write-behind stock, indexed ahead of each time column
+            where.append(" AND in_stock = 1");
+        }
         if (expired != null) {
             if (expired) {
                 where.append(" AND end_time <= :now");
@@ -146,27 +187,31 @@ public class ProductController {
                 where.append(" AND end_time > :now");
             }
         }
-        String col;
-        switch (sb) {
-            case "created_at" -> col = "created_at";
-            case "stock" -> col = "stock";
-            case "end_time" -> col = "end_time";
-            default -> col = "start_time";
-        }
-        String ord = "desc".equalsIgnoreCase(so) ? "DESC" : "ASC";
+        String col = sortColumn(sb);
+        String ord = sortOrder(so).toUpperCase();
         String countSql = "SELECT COUNT(*) FROM seckill_goods WHERE " + where;
-        String listSql = "SELECT * FROM seckill_goods WHERE " + where + " ORDER BY " + col + " " + ord + " LIMIT :limit OFFSET :offset";
+        String listSql = keyset
+                ? "SELECT * FROM seckill_goods WHERE " + where + (after == null ? "" : seekClause(col, "DESC".equals(ord), after.value().isEmpty()))
+                        + " ORDER BY " + col + " " + ord + ", id " + ord + " LIMIT :limit"
+                : "SELECT * FROM seckill_goods WHERE " + where + " ORDER BY " + col + " " + ord + " LIMIT :limit OFFSET :offset";
         boolean needsNow = where.indexOf(":now") >= 0;
-        Number totalNum;
+        Number totalNum = null;
         List<SeckillGoods> list;
         try {
-            var countQuery = em.createNativeQuery(countSql);
-            if (needsNow) countQuery.setParameter("now", now);
-            totalNum = ((Number) countQuery.getSingleResult());
+            // keyset pages after the first skip the COUNT(*); clients keep the total from page one
+            if (after == null) {
+                var countQuery = em.createNativeQuery(countSql);
+                if (needsNow) countQuery.setParameter("now", now);
+                totalNum = ((Number) countQuery.getSingleResult());
+            }
             var q = em.createNativeQuery(listSql, SeckillGoods.class);
             if (needsNow) q.setParameter("now", now);
             q.setParameter("limit", limit);
-            q.setParameter("offset", offset);
+            if (!keyset) q.setParameter("offset", offset);
+            if (after != null) {
+                if (!after.value().isEmpty()) q.setParameter("cv", "stock".equals(col) ? (Object) Integer.valueOf(after.value()) : LocalDateTime.parse(after.value()));
+                q.setParameter("cid", after.id());
+            }
             list = q.getResultList();
         } catch (Exception e) {
             java.util.Map<String,Object> ctx = new java.util.HashMap<>();
@@ -180,38 +225,34 @@ public class ProductController {
             ctx.put("available", available);
             ctx.put("count_sql", countSql);
             ctx.put("list_sql", listSql);
-            ctx.put("requestId", String.valueOf(req.getAttribute("requestId")));
+            ctx.put("requestId", requestId);
             log.error("products_query_error", ctx);
-            return ResponseEntity.status(500).body(Map.of("error", "Internal server error"));
-        }
-        long total = totalNum.longValue();
-        java.util.List<com.flashsale.backend.model.SeckillGoods> enriched = new java.util.ArrayList<>(list.size());
-        for (com.flashsale.backend.model.SeckillGoods g : list) {
-            String sk = "seckill:stock:" + g.getId();
-            String sv = redis.opsForValue().get(sk);
-            if (sv != null) {
-                try { g.setStock(Integer.parseInt(sv)); } catch (Exception ignored) {}
-            }
-            enriched.add(g);
+            throw new PageQueryException(e);
         }
-        if (Boolean.TRUE.equals(available)) {
-            enriched.removeIf(g -> {
-                Integer st = g.getStock();
-                return st == null || st <= 0;
-            });
-            total = enriched.size();
+        Long total = totalNum == null ? null : totalNum.longValue();
+        String next = null;
+        if (keyset && limit > 0 && list.size() == limit) {
+            // taken before the Redis stock overlay below, so it matches the stored sort value
+            SeckillGoods last = list.get(limit - 1);
+            next = new Cursor(col + ":" + ord.toLowerCase(), sortValue(col, last), last.getId()).encode();
         }
-        Map<String, Object> resp = Map.of("products", enriched, "total", total, "page", page);
+        java.util.List<com.flashsale.backend.model.SeckillGoods> enriched = new java.util.ArrayList<>(list);
         try {
-            String json = mapper.writeValueAsString(resp);
-            if ("active".equals(s)) {
-                redis.opsForValue().set(cacheKey, json, java.time.Duration.ofSeconds(2));
-            } else {
-                redis.opsForValue().set(cacheKey, json, java.time.Duration.ofSeconds(20));
+            Map<Long, Long> stock = inventory.stockOf(enriched.stream().map(SeckillGoods::getId).toList());
+            for (SeckillGoods g : enriched) {
+                Long sv = stock.get(g.getId());
+                if (sv != null) g.setStock(sv.intValue());
             }
         } catch (Exception ignored) {}
+        Map<String, Object> resp = keyset ? keysetPage(enriched, total, next) : Map.of("products", enriched, "total", total, "page", page);
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(resp);
+        } catch (Exception e) {
+            throw new PageQueryException(e);
+        }
         java.util.Map<String,Object> ctx2 = new java.util.HashMap<>();
-        ctx2.put("requestId", String.valueOf(req.getAttribute("requestId")));
+        ctx2.put("requestId", requestId);
         ctx2.put("page", page);
         ctx2.put("limit", limit);
         ctx2.put("status", s);
@@ -221,26 +262,162 @@ public class ProductController {
         ctx2.put("available", available);
         ctx2.put("total", total);
         log.info("products_fetched", ctx2);
-        return ResponseEntity.ok(resp);
+        return body;
+    }
+
+    private static String sortColumn(String sortBy) {
+        return switch (sortBy) {
+            case "created_at" -> "created_at";
+            case "stock" -> "stock";
+            case "end_time" -> "end_time";
+            default -> "start_time";
+        };
+    }
+
+    private static String sortOrder(String sortOrder) {
+        return "desc".equalsIgnoreCase(sortOrder) ? "desc" : "asc";
+    }
+
+    // rows after (:cv, :cid) in ORDER BY col, id; MySQL puts NULLs first ascending and last descending
+    static String seekClause(String col, boolean desc, boolean nullValue) {
+        if (nullValue) {
+            return desc ? " AND " + col + " IS NULL AND id < :cid" : " AND (" + col + " IS NOT NULL OR id > :cid)";
+        }
+        String cmp = desc ? "<" : ">";
+        String seek = col + " " + cmp + " :cv OR (" + col + " = :cv AND id " + cmp + " :cid)";
+        return desc ? " AND (" + seek + " OR " + col + " IS NULL)" : " AND (" + seek + ")";
+    }
+
+    private static String sortValue(String col, SeckillGoods g) {
+        Object v = switch (col) {
+            case "created_at" -> g.getCreatedAt();
+            case "stock" -> g.getStock();
+            case "end_time" -> g.getEndTime();
+            default -> g.getStartTime();
+        };
+        return v == null ? "" : v.toString();
+    }
+
+    // next_cursor is null on the last page; total is only sent where it was counted
+    private static Map<String, Object> keysetPage(List<SeckillGoods> items, Long total, String next) {
+        Map<String, Object> resp = new java.util.LinkedHashMap<>();
+        resp.put("products", items);
+        if (total != null) resp.put("total", total);
+        resp.put("next_cursor", next);
+        return resp;
+    }
+
+    // opaque to clients: the ordering it belongs to, the sort value of the last row and its id
+    record Cursor(String sort, String value, long id) {
+        static final String ACTIVE = "active";
+
+        String encode() {
+            String raw = sort + "|" + value + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // null for anything this controller did not issue
+        static Cursor decode(String token) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", -1);
+                if (parts.length != 3) return null;
+                Cursor c = new Cursor(parts[0], parts[1], Long.parseLong(parts[2]));
+                String col = c.sort().substring(0, Math.max(0, c.sort().indexOf(':')));
+                if (ACTIVE.equals(c.sort())) {
+                    Double.parseDouble(c.value());
+                } else if ("stock".equals(col)) {
+                    if (!c.value().isEmpty()) Integer.parseInt(c.value());
+                } else if (!c.value().isEmpty()) {
+                    LocalDateTime.parse(c.value());
+                }
+                return c;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class PageQueryException extends RuntimeException {
+        PageQueryException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    // product JSON and stock for the whole page in one MGET; cache misses are loaded with one findAllById
+    private List<SeckillGoods> loadActivePage(java.util.Collection<String> idStrs) {
+        List<Long> ids = new java.util.ArrayList<>(idStrs.size());
+        for (String idStr : idStrs) ids.add(Long.parseLong(idStr));
+        int n = ids.size();
+        List<String> keys = new java.util.ArrayList<>(n * 2);
+        for (Long id : ids) keys.add("product:" + id);
+        for (Long id : ids) keys.add(InventoryService.stockKey(id));
+        List<String> values = redis.opsForValue().multiGet(keys);
+        Map<Long, SeckillGoods> byId = new java.util.HashMap<>();
+        List<Long> missing = new java.util.ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String pj = values == null ? null : values.get(i);
+            SeckillGoods g = null;
+            if (pj != null) {
+                try { g = mapper.readValue(pj, SeckillGoods.class); } catch (Exception ignored) {}
+            }
+            if (g == null) missing.add(ids.get(i)); else byId.put(ids.get(i), g);
+        }
+        if (!missing.isEmpty()) {
+            Map<String, String> backfill = new java.util.HashMap<>();
+            for (SeckillGoods g : goodsRepo.findAllById(missing)) {
+                byId.put(g.getId(), g);
+                try { backfill.put("product:" + g.getId(), mapper.writeValueAsString(g)); } catch (Exception ignored) {}
+            }
+            if (!backfill.isEmpty()) {
+                try { redis.opsForValue().multiSet(backfill); } catch (Exception ignored) {}
+            }
+        }
+        Map<Long, Long> leased = inventory.leasedUnits(ids);
+        List<SeckillGoods> items = new java.util.ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long id = ids.get(i);
+            SeckillGoods g = byId.get(id);
+            if (g == null) continue;
+            String sv = values == null ? null : values.get(n + i);
+            if (sv != null) {
+                g.setStock((int) (Long.parseLong(sv) + leased.getOrDefault(id, 0L)));
+            } else if (inventory.shardCount(id) > 0) {
+                // sharded goods have no single stock key
+                Long total = inventory.stockOf(id);
+                if (total != null) g.setStock(total.intValue());
+            }
+            items.add(g);
+        }
+        return items;
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<?> byId(@PathVariable("id") long id) throws Exception {
-        String cacheKey = "product:" + id;
-        String cached = null; // always compute live stock below to avoid staleness
-        if (cached != null) {
-            var node = mapper.readTree(cached);
-            return ResponseEntity.ok(node);
-        }
-        var opt = goodsRepo.findById(id);
-        if (opt.isEmpty()) {
+    public ResponseEntity<?> byId(@PathVariable("id") long id, HttpServletRequest req) throws Exception {
+        ProductDetailCache.Detail detail = detailCache.get(id);
+        if (detail == null) {
             return ResponseEntity.status(404).body(Map.of("error", "Product not found"));
         }
-        var product = opt.get();
-        String sv = redis.opsForValue().get("seckill:stock:" + id);
-        if (sv != null) {
-            try { product.setStock(Integer.parseInt(sv)); } catch (Exception ignored) {}
+        // goods rows never change after creation except for stock, so id and live stock identify the body
+        String etag = detailEtag(id, detail.stock());
+        if (notModified(req.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            return ResponseEntity.status(304).eTag(etag).build();
+        }
+        byte[] body = ProductDetailCache.withStock(detail.body(), detail.stock());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).contentLength(body.length).eTag(etag).body(body);
+    }
+
+    private static String detailEtag(long id, long stock) {
+        return "\"" + id + "-" + stock + "\"";
+    }
+
+    // If-None-Match uses the weak comparison, so a W/ prefix on the client's copy still matches
+    static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.startsWith("W/")) t = t.substring(2);
+            if (t.equals("*") || t.equals(etag)) return true;
         }
-        return ResponseEntity.ok(product);
+        return false;
     }
 }
@@ -2,7 +2,7 @@ package com.flashsale.backend.controller;
 
 import com.flashsale.backend.logging.LoggerService;
 import com.flashsale.backend.model.OrderStatus;
-import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.model.GoodsSnapshot;
 import com.flashsale.backend.model.SeckillOrder;
 import com.flashsale.backend.repository.SeckillGoodsRepository;
 import com.flashsale.backend.repository.SeckillOrderRepository;
@@ -12,7 +12,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -33,6 +34,10 @@ public class SeckillController {
     private final LoggerService log;
     private final String orderTopic;
     private final com.flashsale.backend.service.OrderEventService orderEventService;
+    private final com.flashsale.backend.service.SoldOutRegistry soldOutRegistry;
+    private final com.flashsale.backend.service.GoodsMetadataCache goodsCache;
+    private final com.flashsale.backend.service.SeckillResultService results;
+    private final com.flashsale.backend.service.InventoryRebuildService rebuild;
 
     public SeckillController(SeckillGoodsRepository goodsRepo,
                              SeckillOrderRepository orderRepo,
@@ -40,7 +45,11 @@ public class SeckillController {
                              KafkaTemplate<String, String> kafka,
                              LoggerService log,
                              @Value("${kafka.order-topic}") String orderTopic,
-                             com.flashsale.backend.service.OrderEventService orderEventService) {
+                             com.flashsale.backend.service.OrderEventService orderEventService,
+                             com.flashsale.backend.service.SoldOutRegistry soldOutRegistry,
+                             com.flashsale.backend.service.GoodsMetadataCache goodsCache,
+                             com.flashsale.backend.service.SeckillResultService results,
+                             com.flashsale.backend.service.InventoryRebuildService rebuild) {
         this.goodsRepo = goodsRepo;
         this.orderRepo = orderRepo;
         this.redis = redis;
@@ -48,22 +57,15 @@ public class SeckillController {
         this.log = log;
         this.orderTopic = orderTopic;
         this.orderEventService = orderEventService;
+        this.soldOutRegistry = soldOutRegistry;
+        this.goodsCache = goodsCache;
+        this.results = results;
+        this.rebuild = rebuild;
     }
 
     @PostMapping
-    @Transactional
     public ResponseEntity<?> seckill(@RequestBody Map<String, Object> body, HttpServletRequest req) {
-        Object auth = req.getUserPrincipal();
-        if (auth == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "User not authenticated"));
-        }
-        Long userId = null;
-        if (auth instanceof org.springframework.security.core.Authentication a) {
-            Object p = a.getPrincipal();
-            if (p instanceof java.util.Map<?, ?> m) {
-                userId = ((Number) m.get("userId")).longValue();
-            }
-        }
+        Long userId = currentUserId(req);
         if (userId == null) {
             return ResponseEntity.status(401).body(Map.of("error", "User not authenticated"));
         }
@@ -72,25 +74,56 @@ public class SeckillController {
             return ResponseEntity.badRequest().body(Map.of("error", "Goods ID is required"));
         }
         long goodsId = goodsIdNum.longValue();
-        Optional<SeckillGoods> opt = goodsRepo.findById(goodsId);
+        if (!rebuild.isRebuilt(goodsId)) {
+            // stock for this goods has not been reloaded into Redis yet
+            return ResponseEntity.status(503).header("Retry-After", "1")
+                    .body(Map.of("success", false, "message", "Inventory is being rebuilt, please retry"));
+        }
+        if (soldOutRegistry.isSoldOut(goodsId)) {
+            return ResponseEntity.ok(Map.of("success", false, "message", "Product out of stock"));
+        }
+        Optional<GoodsSnapshot> opt = goodsCache.get(goodsId);
         if (opt.isEmpty()) {
             return ResponseEntity.ok(Map.of("success", false, "message", "Seckill not active or product not found"));
         }
-        SeckillGoods product = opt.get();
-        LocalDateTime now = LocalDateTime.now();
-        if (!(product.getStartTime().isBefore(now) || product.getStartTime().isEqual(now)) || product.getEndTime().isBefore(now)) {
+        GoodsSnapshot product = opt.get();
+        if (!product.isActive(LocalDateTime.now())) {
             return ResponseEntity.ok(Map.of("success", false, "message", "Seckill not active or product not found"));
         }
         Map<String, Object> result = orderEventService.processSeckill(userId, product, req.getAttribute("requestId"));
         boolean success = Boolean.TRUE.equals(result.get("success"));
         if (success) {
+            if (com.flashsale.backend.service.SeckillResultService.QUEUED.equals(result.get("status"))) {
+                return ResponseEntity.status(202).body(result);
+            }
             return ResponseEntity.ok(result);
         } else {
-            if ("Product out of stock".equals(result.get("message"))) {
+            if ("Product out of stock".equals(result.get("message")) || "Already purchased".equals(result.get("message"))) {
                 return ResponseEntity.ok(result);
             }
             return ResponseEntity.status(500).body(result);
         }
     }
-}
 
+    @GetMapping("/result/{orderId}")
+    public ResponseEntity<?> result(@PathVariable("orderId") String orderId, HttpServletRequest req) {
+        Long userId = currentUserId(req);
+        if (userId == null) {
+            return ResponseEntity.status(401).body(Map.of("error", "User not authenticated"));
+        }
+        String status = results.statusOf(orderId, userId);
+        if (status == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "Order not found"));
+        }
+        return ResponseEntity.ok(Map.of("order_id", orderId, "status", status));
+    }
+
+    private static Long currentUserId(HttpServletRequest req) {
+        if (req.getUserPrincipal() instanceof org.springframework.security.core.Authentication a
+                && a.getPrincipal() instanceof java.util.Map<?, ?> m
+                && m.get("userId") instanceof Number n) {
+            return n.longValue();
+        }
+        return null;
+    }
+}
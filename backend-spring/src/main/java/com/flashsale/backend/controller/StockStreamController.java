@@ -0,0 +1,54 @@
+package com.flashsale.backend.controller;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.service.StockStream;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+@RestController
+@RequestMapping("/api/products")
+public class StockStreamController {
+    private final StockStream stream;
+    private final LoggerService log;
+
+    public StockStreamController(StockStream stream, LoggerService log) {
+        this.stream = stream;
+        this.log = log;
+    }
+
+    // text/event-stream of "stock" events, each a JSON object of goods id -> remaining stock
+    @GetMapping("/stock/stream")
+    public ResponseEntity<?> stream(@RequestParam(name = "ids") String ids, HttpServletRequest req) {
+        Set<Long> goodsIds = new LinkedHashSet<>();
+        try {
+            for (String id : ids.split(",")) {
+                if (!id.isBlank()) goodsIds.add(Long.parseLong(id.trim()));
+            }
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "ids must be comma separated goods ids"));
+        }
+        if (goodsIds.isEmpty() || goodsIds.size() > stream.maxIds()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "ids must list between 1 and " + stream.maxIds() + " goods"));
+        }
+        SseEmitter emitter = stream.subscribe(goodsIds);
+        if (emitter == null) {
+            // clients fall back to polling, or retry another node
+            return ResponseEntity.status(503).header("Retry-After", "5").body(Map.of("error", "Stock stream unavailable"));
+        }
+        java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+        ctx.put("requestId", String.valueOf(req.getAttribute("requestId")));
+        ctx.put("goods", goodsIds.size());
+        ctx.put("connections", stream.connections());
+        log.info("stock_stream_opened", ctx);
+        return ResponseEntity.ok(emitter);
+    }
+}
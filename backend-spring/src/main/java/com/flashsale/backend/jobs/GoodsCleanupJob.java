@@ -4,6 +4,10 @@ import com.flashsale.backend.logging.LoggerService;
 import com.flashsale.backend.model.SeckillGoods;
 import com.flashsale.backend.repository.SeckillGoodsRepository;
 import com.flashsale.backend.service.CacheService;
+import com.flashsale.backend.service.GoodsMetadataCache;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.MetricsService;
+import com.flashsale.backend.service.SoldOutRegistry;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
@@ -18,12 +22,22 @@ public class GoodsCleanupJob {
     private final SeckillGoodsRepository goodsRepo;
     private final StringRedisTemplate redis;
     private final CacheService cacheService;
+    private final SoldOutRegistry soldOutRegistry;
+    private final InventoryService inventory;
+    private final GoodsMetadataCache goodsCache;
+    private final MetricsService metricsService;
+    private final InventoryReconcileJob reconcileJob;
     private final LoggerService log;
 
-    public GoodsCleanupJob(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, CacheService cacheService, LoggerService log) {
+    public GoodsCleanupJob(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, CacheService cacheService, SoldOutRegistry soldOutRegistry, InventoryService inventory, GoodsMetadataCache goodsCache, MetricsService metricsService, InventoryReconcileJob reconcileJob, LoggerService log) {
         this.goodsRepo = goodsRepo;
         this.redis = redis;
         this.cacheService = cacheService;
+        this.soldOutRegistry = soldOutRegistry;
+        this.inventory = inventory;
+        this.goodsCache = goodsCache;
+        this.metricsService = metricsService;
+        this.reconcileJob = reconcileJob;
         this.log = log;
     }
 
@@ -37,33 +51,49 @@ public class GoodsCleanupJob {
             boolean expired = g.getEndTime() != null && !g.getEndTime().isAfter(now);
             int stockVal = -1;
             try {
-                String sv = redis.opsForValue().get("seckill:stock:" + id);
+                Long sv = inventory.stockOf(id);
                 if (sv != null) {
-                    stockVal = Integer.parseInt(sv);
+                    stockVal = sv.intValue();
                 } else if (g.getStock() != null) {
                     stockVal = g.getStock();
                 }
             } catch (Exception ignored) {}
             boolean soldOut = stockVal <= 0;
             if (expired || soldOut) {
+                // units still leased to a node come back through its return or the reclaim; deleting now would lose them
+                long leased;
+                try {
+                    leased = inventory.leasedUnits(id);
+                } catch (Exception e) {
+                    continue;
+                }
+                if (leased > 0) {
+                    log.info("goods_cleanup_deferred", Map.of("id", id, "leased", leased));
+                    continue;
+                }
                 try {
                     goodsRepo.deleteById(id);
                 } catch (Exception e) {
                     log.error("goods_cleanup_db_error", Map.of("id", id, "error", e.getMessage()));
                     continue;
                 }
-                try {
-                    redis.delete("seckill:stock:" + id);
-                } catch (Exception ignored) {}
+                inventory.purge(id);
                 try {
                     redis.delete("product:" + id);
                 } catch (Exception ignored) {}
+                metricsService.forget(id);
                 try {
-                    redis.delete("goods:sold_count:" + id);
+                    redis.delete(MetricsService.goodsSoldKey(id));
                 } catch (Exception ignored) {}
                 try {
                     redis.opsForZSet().remove("goods:active_by_stock", String.valueOf(id));
                 } catch (Exception ignored) {}
+                try {
+                    redis.opsForHash().delete(InventoryReconcileJob.ORDERED_KEY, String.valueOf(id));
+                } catch (Exception ignored) {}
+                soldOutRegistry.forget(id);
+                reconcileJob.forget(id);
+                goodsCache.invalidate(id);
                 deletedIds.add(id);
                 log.info("goods_cleanup_deleted", Map.of("id", id, "expired", expired, "stock", stockVal));
             }
@@ -0,0 +1,281 @@
+package com.flashsale.backend.jobs;
+
+import com.flashsale.backend.kafka.OrderRetryBacklogMonitor;
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.flashsale.backend.service.CacheService;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.SeckillScripts;
+import com.flashsale.backend.service.SoldOutRegistry;
+import com.flashsale.backend.service.StockLeaseService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compares initial stock against Redis stock plus stored orders and repairs units lost between the decrement and the insert.
+@Component
+public class InventoryReconcileJob {
+    static final String LOCK_KEY = "seckill:stock:reconcile_lock";
+    // orders counted per goods up to the watermark order id; shared so no node or restart recounts the table
+    public static final String ORDERED_KEY = "seckill:reconcile:{orders}";
+    // kept in the same hash as the counts, so an evicted hash starts over from the first order instead of undercounting
+    static final String WATERMARK_FIELD = "watermark";
+
+    private final StringRedisTemplate redis;
+    private final InventoryService inventory;
+    private final SeckillGoodsStockRepository stockRepo;
+    private final SoldOutRegistry soldOutRegistry;
+    private final OrderRetryBacklogMonitor backlog;
+    private final MeterRegistry registry;
+    private final LoggerService log;
+    private final boolean enabled;
+    private final boolean repair;
+    private final long settleMs;
+    private final long quietMs;
+    private final int sweepSize;
+    private final long lockTtlMs;
+    private final String token = UUID.randomUUID().toString();
+
+    // goods id -> initial_stock, empty when the goods has none; bounded, and dropped when the goods is cleaned up
+    private final Cache<Long, Optional<Long>> initialStock;
+    // max order id and when it was read; an id is counted once it is older than the settle window
+    private final ArrayDeque<long[]> ceilings = new ArrayDeque<>();
+    private final Map<Long, Drift> drifting = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, AtomicLong> driftGauges = new ConcurrentHashMap<>();
+    private long sweepOffset;
+
+    // units expected in Redis minus units found there; actual and ordered tell whether the goods moved since
+    record Drift(long units, long actual, long ordered, long since) {}
+
+    public InventoryReconcileJob(StringRedisTemplate redis,
+                                 InventoryService inventory,
+                                 SeckillGoodsStockRepository stockRepo,
+                                 SoldOutRegistry soldOutRegistry,
+                                 OrderRetryBacklogMonitor backlog,
+                                 MeterRegistry registry,
+                                 LoggerService log,
+                                 @Value("${seckill.reconcile.enabled:true}") boolean enabled,
+                                 @Value("${seckill.reconcile.repair:false}") boolean repair,
+                                 @Value("${seckill.reconcile.settle-ms:10000}") long settleMs,
+                                 @Value("${seckill.reconcile.quiet-ms:180000}") long quietMs,
+                                 @Value("${seckill.reconcile.sweep-size:500}") int sweepSize,
+                                 @Value("${seckill.reconcile.lock-ttl-ms:10000}") long lockTtlMs,
+                                 @Value("${seckill.reconcile.initial-stock-cache-size:100000}") long initialStockCacheSize) {
+        this.redis = redis;
+        this.inventory = inventory;
+        this.stockRepo = stockRepo;
+        this.soldOutRegistry = soldOutRegistry;
+        this.backlog = backlog;
+        this.registry = registry;
+        this.log = log;
+        this.enabled = enabled;
+        this.repair = repair;
+        this.settleMs = settleMs;
+        this.quietMs = quietMs;
+        this.sweepSize = sweepSize;
+        this.lockTtlMs = lockTtlMs;
+        this.initialStock = Caffeine.newBuilder().maximumSize(initialStockCacheSize).build();
+        Gauge.builder("seckill_stock_drift_goods", drifting, Map::size).register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.reconcile.interval-ms:5000}")
+    public void run() {
+        if (!enabled) return;
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(LOCK_KEY, token, Duration.ofMillis(lockTtlMs)))) return;
+        try {
+            reconcile(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("stock_reconcile_error", Map.of("error", String.valueOf(e.getMessage())));
+        } finally {
+            try { redis.execute(SeckillScripts.LOCK_RELEASE, List.of(LOCK_KEY), token); } catch (Exception ignored) {}
+        }
+    }
+
+    synchronized int reconcile(long now) {
+        Set<Long> check = new LinkedHashSet<>(advance(now));
+        check.addAll(drifting.keySet());
+        check.addAll(sweep());
+        if (check.isEmpty()) return 0;
+
+        // remember misses too, so goods without an initial_stock are not looked up on every run
+        Map<Long, Optional<Long>> initials = initialStock.getAll(check, unknown -> {
+            Map<Long, Long> found = stockRepo.findInitialStock(new ArrayList<>(unknown));
+            Map<Long, Optional<Long>> loaded = new HashMap<>();
+            for (Long id : unknown) loaded.put(id, Optional.ofNullable(found.get(id)));
+            return loaded;
+        });
+
+        List<Long> ids = new ArrayList<>(check);
+        Map<Long, Long> remaining = readRemaining(ids);
+        List<Object> fields = new ArrayList<>(ids.size());
+        for (Long id : ids) fields.add(String.valueOf(id));
+        List<Object> leased = redis.opsForHash().multiGet(StockLeaseService.LEASES_KEY, fields);
+        List<Object> ordered = redis.opsForHash().multiGet(ORDERED_KEY, fields);
+        int checked = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            Long initial = initials.get(id).orElse(null);
+            Long left = remaining.get(id);
+            // goods created before initial_stock existed, or whose stock key is gone, cannot be judged
+            if (initial == null || left == null) {
+                settle(id);
+                continue;
+            }
+            checked++;
+            Object l = leased == null ? null : leased.get(i);
+            long actual = left + (l == null ? 0L : Long.parseLong(String.valueOf(l)));
+            Object o = ordered == null ? null : ordered.get(i);
+            long sold = o == null ? 0L : Long.parseLong(String.valueOf(o));
+            long units = initial - sold - actual;
+            if (units == 0) {
+                settle(id);
+                continue;
+            }
+            Drift prev = drifting.get(id);
+            if (prev == null || prev.actual() != actual || prev.ordered() != sold) {
+                // the goods moved: in-flight orders look like drift until they are stored, so restart the quiet period
+                drifting.put(id, new Drift(units, actual, sold, now));
+                track(id, units);
+                continue;
+            }
+            if (repair && now - prev.since() >= quietMs) repair(id, units);
+        }
+        return checked;
+    }
+
+    // counts the orders stored since the shared watermark and returns the goods they belong to
+    private Set<Long> advance(long now) {
+        ceilings.addLast(new long[]{stockRepo.maxOrderId(), now});
+        // ids are handed out before commit, so a lower id can still appear for a moment after a higher one
+        long upTo = -1;
+        while (!ceilings.isEmpty() && now - ceilings.peekFirst()[1] >= settleMs) upTo = ceilings.pollFirst()[0];
+        if (upTo < 0) return Set.of();
+        Object mark = redis.opsForHash().get(ORDERED_KEY, WATERMARK_FIELD);
+        String from = mark == null ? "0" : String.valueOf(mark);
+        if (upTo <= Long.parseLong(from)) return Set.of();
+        Map<Long, Long> delta = stockRepo.orderCountsInIdRange(Long.parseLong(from), upTo);
+        List<String> args = new ArrayList<>(delta.size() * 2 + 2);
+        args.add(from);
+        args.add(String.valueOf(upTo));
+        delta.forEach((id, n) -> {
+            args.add(String.valueOf(id));
+            args.add(String.valueOf(n));
+        });
+        Long applied = redis.execute(SeckillScripts.RECONCILE_ADVANCE, List.of(ORDERED_KEY), args.toArray());
+        return applied != null && applied == 1L ? delta.keySet() : Set.of();
+    }
+
+    public void forget(long goodsId) {
+        initialStock.invalidate(goodsId);
+        settle(goodsId);
+    }
+
+    // orders waiting in a retry tier or the DLQ are sold but not yet stored; -1 while the backlog is unknown
+    private long pendingOrders() {
+        long total = 0;
+        for (long n : backlog.snapshot().values()) {
+            if (n < 0) return -1;
+            total += n;
+        }
+        return total;
+    }
+
+    private List<Long> sweep() {
+        // a goods that leaked without any stored order is only found by walking the active set
+        Set<String> page = redis.opsForZSet().range(CacheService.ACTIVE_BY_STOCK_KEY, sweepOffset, sweepOffset + sweepSize - 1);
+        List<Long> ids = new ArrayList<>();
+        if (page != null) {
+            for (String s : page) {
+                try { ids.add(Long.parseLong(s)); } catch (NumberFormatException ignored) {}
+            }
+        }
+        sweepOffset = page == null || page.size() < sweepSize ? 0 : sweepOffset + sweepSize;
+        return ids;
+    }
+
+    private Map<Long, Long> readRemaining(List<Long> ids) {
+        Map<Long, Long> remaining = new HashMap<>();
+        List<Long> single = new ArrayList<>(ids.size());
+        List<String> keys = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            if (inventory.shardCount(id) > 0) {
+                Long total = inventory.stockOf(id);
+                if (total != null) remaining.put(id, total);
+            } else {
+                single.add(id);
+                keys.add(InventoryService.stockKey(id));
+            }
+        }
+        if (!keys.isEmpty()) {
+            List<String> values = redis.opsForValue().multiGet(keys);
+            for (int i = 0; values != null && i < values.size(); i++) {
+                if (values.get(i) != null) remaining.put(single.get(i), Long.parseLong(values.get(i)));
+            }
+        }
+        return remaining;
+    }
+
+    private void repair(long goodsId, long units) {
+        if (units > 0) {
+            // give back only what the pending orders cannot account for
+            long pending = pendingOrders();
+            if (pending < 0 || units <= pending) {
+                Map<String, Object> ctx = new HashMap<>();
+                ctx.put("goods_id", goodsId);
+                ctx.put("drift", units);
+                ctx.put("pending_orders", pending);
+                log.info("stock_reconcile_repair_deferred", ctx);
+                return;
+            }
+            units -= pending;
+        }
+        long after = inventory.adjust(goodsId, units);
+        Map<String, Object> ctx = new HashMap<>();
+        ctx.put("goods_id", goodsId);
+        ctx.put("drift", units);
+        ctx.put("stock", after);
+        if (after < 0) {
+            // sharded or evicted stock is left for an operator
+            log.warn("stock_reconcile_repair_skipped", ctx);
+            return;
+        }
+        if (after > 0 && units > 0) soldOutRegistry.reset(goodsId);
+        log.info("stock_reconcile_repaired", ctx);
+        settle(goodsId);
+    }
+
+    private void settle(long goodsId) {
+        if (drifting.remove(goodsId) == null) return;
+        if (driftGauges.remove(goodsId) == null) return;
+        var gauge = registry.find("seckill_stock_drift").tag("goods_id", String.valueOf(goodsId)).gauge();
+        if (gauge != null) registry.remove(gauge);
+    }
+
+    private void track(long goodsId, long units) {
+        driftGauges.computeIfAbsent(goodsId, k -> {
+            AtomicLong holder = new AtomicLong();
+            Gauge.builder("seckill_stock_drift", holder, AtomicLong::get)
+                    .tag("goods_id", String.valueOf(goodsId))
+                    .register(registry);
+            return holder;
+        }).set(units);
+    }
+}
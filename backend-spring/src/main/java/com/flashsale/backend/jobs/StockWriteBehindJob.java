@@ -0,0 +1,97 @@
+package com.flashsale.backend.jobs;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.SeckillScripts;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Copies Redis stock back to seckill_goods so a re-seed after eviction or a Redis restart starts from a recent value.
+@Component
+public class StockWriteBehindJob {
+    static final String LOCK_KEY = "seckill:stock:persist_lock";
+
+    private final StringRedisTemplate redis;
+    private final InventoryService inventory;
+    private final SeckillGoodsStockRepository stockRepo;
+    private final LoggerService log;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long lockTtlMs;
+    private final String token = UUID.randomUUID().toString();
+
+    public StockWriteBehindJob(StringRedisTemplate redis,
+                               InventoryService inventory,
+                               SeckillGoodsStockRepository stockRepo,
+                               LoggerService log,
+                               @Value("${seckill.stock-persist.enabled:true}") boolean enabled,
+                               @Value("${seckill.stock-persist.batch-size:5000}") int batchSize,
+                               @Value("${seckill.stock-persist.lock-ttl-ms:10000}") long lockTtlMs) {
+        this.redis = redis;
+        this.inventory = inventory;
+        this.stockRepo = stockRepo;
+        this.log = log;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.lockTtlMs = lockTtlMs;
+    }
+
+    @Scheduled(fixedDelayString = "${seckill.stock-persist.flush-ms:1000}")
+    public void flush() {
+        if (!enabled) return;
+        // one writer at a time: two nodes popping the same goods could otherwise persist an older value last
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(LOCK_KEY, token, Duration.ofMillis(lockTtlMs)))) return;
+        try {
+            persistDirty();
+        } finally {
+            try { redis.execute(SeckillScripts.LOCK_RELEASE, List.of(LOCK_KEY), token); } catch (Exception ignored) {}
+        }
+    }
+
+    int persistDirty() {
+        List<String> ids = redis.opsForSet().pop(InventoryService.DIRTY_KEY, batchSize);
+        if (ids == null || ids.isEmpty()) return 0;
+        Map<Long, Long> stock = new LinkedHashMap<>();
+        try {
+            List<Long> single = new ArrayList<>(ids.size());
+            List<String> singleKeys = new ArrayList<>(ids.size());
+            for (String raw : ids) {
+                long id;
+                try { id = Long.parseLong(raw); } catch (NumberFormatException e) { continue; }
+                if (inventory.shardCount(id) > 0) {
+                    // with a shard evicted the sum is short by that shard; the next decrement re-seeds it and marks the goods again
+                    Long total = inventory.shardTotal(id);
+                    if (total != null) stock.put(id, total);
+                } else {
+                    single.add(id);
+                    singleKeys.add(InventoryService.stockKey(id));
+                }
+            }
+            if (!singleKeys.isEmpty()) {
+                List<String> values = redis.opsForValue().multiGet(singleKeys);
+                for (int i = 0; values != null && i < values.size(); i++) {
+                    // an evicted key has nothing newer than the table; keep the persisted value
+                    if (values.get(i) != null) stock.put(single.get(i), Long.parseLong(values.get(i)));
+                }
+            }
+            int updated = stockRepo.persistStock(stock);
+            log.info("stock_write_behind_flushed", Map.of("dirty", ids.size(), "persisted", stock.size(), "updated", updated));
+            return stock.size();
+        } catch (Exception e) {
+            // put the goods back so the next flush retries them
+            try { redis.opsForSet().add(InventoryService.DIRTY_KEY, ids.toArray(new String[0])); } catch (Exception ignored) {}
+            log.error("stock_write_behind_error", Map.of("dirty", ids.size(), "error", String.valueOf(e.getMessage())));
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.flashsale.backend.kafka;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.OrderStatus;
+import com.flashsale.backend.model.SeckillOrder;
+import com.flashsale.backend.repository.SeckillOrderBulkRepository;
+import com.flashsale.backend.service.MetricsService;
+import com.flashsale.backend.service.SeckillResultService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Component
+@ConditionalOnProperty(name = "kafka.consumer.batch-enabled", havingValue = "true")
+public class OrderBatchConsumer {
+    private final SeckillOrderBulkRepository bulkRepo;
+    private final OrderDedupeFilter dedupeFilter;
+    private final OrderConsumer single;
+    private final MetricsService metricsService;
+    private final SeckillResultService results;
+    private final LoggerService log;
+    // prices stay decimal from the wire to the turnover counter
+    private final ObjectMapper mapper = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+
+    private record Pending(ConsumerRecord<String, String> record, int index, JsonNode node) {}
+
+    public OrderBatchConsumer(SeckillOrderBulkRepository bulkRepo, OrderDedupeFilter dedupeFilter, OrderConsumer single, MetricsService metricsService, SeckillResultService results, LoggerService log) {
+        this.bulkRepo = bulkRepo;
+        this.dedupeFilter = dedupeFilter;
+        this.single = single;
+        this.metricsService = metricsService;
+        this.results = results;
+        this.log = log;
+    }
+
+    @KafkaListener(topics = "${kafka.order-topic}", groupId = "${kafka.consumer-group}", containerFactory = "batchKafkaListenerContainerFactory")
+    public void handleBatch(List<ConsumerRecord<String, String>> messages) {
+        long start = System.currentTimeMillis();
+        // a redelivered poll can carry the same order twice; the first copy wins
+        Map<String, Pending> byOrderId = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            ConsumerRecord<String, String> record = messages.get(i);
+            JsonNode node;
+            try {
+                node = mapper.readTree(record.value());
+            } catch (Exception e) {
+                handleOne(record, i);
+                continue;
+            }
+            String externalOrderId = node.path("order_id").asText("");
+            if (externalOrderId.isEmpty()) {
+                handleOne(record, i);
+                continue;
+            }
+            byOrderId.putIfAbsent(externalOrderId, new Pending(record, i, node));
+        }
+        if (byOrderId.isEmpty()) return;
+
+        Set<String> existing;
+        List<SeckillOrder> fresh = new ArrayList<>(byOrderId.size());
+        List<SeckillOrder> inserted;
+        try {
+            // only ids this node may already have written are looked up; the rest go straight to the insert
+            List<String> suspects = new ArrayList<>();
+            for (String id : byOrderId.keySet()) {
+                if (dedupeFilter.mightContain(id)) suspects.add(id);
+            }
+            // no suspects, no SELECT: the insert sorts out anything stored by another node
+            existing = suspects.isEmpty() ? Set.of() : bulkRepo.findExistingExternalIds(suspects);
+            LocalDateTime now = LocalDateTime.now();
+            for (var e : byOrderId.entrySet()) {
+                if (existing.contains(e.getKey())) continue;
+                JsonNode node = e.getValue().node();
+                SeckillOrder order = new SeckillOrder();
+                order.setUserId(node.path("user_id").asLong());
+                order.setGoodsId(node.path("goods_id").asLong());
+                order.setStatus(OrderStatus.PAID.getCode());
+                order.setCreateTime(now);
+                order.setUpdatedAt(now);
+                order.setExternalOrderId(e.getKey());
+                fresh.add(order);
+            }
+            inserted = bulkRepo.insertIgnoringDuplicates(fresh);
+        } catch (Exception ex) {
+            // fall back to the per-record path, which isolates a bad row and sends it to the DLQ
+            java.util.Map<String,Object> err = new java.util.HashMap<>();
+            err.put("records", messages.size());
+            err.put("error", String.valueOf(ex.getMessage()));
+            log.error("order_batch_insert_error", err);
+            for (Pending p : byOrderId.values()) handleOne(p.record(), p.index());
+            return;
+        }
+        if (inserted.size() < fresh.size()) {
+            // written by another node before a rebalance; only the rows written here count as sales
+            java.util.Map<String,Object> warn = new java.util.HashMap<>();
+            warn.put("expected", fresh.size());
+            warn.put("inserted", inserted.size());
+            log.warn("order_batch_unexpected_duplicates", warn);
+        }
+        for (SeckillOrder order : inserted) {
+            dedupeFilter.add(order.getExternalOrderId());
+            JsonNode node = byOrderId.get(order.getExternalOrderId()).node();
+            BigDecimal price = node.path("price").isNumber() ? node.path("price").decimalValue() : BigDecimal.ZERO;
+            try { metricsService.recordSale(order.getGoodsId(), price); } catch (Exception ignored) {}
+        }
+        for (var e : byOrderId.entrySet()) {
+            results.created(e.getKey(), e.getValue().node().path("user_id").asLong());
+        }
+        java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+        ctx.put("records", messages.size());
+        ctx.put("unique", byOrderId.size());
+        ctx.put("inserted", inserted.size());
+        ctx.put("duplicates", byOrderId.size() - inserted.size());
+        ctx.put("elapsed_ms", System.currentTimeMillis() - start);
+        log.info("order_batch_insert_success", ctx);
+    }
+
+    // a record that cannot be routed fails the batch at its own index: the records before it are committed and
+    // the error handler redelivers from it, instead of retrying or skipping the whole poll
+    private void handleOne(ConsumerRecord<String, String> record, int index) {
+        try {
+            single.handle(record.key(), record.value());
+        } catch (IllegalStateException ex) {
+            throw new BatchListenerFailedException(ex.getMessage(), ex, index);
+        }
+    }
+}
@@ -2,11 +2,12 @@ package com.flashsale.backend.kafka;
 
 import com.flashsale.backend.logging.LoggerService;
 import com.flashsale.backend.model.OrderStatus;
-import com.flashsale.backend.repository.SeckillOrderRepository;
+import com.flashsale.backend.repository.SeckillOrderBulkRepository;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.kafka.core.KafkaTemplate;
 import com.flashsale.backend.service.MetricsService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.flashsale.backend.service.SeckillResultService;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
@@ -16,40 +17,75 @@ import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class OrderConsumer {
-    private final SeckillOrderRepository orderRepo;
-    private final StringRedisTemplate redis;
+    private final SeckillOrderBulkRepository orderRepo;
+    private final OrderDedupeFilter dedupeFilter;
     private final LoggerService log;
     @Value("${kafka.order-topic}")
     private String topic;
     @Value("${kafka.consumer-group}")
     private String group;
-    @Value("${kafka.order-dlq-topic}")
-    private String dlqTopic;
     private final AtomicLong processed = new AtomicLong();
     private final AtomicLong paidUpdates = new AtomicLong();
     private final AtomicLong skippedNotFound = new AtomicLong();
     private final AtomicLong skippedNotPending = new AtomicLong();
     private final AtomicLong errors = new AtomicLong();
 
-    private final KafkaTemplate<String, String> kafka;
+    private final OrderRetryRouter retryRouter;
     private final MetricsService metricsService;
+    private final SeckillResultService results;
 
-    public OrderConsumer(SeckillOrderRepository orderRepo, StringRedisTemplate redis, LoggerService log, KafkaTemplate<String, String> kafka, MetricsService metricsService) {
+    // STORED also covers duplicates; MALFORMED messages can never succeed and skip the retry ladder.
+    // UNROUTED means a failed message could not be handed to its retry tier or the DLQ; it must be redelivered.
+    public enum Outcome { STORED, RETRYABLE, MALFORMED, UNROUTED }
+
+    public OrderConsumer(SeckillOrderBulkRepository orderRepo, OrderDedupeFilter dedupeFilter, LoggerService log, OrderRetryRouter retryRouter, MetricsService metricsService, SeckillResultService results) {
         this.orderRepo = orderRepo;
-        this.redis = redis;
+        this.dedupeFilter = dedupeFilter;
         this.log = log;
-        this.kafka = kafka;
+        this.retryRouter = retryRouter;
         this.metricsService = metricsService;
+        this.results = results;
+    }
+
+    // stays stopped when OrderBatchConsumer owns the topic
+    @KafkaListener(topics = "${kafka.order-topic}", groupId = "${kafka.consumer-group}", autoStartup = "#{!${kafka.consumer.batch-enabled:false}}")
+    public void handle(ConsumerRecord<String, String> record) {
+        handle(record.key(), record.value());
+    }
+
+    // the key goes along to the retry tiers and the DLQ so the order keeps its partition
+    public void handle(String key, String message) {
+        if (dispatch(key, message, 0) == Outcome.UNROUTED) {
+            // KafkaConfig's error handler seeks back and redelivers with backoff, never skipping the record
+            throw new IllegalStateException("order message could not be routed to a retry tier");
+        }
+    }
+
+    // failedAttempts is how often this message has already failed; another failure moves it one tier up the retry ladder
+    public Outcome dispatch(String key, String message, int failedAttempts) {
+        Outcome outcome = store(message);
+        if (outcome == Outcome.MALFORMED) {
+            if (!retryRouter.deadLetter(key, message, failedAttempts)) return Outcome.UNROUTED;
+        } else if (outcome == Outcome.RETRYABLE) {
+            if (!retryRouter.escalate(key, message, failedAttempts + 1)) return Outcome.UNROUTED;
+            if (retryRouter.exhausted(failedAttempts + 1)) {
+                try {
+                    var node = new com.fasterxml.jackson.databind.ObjectMapper().readTree(message);
+                    results.failed(node.path("order_id").asText(), node.path("user_id").asLong());
+                } catch (Exception ignored) {}
+            }
+        }
+        return outcome;
     }
 
-    @KafkaListener(topics = "${kafka.order-topic}", groupId = "${kafka.consumer-group}")
-    public void handle(String message) {
+    public Outcome store(String message) {
         try {
-            var mapper = new com.fasterxml.jackson.databind.ObjectMapper();
+            var mapper = new com.fasterxml.jackson.databind.ObjectMapper().enable(com.fasterxml.jackson.databind.DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
             var node = mapper.readTree(message);
             String externalOrderId = node.path("order_id").asText();
             long goodsId = node.path("goods_id").asLong();
-            double price = node.path("price").isNumber() ? node.path("price").asDouble() : 0.0;
+            long userId = node.path("user_id").asLong();
+            BigDecimal price = node.path("price").isNumber() ? node.path("price").decimalValue() : BigDecimal.ZERO;
             String requestId = node.path("request_id").asText(null);
             java.util.Map<String,Object> ctx1 = new java.util.HashMap<>();
             ctx1.put("requestId", String.valueOf(requestId));
@@ -57,50 +93,54 @@ public class OrderConsumer {
             ctx1.put("goods_id", goodsId);
             ctx1.put("price", price);
             log.info("kafka_order_received", ctx1);
-            String processedKey = "order_processed:" + externalOrderId;
-            Boolean first = redis.opsForValue().setIfAbsent(processedKey, "1", java.time.Duration.ofHours(48));
-            if (Boolean.FALSE.equals(first)) {
-                java.util.Map<String,Object> ctx2 = new java.util.HashMap<>();
-                ctx2.put("requestId", String.valueOf(requestId));
-                ctx2.put("order_id", externalOrderId);
-                log.info("order_exists_skip", ctx2);
-            } else {
-                try {
-                    var existing = orderRepo.findByExternalOrderId(externalOrderId);
-                    if (existing.isPresent()) {
-                        java.util.Map<String,Object> ctx3 = new java.util.HashMap<>();
-                        ctx3.put("requestId", String.valueOf(requestId));
-                        ctx3.put("order_id", externalOrderId);
-                        ctx3.put("db_id", existing.get().getId());
-                        log.info("order_db_exists_skip", ctx3);
-                    } else {
-                        com.flashsale.backend.model.SeckillOrder order = new com.flashsale.backend.model.SeckillOrder();
-                        order.setUserId(node.path("user_id").asLong());
-                        order.setGoodsId(goodsId);
-                        order.setStatus(OrderStatus.PAID.getCode());
-                        order.setCreateTime(java.time.LocalDateTime.now());
-                        order.setUpdatedAt(java.time.LocalDateTime.now());
-                        order.setExternalOrderId(externalOrderId);
-                        orderRepo.save(order);
-                        metricsService.recordSale(goodsId, price);
-                        paidUpdates.incrementAndGet();
-                        java.util.Map<String,Object> ctx4 = new java.util.HashMap<>();
-                        ctx4.put("requestId", String.valueOf(requestId));
-                        ctx4.put("order_id", externalOrderId);
-                        ctx4.put("db_id", order.getId());
-                        ctx4.put("goods_id", goodsId);
-                        ctx4.put("price", price);
-                        log.info("order_insert_success", ctx4);
+            try {
+                com.flashsale.backend.model.SeckillOrder order = new com.flashsale.backend.model.SeckillOrder();
+                order.setUserId(userId);
+                order.setGoodsId(goodsId);
+                order.setStatus(OrderStatus.PAID.getCode());
+                order.setCreateTime(java.time.LocalDateTime.now());
+                order.setUpdatedAt(java.time.LocalDateTime.now());
+                order.setExternalOrderId(externalOrderId);
+                // a filter hit is checked with a read first, which is cheaper than a failing insert
+                boolean stored = dedupeFilter.mightContain(externalOrderId)
+                        && !orderRepo.findExistingExternalIds(java.util.List.of(externalOrderId)).isEmpty();
+                long dbId = -1L;
+                if (!stored) {
+                    try {
+                        dbId = orderRepo.insert(order);
+                    } catch (DuplicateKeyException dup) {
+                        stored = true;
                     }
-                } catch (Exception ex) {
-                    errors.incrementAndGet();
-                    java.util.Map<String,Object> err = new java.util.HashMap<>();
-                    err.put("requestId", String.valueOf(requestId));
-                    err.put("order_id", externalOrderId);
-                    err.put("error", String.valueOf(ex.getMessage()));
-                    log.error("order_insert_error", err);
-                    try { kafka.send(dlqTopic, externalOrderId, message); } catch (Exception ignored) {}
                 }
+                if (stored) {
+                    dedupeFilter.add(externalOrderId);
+                    java.util.Map<String,Object> ctx3 = new java.util.HashMap<>();
+                    ctx3.put("requestId", String.valueOf(requestId));
+                    ctx3.put("order_id", externalOrderId);
+                    log.info("order_db_exists_skip", ctx3);
+                    results.created(externalOrderId, userId);
+                }
+                if (dbId >= 0) {
+                    dedupeFilter.add(externalOrderId);
+                    metricsService.recordSale(goodsId, price);
+                    paidUpdates.incrementAndGet();
+                    results.created(externalOrderId, userId);
+                    java.util.Map<String,Object> ctx4 = new java.util.HashMap<>();
+                    ctx4.put("requestId", String.valueOf(requestId));
+                    ctx4.put("order_id", externalOrderId);
+                    ctx4.put("db_id", dbId);
+                    ctx4.put("goods_id", goodsId);
+                    ctx4.put("price", price);
+                    log.info("order_insert_success", ctx4);
+                }
+            } catch (Exception ex) {
+                errors.incrementAndGet();
+                java.util.Map<String,Object> err = new java.util.HashMap<>();
+                err.put("requestId", String.valueOf(requestId));
+                err.put("order_id", externalOrderId);
+                err.put("error", String.valueOf(ex.getMessage()));
+                log.error("order_insert_error", err);
+                return Outcome.RETRYABLE;
             }
             long p = processed.incrementAndGet();
             if (p % 50 == 0) {
@@ -114,11 +154,13 @@ public class OrderConsumer {
                 ctx5.put("errors", errors.get());
                 log.info("order_consumer_heartbeat", ctx5);
             }
+            return Outcome.STORED;
         } catch (Exception e) {
             errors.incrementAndGet();
             java.util.Map<String,Object> err2 = new java.util.HashMap<>();
             err2.put("error", String.valueOf(e.getMessage()));
             log.error("kafka_consume_order_error", err2);
+            return Outcome.MALFORMED;
         }
     }
 }
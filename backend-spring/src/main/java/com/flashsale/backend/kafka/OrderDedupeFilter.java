@@ -0,0 +1,54 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.util.BloomFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Remembers order ids this node has written. A miss means "not written here recently", never "not in the table".
+@Component
+public class OrderDedupeFilter {
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final AtomicLong inserted = new AtomicLong();
+    // two generations so the filter never saturates: the older one is dropped when the current fills up
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+
+    public OrderDedupeFilter(@Value("${kafka.consumer.dedupe-filter.enabled:false}") boolean enabled,
+                             @Value("${kafka.consumer.dedupe-filter.expected-insertions:1000000}") long expectedInsertions,
+                             @Value("${kafka.consumer.dedupe-filter.fpp:0.001}") double fpp) {
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        if (enabled) {
+            this.current = new BloomFilter(expectedInsertions, fpp);
+            this.previous = new BloomFilter(1, fpp);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void add(String orderId) {
+        if (!enabled) return;
+        if (inserted.incrementAndGet() > expectedInsertions) rotate();
+        current.put(orderId);
+    }
+
+    // with the filter off nothing is remembered, so nothing is looked up; the unique key catches the duplicates
+    public boolean mightContain(String orderId) {
+        if (!enabled) return false;
+        return current.mightContain(orderId) || previous.mightContain(orderId);
+    }
+
+    private synchronized void rotate() {
+        if (inserted.get() <= expectedInsertions) return;
+        previous = current;
+        current = new BloomFilter(expectedInsertions, fpp);
+        inserted.set(0);
+    }
+}
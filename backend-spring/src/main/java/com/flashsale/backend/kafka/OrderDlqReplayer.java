@@ -0,0 +1,118 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.logging.LoggerService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays the DLQ at a bounded rate. Stopped by default; driven through /api/admin/orders/dlq.
+@Component
+public class OrderDlqReplayer {
+    public static final String LISTENER_ID = "order-dlq-replayer";
+
+    private final OrderConsumer orders;
+    private final KafkaListenerEndpointRegistry listeners;
+    private final LoggerService log;
+    private final Counter replayed;
+    private final Counter failed;
+    private final Counter malformed;
+    private volatile double ratePerSecond;
+    private long nextPermitAt;
+
+    public OrderDlqReplayer(OrderConsumer orders,
+                            KafkaListenerEndpointRegistry listeners,
+                            LoggerService log,
+                            MeterRegistry registry,
+                            @Value("${kafka.order-dlq-replay.rate-per-second:50}") double ratePerSecond) {
+        this.orders = orders;
+        this.listeners = listeners;
+        this.log = log;
+        this.ratePerSecond = ratePerSecond;
+        this.replayed = Counter.builder("seckill_order_dlq_replayed_total").tag("outcome", "stored").register(registry);
+        this.failed = Counter.builder("seckill_order_dlq_replayed_total").tag("outcome", "failed").register(registry);
+        this.malformed = Counter.builder("seckill_order_dlq_replayed_total").tag("outcome", "malformed").register(registry);
+    }
+
+    @KafkaListener(id = LISTENER_ID, topics = "${kafka.order-dlq-topic}", groupId = "${kafka.consumer-group}-dlq-replay",
+            containerFactory = "manualAckKafkaListenerContainerFactory", autoStartup = "false")
+    public void handle(ConsumerRecord<String, String> record, Acknowledgment ack) {
+        throttle();
+        OrderConsumer.Outcome outcome = orders.store(record.value());
+        if (outcome == OrderConsumer.Outcome.RETRYABLE) {
+            // the database is still failing: stop instead of churning through the DLQ, and keep this record for the next run
+            failed.increment();
+            container().pause();
+            ack.nack(Duration.ofSeconds(1));
+            java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+            ctx.put("key", String.valueOf(record.key()));
+            ctx.put("offset", record.offset());
+            log.warn("order_dlq_replay_paused", ctx);
+            return;
+        }
+        if (outcome == OrderConsumer.Outcome.MALFORMED) {
+            // no replay can ever store it; it is skipped and counted apart so "replayed" means stored
+            malformed.increment();
+            java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+            ctx.put("key", String.valueOf(record.key()));
+            ctx.put("offset", record.offset());
+            log.warn("order_dlq_replay_malformed", ctx);
+        } else {
+            replayed.increment();
+        }
+        ack.acknowledge();
+    }
+
+    public void start() {
+        MessageListenerContainer c = container();
+        if (!c.isRunning()) c.start();
+        if (c.isPauseRequested()) c.resume();
+    }
+
+    public void pause() {
+        container().pause();
+    }
+
+    public void setRatePerSecond(double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public Map<String, Object> status() {
+        MessageListenerContainer c = container();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("running", c.isRunning());
+        m.put("paused", c.isPauseRequested());
+        m.put("rate_per_second", ratePerSecond);
+        m.put("replayed", (long) replayed.count());
+        m.put("failed", (long) failed.count());
+        m.put("malformed", (long) malformed.count());
+        return m;
+    }
+
+    // the listener runs on a single consumer thread, so a plain next-permit timestamp is enough
+    private void throttle() {
+        double rate = ratePerSecond;
+        if (rate <= 0) return;
+        long now = System.nanoTime();
+        long interval = (long) (1_000_000_000L / rate);
+        if (nextPermitAt > now) {
+            LockSupport.parkNanos(nextPermitAt - now);
+            now = nextPermitAt;
+        }
+        nextPermitAt = Math.max(nextPermitAt, now) + interval;
+    }
+
+    private MessageListenerContainer container() {
+        return listeners.getListenerContainer(LISTENER_ID);
+    }
+}
@@ -0,0 +1,94 @@
+package com.flashsale.backend.kafka;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Messages waiting in each retry tier and in the DLQ, measured as log-end offset minus the owning group's committed offset.
+@Component
+public class OrderRetryBacklogMonitor {
+    private final KafkaAdmin kafkaAdmin;
+    private final OrderRetryRouter router;
+    private final String retryGroup;
+    private final String replayGroup;
+    private final Map<String, AtomicLong> backlog = new ConcurrentHashMap<>();
+    private AdminClient admin;
+
+    public OrderRetryBacklogMonitor(KafkaAdmin kafkaAdmin,
+                                    OrderRetryRouter router,
+                                    MeterRegistry registry,
+                                    @Value("${kafka.consumer-group}") String group) {
+        this.kafkaAdmin = kafkaAdmin;
+        this.router = router;
+        this.retryGroup = group + "-retry";
+        this.replayGroup = group + "-dlq-replay";
+        for (String topic : router.tiers()) {
+            AtomicLong holder = new AtomicLong(-1);
+            backlog.put(topic, holder);
+            Gauge.builder("seckill_order_retry_backlog", holder, AtomicLong::get)
+                    .tag("topic", topic)
+                    .register(registry);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${kafka.order-retry.backlog-refresh-ms:15000}")
+    public void refresh() {
+        try {
+            AdminClient client = client();
+            Map<String, Long> retry = lag(client, retryGroup, List.of(router.retryTopics()));
+            Map<String, Long> dlq = lag(client, replayGroup, List.of(router.dlqTopic()));
+            retry.forEach((t, v) -> backlog.get(t).set(v));
+            dlq.forEach((t, v) -> backlog.get(t).set(v));
+        } catch (Exception ignored) {
+            // broker unreachable: keep the last values rather than reporting an empty backlog
+        }
+    }
+
+    public Map<String, Long> snapshot() {
+        Map<String, Long> m = new HashMap<>();
+        backlog.forEach((t, v) -> m.put(t, v.get()));
+        return m;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (admin != null) admin.close();
+    }
+
+    private synchronized AdminClient client() {
+        if (admin == null) admin = AdminClient.create(kafkaAdmin.getConfigurationProperties());
+        return admin;
+    }
+
+    private static Map<String, Long> lag(AdminClient client, String group, List<String> topics) throws Exception {
+        Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+        var described = client.describeTopics(topics).allTopicNames().get(10, TimeUnit.SECONDS);
+        described.forEach((topic, d) -> d.partitions().forEach(p -> latest.put(new TopicPartition(topic, p.partition()), OffsetSpec.latest())));
+        var ends = client.listOffsets(latest).all().get(10, TimeUnit.SECONDS);
+        Map<TopicPartition, OffsetAndMetadata> committed = client.listConsumerGroupOffsets(group)
+                .partitionsToOffsetAndMetadata().get(10, TimeUnit.SECONDS);
+        Map<String, Long> byTopic = new HashMap<>();
+        for (String t : topics) byTopic.put(t, 0L);
+        ends.forEach((tp, info) -> {
+            OffsetAndMetadata c = committed.get(tp);
+            long pending = info.offset() - (c == null ? 0 : c.offset());
+            byTopic.merge(tp.topic(), Math.max(0, pending), Long::sum);
+        });
+        return byTopic;
+    }
+}
@@ -0,0 +1,96 @@
+package com.flashsale.backend.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A record that is not due yet holds back only its own partition: the consumer seeks back to it and pauses that
+// partition until the due time, while the other tiers and partitions on the same consumer keep flowing.
+@Component
+public class OrderRetryConsumer implements ConsumerSeekAware {
+    public static final String LISTENER_ID = "order-retry";
+
+    private final OrderConsumer orders;
+    private final KafkaListenerEndpointRegistry listeners;
+    private final long unroutedBackoffMs;
+    // held partitions and the offset of the record they were rewound to
+    private final Map<TopicPartition, Held> held = new ConcurrentHashMap<>();
+
+    private record Held(long offset, long resumeAt) {}
+
+    public OrderRetryConsumer(OrderConsumer orders,
+                              KafkaListenerEndpointRegistry listeners,
+                              @Value("${kafka.order-retry.unrouted-backoff-ms:1000}") long unroutedBackoffMs) {
+        this.orders = orders;
+        this.listeners = listeners;
+        this.unroutedBackoffMs = unroutedBackoffMs;
+    }
+
+    @KafkaListener(id = LISTENER_ID, topics = "#{@orderRetryRouter.retryTopics()}", groupId = "${kafka.consumer-group}-retry", containerFactory = "manualAckKafkaListenerContainerFactory")
+    public void handle(ConsumerRecord<String, String> record, Acknowledgment ack, Consumer<?, ?> consumer) {
+        TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+        Held h = held.get(tp);
+        if (h != null) {
+            // the rest of a poll that already rewound this partition; these records come again after the seek
+            if (record.offset() != h.offset()) return;
+            held.remove(tp, h);
+        }
+        long now = System.currentTimeMillis();
+        long dueAt = OrderRetryRouter.headerLong(record.headers(), OrderRetryRouter.DUE_AT_HEADER, 0);
+        if (dueAt > now) {
+            // each tier has a single delay, so everything behind this record on its partition is due even later
+            holdBack(tp, record.offset(), dueAt, consumer);
+            return;
+        }
+        int attempt = (int) OrderRetryRouter.headerLong(record.headers(), OrderRetryRouter.ATTEMPT_HEADER, 1);
+        if (orders.dispatch(record.key(), record.value(), attempt) == OrderConsumer.Outcome.UNROUTED) {
+            // the next tier did not take it; redeliver rather than commit a message that lives nowhere
+            holdBack(tp, record.offset(), now + unroutedBackoffMs, consumer);
+            return;
+        }
+        ack.acknowledge();
+    }
+
+    @Scheduled(fixedDelayString = "${kafka.order-retry.resume-check-ms:200}")
+    public void resumeDue() {
+        if (held.isEmpty()) return;
+        MessageListenerContainer c = container();
+        if (c == null) return;
+        long now = System.currentTimeMillis();
+        for (var e : held.entrySet()) {
+            if (e.getValue().resumeAt() <= now && c.isPartitionPauseRequested(e.getKey())) c.resumePartition(e.getKey());
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        MessageListenerContainer c = container();
+        for (TopicPartition tp : partitions) {
+            // whoever owns the partition next starts from the committed offset, unpaused
+            if (held.remove(tp) != null && c != null) c.resumePartition(tp);
+        }
+    }
+
+    private void holdBack(TopicPartition tp, long offset, long resumeAt, Consumer<?, ?> consumer) {
+        held.put(tp, new Held(offset, resumeAt));
+        consumer.seek(tp, offset);
+        MessageListenerContainer c = container();
+        if (c != null) c.pausePartition(tp);
+    }
+
+    private MessageListenerContainer container() {
+        return listeners.getListenerContainer(LISTENER_ID);
+    }
+}
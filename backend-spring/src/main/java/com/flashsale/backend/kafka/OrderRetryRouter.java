@@ -0,0 +1,128 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.logging.LoggerService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Failed order inserts climb a ladder of delayed retry topics before they land in the DLQ.
+@Component
+public class OrderRetryRouter {
+    public static final String ATTEMPT_HEADER = "x-retry-attempt";
+    public static final String DUE_AT_HEADER = "x-retry-due-at";
+
+    private final KafkaTemplate<String, String> kafka;
+    private final LoggerService log;
+    private final String dlqTopic;
+    private final long[] delaysMs;
+    private final long sendTimeoutMs;
+    private final String[] retryTopics;
+    private final Map<String, Counter> routed = new HashMap<>();
+
+    public OrderRetryRouter(KafkaTemplate<String, String> kafka,
+                            LoggerService log,
+                            MeterRegistry registry,
+                            @Value("${kafka.order-topic}") String orderTopic,
+                            @Value("${kafka.order-dlq-topic}") String dlqTopic,
+                            @Value("${kafka.order-retry.delays-ms:5000,30000,120000}") long[] delaysMs,
+                            @Value("${kafka.order-retry.send-timeout-ms:5000}") long sendTimeoutMs) {
+        this.kafka = kafka;
+        this.log = log;
+        this.dlqTopic = dlqTopic;
+        this.delaysMs = delaysMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.retryTopics = new String[delaysMs.length];
+        for (int i = 0; i < delaysMs.length; i++) {
+            retryTopics[i] = orderTopic + "-retry-" + i;
+            routed.put(retryTopics[i], routedCounter(registry, "retry-" + i));
+        }
+        routed.put(dlqTopic, routedCounter(registry, "dlq"));
+    }
+
+    public String[] retryTopics() {
+        return retryTopics.clone();
+    }
+
+    public String dlqTopic() {
+        return dlqTopic;
+    }
+
+    public List<String> tiers() {
+        List<String> tiers = new ArrayList<>(Arrays.asList(retryTopics));
+        tiers.add(dlqTopic);
+        return tiers;
+    }
+
+    // true once failedAttempts has used up every retry tier, so escalate sends the message to the DLQ
+    public boolean exhausted(int failedAttempts) {
+        return failedAttempts > retryTopics.length;
+    }
+
+    // failedAttempts counts every failed insert so far, including the one that triggered this call.
+    // Returns false when the broker did not take the message; the caller must not commit the source record then.
+    public boolean escalate(String key, String message, int failedAttempts) {
+        if (exhausted(failedAttempts)) return deadLetter(key, message, failedAttempts);
+        String topic = retryTopics[failedAttempts - 1];
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, message);
+        record.headers().add(ATTEMPT_HEADER, String.valueOf(failedAttempts).getBytes(StandardCharsets.UTF_8));
+        record.headers().add(DUE_AT_HEADER, String.valueOf(System.currentTimeMillis() + delaysMs[failedAttempts - 1]).getBytes(StandardCharsets.UTF_8));
+        return send(record, failedAttempts);
+    }
+
+    public boolean deadLetter(String key, String message, int failedAttempts) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(dlqTopic, key, message);
+        record.headers().add(ATTEMPT_HEADER, String.valueOf(failedAttempts).getBytes(StandardCharsets.UTF_8));
+        return send(record, failedAttempts);
+    }
+
+    static long headerLong(Iterable<Header> headers, String name, long def) {
+        Header last = null;
+        for (Header h : headers) {
+            if (name.equals(h.key())) last = h;
+        }
+        if (last == null) return def;
+        try {
+            return Long.parseLong(new String(last.value(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private boolean send(ProducerRecord<String, String> record, int failedAttempts) {
+        try {
+            // the source record is committed right after this returns, so the hand-off has to be acknowledged first
+            kafka.send(record).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            routed.get(record.topic()).increment();
+            java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+            ctx.put("topic", record.topic());
+            ctx.put("key", String.valueOf(record.key()));
+            ctx.put("attempt", failedAttempts);
+            log.warn("order_retry_routed", ctx);
+            return true;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            java.util.Map<String,Object> err = new java.util.HashMap<>();
+            err.put("topic", record.topic());
+            err.put("key", String.valueOf(record.key()));
+            err.put("error", String.valueOf(e.getMessage()));
+            log.error("order_retry_route_error", err);
+            return false;
+        }
+    }
+
+    private static Counter routedCounter(MeterRegistry registry, String tier) {
+        return Counter.builder("seckill_order_retry_routed_total").tag("tier", tier).register(registry);
+    }
+}
@@ -0,0 +1,26 @@
+package com.flashsale.backend.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+public record GoodsSnapshot(long id,
+                            String name,
+                            BigDecimal seckillPrice,
+                            LocalDateTime startTime,
+                            LocalDateTime endTime,
+                            int seedStock) {
+
+    public static GoodsSnapshot of(SeckillGoods g) {
+        return new GoodsSnapshot(
+                g.getId(),
+                g.getName(),
+                g.getSeckillPrice() != null ? g.getSeckillPrice() : BigDecimal.ZERO,
+                g.getStartTime(),
+                g.getEndTime(),
+                g.getStock() != null ? g.getStock() : 0);
+    }
+
+    public boolean isActive(LocalDateTime now) {
+        return startTime != null && endTime != null && !startTime.isAfter(now) && !endTime.isBefore(now);
+    }
+}
@@ -1,5 +1,6 @@
 package com.flashsale.backend.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -20,6 +21,10 @@ public class SeckillGoods {
     @Column
     private Integer stock;
 
+    @JsonIgnore
+    @Column(name = "initial_stock")
+    private Integer initialStock;
+
     @Column(name = "original_price", nullable = false)
     private BigDecimal originalPrice;
 
@@ -46,6 +51,8 @@ public class SeckillGoods {
     public void setDescription(String description) { this.description = description; }
     public Integer getStock() { return stock; }
     public void setStock(Integer stock) { this.stock = stock; }
+    public Integer getInitialStock() { return initialStock; }
+    public void setInitialStock(Integer initialStock) { this.initialStock = initialStock; }
     public BigDecimal getOriginalPrice() { return originalPrice; }
     public void setOriginalPrice(BigDecimal originalPrice) { this.originalPrice = originalPrice; }
     public BigDecimal getSeckillPrice() { return seckillPrice; }
@@ -0,0 +1,120 @@
+package com.flashsale.backend.repository;
+
+import com.flashsale.backend.model.SeckillGoods;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Stock access for the Redis write-behind and rebuild paths; plain JDBC so a flush is one statement and a rebuild one cursor.
+@Repository
+public class SeckillGoodsStockRepository {
+    private final JdbcTemplate jdbc;
+
+    public SeckillGoodsStockRepository(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // returns the number of goods rows that still exist and were updated
+    public int persistStock(Map<Long, Long> stockByGoods) {
+        if (stockByGoods.isEmpty()) return 0;
+        StringBuilder sql = new StringBuilder(64 + stockByGoods.size() * 18);
+        sql.append("UPDATE seckill_goods SET stock = CASE id");
+        List<Object> args = new ArrayList<>(stockByGoods.size() * 3);
+        for (var e : stockByGoods.entrySet()) {
+            sql.append(" WHEN ? THEN ?");
+            args.add(e.getKey());
+            args.add(e.getValue());
+        }
+        sql.append(" END WHERE id IN (");
+        int i = 0;
+        for (Long id : stockByGoods.keySet()) {
+            if (i++ > 0) sql.append(',');
+            sql.append('?');
+            args.add(id);
+        }
+        sql.append(')');
+        return jdbc.update(sql.toString(), args.toArray());
+    }
+
+    // null when the goods no longer exists
+    public Long findStock(long goodsId) {
+        List<Integer> rows = jdbc.queryForList("SELECT stock FROM seckill_goods WHERE id = ?", Integer.class, goodsId);
+        if (rows.isEmpty()) return null;
+        Integer stock = rows.get(0);
+        return stock == null ? 0L : stock.longValue();
+    }
+
+    // units ordered per goods; cancelled orders never give stock back, so every row counts
+    public Map<Long, Long> soldCounts() {
+        Map<Long, Long> sold = new HashMap<>();
+        jdbc.query("SELECT goods_id, COUNT(*) FROM seckill_orders GROUP BY goods_id",
+                rs -> { sold.put(rs.getLong(1), rs.getLong(2)); });
+        return sold;
+    }
+
+    public long maxOrderId() {
+        Long max = jdbc.queryForObject("SELECT COALESCE(MAX(id), 0) FROM seckill_orders", Long.class);
+        return max == null ? 0L : max;
+    }
+
+    // orders with afterId < id <= upToId; ids come from AUTO_INCREMENT, so a range never has to be read twice
+    public Map<Long, Long> orderCountsInIdRange(long afterId, long upToId) {
+        Map<Long, Long> counts = new HashMap<>();
+        jdbc.query("SELECT goods_id, COUNT(*) FROM seckill_orders WHERE id > ? AND id <= ? GROUP BY goods_id",
+                rs -> { counts.put(rs.getLong(1), rs.getLong(2)); }, afterId, upToId);
+        return counts;
+    }
+
+    // goods without an initial_stock are left out
+    public Map<Long, Long> findInitialStock(Collection<Long> goodsIds) {
+        Map<Long, Long> found = new HashMap<>();
+        if (goodsIds.isEmpty()) return found;
+        String in = String.join(",", Collections.nCopies(goodsIds.size(), "?"));
+        jdbc.query("SELECT id, initial_stock FROM seckill_goods WHERE initial_stock IS NOT NULL AND id IN (" + in + ")",
+                rs -> { found.put(rs.getLong(1), rs.getLong(2)); }, goodsIds.toArray());
+        return found;
+    }
+
+    // streams the table in id order through a server-side cursor instead of materialising it
+    public void forEachGoods(int fetchSize, Consumer<SeckillGoods> sink) {
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT id, name, description, stock, initial_stock, original_price, seckill_price, start_time, end_time, created_at, updated_at FROM seckill_goods ORDER BY id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, rs -> { sink.accept(mapGoods(rs)); });
+    }
+
+    private static SeckillGoods mapGoods(ResultSet rs) throws SQLException {
+        SeckillGoods g = new SeckillGoods();
+        g.setId(rs.getLong("id"));
+        g.setName(rs.getString("name"));
+        g.setDescription(rs.getString("description"));
+        g.setStock(rs.getObject("stock", Integer.class));
+        g.setInitialStock(rs.getObject("initial_stock", Integer.class));
+        g.setOriginalPrice(rs.getBigDecimal("original_price"));
+        g.setSeckillPrice(rs.getBigDecimal("seckill_price"));
+        g.setStartTime(toLocal(rs.getTimestamp("start_time")));
+        g.setEndTime(toLocal(rs.getTimestamp("end_time")));
+        g.setCreatedAt(toLocal(rs.getTimestamp("created_at")));
+        g.setUpdatedAt(toLocal(rs.getTimestamp("updated_at")));
+        return g;
+    }
+
+    private static LocalDateTime toLocal(Timestamp ts) {
+        return ts == null ? null : ts.toLocalDateTime();
+    }
+}
@@ -0,0 +1,104 @@
+package com.flashsale.backend.repository;
+
+import com.flashsale.backend.model.SeckillOrder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// SeckillOrder uses IDENTITY ids, which turns off Hibernate's insert batching; bulk paths go through JDBC instead.
+@Repository
+public class SeckillOrderBulkRepository {
+    private static final String COLUMNS = "seckill_orders (user_id, goods_id, create_time, status, updated_at, external_order_id) VALUES ";
+    private static final String INSERT_ROW = "(?,?,?,?,?,?)";
+    // uk_seckill_orders_external_order_id is the idempotency check: a redelivered order is skipped and not counted
+    private static final String INSERT_PREFIX = "INSERT INTO " + COLUMNS;
+
+    private final JdbcTemplate jdbc;
+
+    public SeckillOrderBulkRepository(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // throws DuplicateKeyException when the external order id is already stored
+    public long insert(SeckillOrder o) {
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("INSERT INTO " + COLUMNS + INSERT_ROW, Statement.RETURN_GENERATED_KEYS);
+            ps.setLong(1, o.getUserId());
+            ps.setLong(2, o.getGoodsId());
+            ps.setTimestamp(3, o.getCreateTime() == null ? null : Timestamp.valueOf(o.getCreateTime()));
+            ps.setObject(4, o.getStatus());
+            ps.setTimestamp(5, o.getUpdatedAt() == null ? null : Timestamp.valueOf(o.getUpdatedAt()));
+            ps.setString(6, o.getExternalOrderId());
+            return ps;
+        }, keys);
+        Number id = keys.getKey();
+        return id == null ? -1L : id.longValue();
+    }
+
+    // the orders this call actually inserted; ones already stored by anyone else are left out
+    public List<SeckillOrder> insertIgnoringDuplicates(List<SeckillOrder> orders) {
+        if (orders.isEmpty()) return List.of();
+        List<SeckillOrder> pending = orders;
+        while (true) {
+            try {
+                // one statement for the common case; it fails as a whole, so no row is written when any id exists
+                insertAll(pending);
+                return pending;
+            } catch (DuplicateKeyException dup) {
+                // batch update counts cannot say which rows were new (rewriteBatchedStatements reports SUCCESS_NO_INFO),
+                // so the stored ids are read back and the rest go in again; each retry has at least one row fewer
+                List<String> ids = new ArrayList<>(pending.size());
+                for (SeckillOrder o : pending) ids.add(o.getExternalOrderId());
+                Set<String> existing = findExistingExternalIds(ids);
+                if (existing.isEmpty()) throw dup;
+                List<SeckillOrder> rest = new ArrayList<>(pending.size());
+                for (SeckillOrder o : pending) {
+                    if (!existing.contains(o.getExternalOrderId())) rest.add(o);
+                }
+                if (rest.isEmpty()) return List.of();
+                pending = rest;
+            }
+        }
+    }
+
+    private void insertAll(List<SeckillOrder> orders) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + orders.size() * (INSERT_ROW.length() + 1));
+        sql.append(INSERT_PREFIX);
+        List<Object> args = new ArrayList<>(orders.size() * 6);
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0) sql.append(',');
+            sql.append(INSERT_ROW);
+            args.addAll(Arrays.asList(row(orders.get(i))));
+        }
+        jdbc.update(sql.toString(), args.toArray());
+    }
+
+    private static Object[] row(SeckillOrder o) {
+        return new Object[]{o.getUserId(), o.getGoodsId(),
+                o.getCreateTime() == null ? null : Timestamp.valueOf(o.getCreateTime()),
+                o.getStatus(),
+                o.getUpdatedAt() == null ? null : Timestamp.valueOf(o.getUpdatedAt()),
+                o.getExternalOrderId()};
+    }
+
+    public Set<String> findExistingExternalIds(Collection<String> externalOrderIds) {
+        if (externalOrderIds.isEmpty()) return Set.of();
+        String in = String.join(",", java.util.Collections.nCopies(externalOrderIds.size(), "?"));
+        List<String> found = jdbc.queryForList("SELECT external_order_id FROM seckill_orders WHERE external_order_id IN (" + in + ")",
+                String.class, externalOrderIds.toArray());
+        return new HashSet<>(found);
+    }
+}
@@ -4,7 +4,10 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
@@ -12,14 +15,22 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Component
 public class JwtAuthFilter extends OncePerRequestFilter {
+    public static final String ADMIN_ROLE = "ADMIN";
+    private static final List<GrantedAuthority> ADMIN = List.of(new SimpleGrantedAuthority("ROLE_" + ADMIN_ROLE));
+
     private final JwtService jwtService;
+    private final Set<String> adminUsernames;
 
-    public JwtAuthFilter(JwtService jwtService) {
+    public JwtAuthFilter(JwtService jwtService,
+                         @Value("${security.admin-usernames:admin}") Set<String> adminUsernames) {
         this.jwtService = jwtService;
+        this.adminUsernames = adminUsernames;
     }
 
     @Override
@@ -30,11 +41,14 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         if (token != null) {
             try {
                 var claims = jwtService.parse(token);
+                String username = (String) claims.get("username");
                 var principal = Map.of(
                         "userId", ((Number) claims.get("userId")).longValue(),
-                        "username", (String) claims.get("username")
+                        "username", username
                 );
-                var authentication = new UsernamePasswordAuthenticationToken(principal, null, null);
+                // users have no roles in the schema; the operators are named in configuration
+                var authorities = adminUsernames.contains(username) ? ADMIN : List.<GrantedAuthority>of();
+                var authentication = new UsernamePasswordAuthenticationToken(principal, null, authorities);
                 authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authentication);
             } catch (Exception ignored) {
@@ -1,33 +1,63 @@
 package com.flashsale.backend.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class CacheService {
+    public static final String ACTIVE_BY_STOCK_KEY = "goods:active_by_stock";
+    // part of every product list cache key; bumping it orphans the old entries, which then age out on their TTL
+    public static final String LIST_GEN_KEY = "products:gen";
+
     private final StringRedisTemplate redis;
+    private final Counter invalidations;
+    // highest generation seen; also counts the bumps the stock scripts make
+    private final AtomicLong observedGeneration = new AtomicLong();
 
-    public CacheService(StringRedisTemplate redis) {
+    public CacheService(StringRedisTemplate redis, MeterRegistry registry) {
         this.redis = redis;
+        this.invalidations = Counter.builder("products_list_cache_invalidations_total").register(registry);
+        FunctionCounter.builder("products_list_cache_generation_total", observedGeneration, AtomicLong::get).register(registry);
     }
 
     public void updateActiveByStock(long goodsId, long stock) {
         if (stock <= 0) {
-            try { redis.opsForZSet().remove("goods:active_by_stock", String.valueOf(goodsId)); } catch (Exception ignored) {}
+            try { redis.opsForZSet().remove(ACTIVE_BY_STOCK_KEY, String.valueOf(goodsId)); } catch (Exception ignored) {}
         } else {
-            try { redis.opsForZSet().add("goods:active_by_stock", String.valueOf(goodsId), (double) stock); } catch (Exception ignored) {}
+            try { redis.opsForZSet().add(ACTIVE_BY_STOCK_KEY, String.valueOf(goodsId), (double) stock); } catch (Exception ignored) {}
+        }
+    }
+
+    public String listGeneration() {
+        try {
+            String gen = redis.opsForValue().get(LIST_GEN_KEY);
+            if (gen == null) return "0";
+            observe(gen);
+            return gen;
+        } catch (Exception e) {
+            return "0";
         }
     }
 
     public void invalidateProductListCaches() {
         try {
-            Set<String> keys = redis.keys("products:*");
-            if (keys != null && !keys.isEmpty()) {
-                redis.delete(keys);
-            }
+            Long gen = redis.opsForValue().increment(LIST_GEN_KEY);
+            invalidations.increment();
+            if (gen != null) observe(String.valueOf(gen));
+            // the in-process copies are not keyed by generation; tell every node to drop them
+            redis.convertAndSend(ProductListCache.CHANNEL, String.valueOf(gen));
         } catch (Exception ignored) {}
     }
-}
 
+    private void observe(String gen) {
+        try {
+            long g = Long.parseLong(gen);
+            observedGeneration.accumulateAndGet(g, Math::max);
+        } catch (NumberFormatException ignored) {}
+    }
+}
@@ -0,0 +1,80 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.GoodsSnapshot;
+import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+@Service
+public class GoodsMetadataCache implements MessageListener {
+    public static final String CHANNEL = "goods:invalidate";
+    private static final Duration MISSING_TTL = Duration.ofSeconds(2);
+
+    private final SeckillGoodsRepository goodsRepo;
+    private final StringRedisTemplate redis;
+    private final LoggerService log;
+    private final Cache<Long, Optional<GoodsSnapshot>> cache;
+
+    public GoodsMetadataCache(SeckillGoodsRepository goodsRepo,
+                              StringRedisTemplate redis,
+                              LoggerService log,
+                              @Value("${seckill.goods-cache.max-size:10000}") long maxSize,
+                              @Value("${seckill.goods-cache.ttl-seconds:30}") long ttlSeconds) {
+        this.goodsRepo = goodsRepo;
+        this.redis = redis;
+        this.log = log;
+        long ttlNanos = Duration.ofSeconds(ttlSeconds).toNanos();
+        // unknown ids are cached too, but briefly, so newly created goods show up quickly
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Long, Optional<GoodsSnapshot>>() {
+                    @Override
+                    public long expireAfterCreate(Long key, Optional<GoodsSnapshot> value, long currentTime) {
+                        return value.isPresent() ? ttlNanos : MISSING_TTL.toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long key, Optional<GoodsSnapshot> value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long key, Optional<GoodsSnapshot> value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    public Optional<GoodsSnapshot> get(long goodsId) {
+        return cache.get(goodsId, id -> goodsRepo.findById(id).map(GoodsSnapshot::of));
+    }
+
+    public void invalidate(long goodsId) {
+        cache.invalidate(goodsId);
+        try {
+            redis.convertAndSend(CHANNEL, String.valueOf(goodsId));
+        } catch (Exception e) {
+            log.warn("goods_cache_broadcast_error", Map.of("goods_id", goodsId, "error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            cache.invalidate(Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (NumberFormatException ignored) {}
+    }
+}
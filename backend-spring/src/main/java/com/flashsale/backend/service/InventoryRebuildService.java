@@ -0,0 +1,182 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Reloads stock, product JSON and the active zset for every goods in one pass after Redis lost its data.
+@Service
+public class InventoryRebuildService {
+    public static final String REBUILT_KEY = "seckill:inventory:rebuilt_at";
+
+    private final StringRedisTemplate redis;
+    private final SeckillGoodsStockRepository stockRepo;
+    private final CacheService cacheService;
+    private final ObjectMapper mapper;
+    private final LoggerService log;
+    private final boolean onStartup;
+    private final int fetchSize;
+    private final int pipelineSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // while a rebuild runs, goods with a higher id have not been written to Redis yet
+    private volatile long watermark = Long.MAX_VALUE;
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    public InventoryRebuildService(StringRedisTemplate redis,
+                                   SeckillGoodsStockRepository stockRepo,
+                                   CacheService cacheService,
+                                   ObjectMapper mapper,
+                                   LoggerService log,
+                                   @Value("${seckill.rebuild.on-startup:true}") boolean onStartup,
+                                   @Value("${seckill.rebuild.fetch-size:1000}") int fetchSize,
+                                   @Value("${seckill.rebuild.pipeline-size:1000}") int pipelineSize) {
+        this.redis = redis;
+        this.stockRepo = stockRepo;
+        this.cacheService = cacheService;
+        this.mapper = mapper;
+        this.log = log;
+        this.onStartup = onStartup;
+        this.fetchSize = fetchSize;
+        this.pipelineSize = pipelineSize;
+    }
+
+    public boolean isRebuilt(long goodsId) {
+        return goodsId <= watermark;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfCold() {
+        if (!onStartup) return;
+        try {
+            // the marker goes away with the rest of the data when Redis restarts empty
+            if (Boolean.TRUE.equals(redis.hasKey(REBUILT_KEY))) return;
+        } catch (Exception e) {
+            log.warn("inventory_rebuild_check_error", Map.of("error", String.valueOf(e.getMessage())));
+            return;
+        }
+        start("startup");
+    }
+
+    public boolean start(String trigger) {
+        if (!running.compareAndSet(false, true)) return false;
+        watermark = 0;
+        Thread.ofPlatform().name("inventory-rebuild").daemon().start(() -> run(trigger));
+        return true;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("running", running.get());
+        s.put("rebuilt_up_to", watermark == Long.MAX_VALUE ? null : watermark);
+        s.put("last_run", lastRun);
+        return s;
+    }
+
+    // both sources can only lag Redis, never run ahead of it, so the lower one is the closer
+    static long rebuiltStock(Integer persisted, Integer initial, long sold) {
+        long stock = persisted == null ? 0L : persisted;
+        if (initial != null) stock = Math.min(stock, initial - sold);
+        return Math.max(0L, stock);
+    }
+
+    void run(String trigger) {
+        long started = System.nanoTime();
+        long[] counts = new long[2];
+        String outcome = "ok";
+        try {
+            Map<Long, Long> sold = stockRepo.soldCounts();
+            Set<String> sharded = new HashSet<>();
+            for (Object id : redis.opsForHash().keys(InventoryService.SHARDS_KEY)) sharded.add(String.valueOf(id));
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillGoods> batch = new ArrayList<>(pipelineSize);
+            stockRepo.forEachGoods(fetchSize, g -> {
+                batch.add(g);
+                if (batch.size() >= pipelineSize) flushBatch(batch, sold, sharded, now, counts);
+            });
+            if (!batch.isEmpty()) flushBatch(batch, sold, sharded, now, counts);
+            redis.opsForValue().set(REBUILT_KEY, String.valueOf(System.currentTimeMillis()));
+            cacheService.invalidateProductListCaches();
+        } catch (Exception e) {
+            outcome = "error";
+            log.error("inventory_rebuild_error", Map.of("trigger", trigger, "goods", counts[0], "error", String.valueOf(e.getMessage())));
+        } finally {
+            // on failure the remaining goods fall back to the lazy per-goods seeding
+            watermark = Long.MAX_VALUE;
+            running.set(false);
+        }
+        Map<String, Object> ctx = new LinkedHashMap<>();
+        ctx.put("trigger", trigger);
+        ctx.put("outcome", outcome);
+        ctx.put("goods", counts[0]);
+        ctx.put("seeded", counts[1]);
+        ctx.put("elapsed_ms", (System.nanoTime() - started) / 1_000_000);
+        ctx.put("finished_at", System.currentTimeMillis());
+        lastRun = ctx;
+        log.info("inventory_rebuild_finished", ctx);
+    }
+
+    private void flushBatch(List<SeckillGoods> batch, Map<Long, Long> sold, Set<String> sharded, LocalDateTime now, long[] counts) {
+        List<SeckillGoods> single = new ArrayList<>(batch.size());
+        for (SeckillGoods g : batch) {
+            // sharded stock lives in the shard keys; a single key next to them would be counted twice on merge
+            if (sharded.contains(String.valueOf(g.getId()))) continue;
+            g.setStock((int) rebuiltStock(g.getStock(), g.getInitialStock(), sold.getOrDefault(g.getId(), 0L)));
+            single.add(g);
+        }
+        // SETNX: a key that survived, or that live traffic seeded meanwhile, is newer than anything in the table
+        List<Object> created = redis.executePipelined((RedisCallback<Object>) con -> {
+            for (SeckillGoods g : single) {
+                con.stringCommands().setNX(bytes(InventoryService.stockKey(g.getId())), bytes(String.valueOf(g.getStock())));
+            }
+            return null;
+        });
+        redis.executePipelined((RedisCallback<Object>) con -> {
+            byte[] zset = bytes(CacheService.ACTIVE_BY_STOCK_KEY);
+            for (SeckillGoods g : batch) {
+                try {
+                    con.stringCommands().set(bytes("product:" + g.getId()), bytes(mapper.writeValueAsString(g)));
+                } catch (Exception ignored) {}
+            }
+            for (int i = 0; i < single.size(); i++) {
+                SeckillGoods g = single.get(i);
+                boolean active = !g.getStartTime().isAfter(now) && g.getEndTime().isAfter(now);
+                if (!active || g.getStock() <= 0) continue;
+                byte[] member = bytes(String.valueOf(g.getId()));
+                if (Boolean.TRUE.equals(created.get(i))) {
+                    con.zSetCommands().zAdd(zset, g.getStock(), member);
+                } else {
+                    con.zSetCommands().zAdd(zset, g.getStock(), member, RedisZSetCommands.ZAddArgs.ifNotExists());
+                }
+            }
+            return null;
+        });
+        for (Object c : created) {
+            if (Boolean.TRUE.equals(c)) counts[1]++;
+        }
+        counts[0] += batch.size();
+        watermark = batch.get(batch.size() - 1).getId();
+        batch.clear();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
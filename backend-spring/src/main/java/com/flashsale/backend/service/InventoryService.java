@@ -0,0 +1,564 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// The single stock key, its buyers and layout share the {id} hash tag; their scripts also keep goods:active_by_stock,
+// products:gen and the dirty set current in the same atomic call, so that path needs those keys on the same node.
+// A sharded goods gives every shard its own {id:n} tag: a decrement runs in one shard's slot and writes no shared
+// key, so the shards of a hot goods spread over Cluster nodes and their totals reach the shared keys in aggregate.
+@Service
+public class InventoryService {
+    // goods id -> shard count for every sharded goods; the scripts check seckill:shards:{id} instead
+    public static final String SHARDS_KEY = "seckill:shards";
+    // goods ids whose stock changed since the write-behind job last persisted them
+    public static final String DIRTY_KEY = "seckill:stock:dirty";
+    // Decrement.shard values that are not shard indexes
+    public static final int SINGLE = -1;
+    public static final int LEASED = -2;
+    private static final long SHARD_COUNT_TTL_MS = 5000;
+    // seed argument that makes the scripts answer -6 instead of creating a missing stock key
+    private static final String NO_SEED = "-1";
+    // the home shard is empty and holds the buyer until a sibling sells the unit
+    private static final long HOME_EMPTY = -7L;
+    private static final int COPY_BATCH = 500;
+
+    private final StringRedisTemplate redis;
+    private final LoggerService log;
+    private final MeterRegistry registry;
+    private final StockLeaseService leases;
+    private final SeckillGoodsStockRepository stockRepo;
+    // goods id -> {shard count, loaded at}; a count of 0 means the goods uses the single stock key
+    private final ConcurrentHashMap<Long, long[]> shardCounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> shardRemaining = new ConcurrentHashMap<>();
+    // goods whose stock this node changed since StockStream last drained them
+    private final Set<Long> changed = ConcurrentHashMap.newKeySet();
+    // sharded goods whose total still has to reach the active zset, products:gen and the dirty set
+    private final Set<Long> shardTotalsPending = ConcurrentHashMap.newKeySet();
+
+    public record Decrement(long remaining, int shard) {}
+
+    public InventoryService(StringRedisTemplate redis, LoggerService log, MeterRegistry registry, StockLeaseService leases, SeckillGoodsStockRepository stockRepo) {
+        this.redis = redis;
+        this.log = log;
+        this.registry = registry;
+        this.leases = leases;
+        this.stockRepo = stockRepo;
+    }
+
+    public static String stockKey(long goodsId) {
+        return "seckill:stock:{" + goodsId + "}";
+    }
+
+    public static String shardKey(long goodsId, int shard) {
+        return "seckill:stock:{" + goodsId + ":" + shard + "}";
+    }
+
+    public static String buyersKey(long goodsId) {
+        return "seckill:buyers:{" + goodsId + "}";
+    }
+
+    // buyers of a sharded goods are kept per home shard, so a decrement writes no key shared by every shard
+    public static String shardBuyersKey(long goodsId, int shard) {
+        return "seckill:buyers:{" + goodsId + ":" + shard + "}";
+    }
+
+    // shard count of one goods, next to its single stock key; the single-key scripts refuse to run while it exists
+    public static String layoutKey(long goodsId) {
+        return "seckill:shards:{" + goodsId + "}";
+    }
+
+    // the same count in one shard's slot, checked by every script that runs against that shard
+    public static String shardLayoutKey(long goodsId, int shard) {
+        return "seckill:shards:{" + goodsId + ":" + shard + "}";
+    }
+
+    public Decrement decrement(long userId, long goodsId, long seedStock) {
+        Decrement d = route(userId, goodsId, seedStock, shardCount(goodsId));
+        if (d.remaining() == -4L) {
+            // another node switched the sharding mode; the scripts refuse to run against the stale layout
+            d = route(userId, goodsId, seedStock, refreshShardCount(goodsId));
+        }
+        if (d.remaining() == -6L) {
+            // the stock key was evicted or never loaded; the persisted value is what the write-behind job last saw
+            int shards = shardCount(goodsId);
+            if (!(shards > 0 ? seedShardsFromStore(goodsId, shards) : seedFromStore(goodsId))) return new Decrement(-1L, SINGLE);
+            d = route(userId, goodsId, seedStock, shards);
+        }
+        if (d.remaining() >= 0) changed.add(goodsId);
+        return d;
+    }
+
+    public void rollback(long userId, long goodsId, int shard) {
+        if (shard == LEASED) {
+            leases.rollback(userId, goodsId);
+        } else if (shard == SINGLE) {
+            redis.execute(SeckillScripts.ROLLBACK, scriptKeys(stockKey(goodsId), goodsId), String.valueOf(userId), String.valueOf(goodsId));
+        } else {
+            // the unit and the buyer may live in different slots, so they are returned one command each
+            int home = homeShard(userId, shardCount(goodsId));
+            redis.opsForValue().increment(shardKey(goodsId, shard));
+            redis.opsForSet().remove(shardBuyersKey(goodsId, home), String.valueOf(userId));
+            shardTotalsPending.add(goodsId);
+        }
+        changed.add(goodsId);
+    }
+
+    // units still for sale: the stock key, or the shards, plus units leased out to nodes
+    public Long stockOf(long goodsId) {
+        int shards = shardCount(goodsId);
+        if (shards <= 0) {
+            String sv = redis.opsForValue().get(stockKey(goodsId));
+            return sv == null ? null : Long.parseLong(sv) + leases.leased(goodsId);
+        }
+        List<String> values = redis.opsForValue().multiGet(shardKeys(goodsId, shards));
+        if (values == null) return null;
+        long total = 0;
+        boolean any = false;
+        for (int i = 0; i < values.size(); i++) {
+            String v = values.get(i);
+            if (v == null) continue;
+            long n = Long.parseLong(v);
+            track(goodsId, i, n);
+            total += n;
+            any = true;
+        }
+        return any ? total : null;
+    }
+
+    // like stockOf, but an evicted stock key or shard is seeded from MySQL first, as a purchase would seed it;
+    // null only for goods MySQL does not know either
+    public Long stockOrSeed(long goodsId) {
+        int shards = shardCount(goodsId);
+        Long stock = shards > 0 ? shardTotal(goodsId) : stockOf(goodsId);
+        if (stock != null) return stock;
+        if (!(shards > 0 ? seedShardsFromStore(goodsId, shards) : seedFromStore(goodsId))) return null;
+        return stockOf(goodsId);
+    }
+
+    // the summed shards only when every shard key is present: a partial sum is not a stock worth persisting
+    public Long shardTotal(long goodsId) {
+        int shards = shardCount(goodsId);
+        if (shards <= 0) return null;
+        List<String> values = redis.opsForValue().multiGet(shardKeys(goodsId, shards));
+        if (values == null || values.size() != shards) return null;
+        long total = 0;
+        for (String v : values) {
+            if (v == null) return null;
+            total += Long.parseLong(v);
+        }
+        return total;
+    }
+
+    // one HMGET for the shard counts not cached, then one MGET for every stock and shard key
+    public Map<Long, Long> stockOf(Collection<Long> goodsIds) {
+        Map<Long, Integer> layout = shardCounts(goodsIds);
+        Map<Long, Long> stock = new HashMap<>();
+        List<Long> single = new ArrayList<>(goodsIds.size());
+        List<String> keys = new ArrayList<>(goodsIds.size());
+        for (Long id : goodsIds) {
+            int shards = layout.getOrDefault(id, 0);
+            if (shards > 0) {
+                keys.addAll(shardKeys(id, shards));
+            } else {
+                single.add(id);
+                keys.add(stockKey(id));
+            }
+        }
+        if (keys.isEmpty()) return stock;
+        List<String> values = redis.opsForValue().multiGet(keys);
+        if (values == null || values.size() != keys.size()) return stock;
+        Map<Long, Long> leased = single.isEmpty() ? Map.of() : leases.leased(single);
+        int i = 0;
+        for (Long id : goodsIds) {
+            int shards = layout.getOrDefault(id, 0);
+            if (shards <= 0) {
+                String v = values.get(i++);
+                if (v != null) stock.put(id, Long.parseLong(v) + leased.getOrDefault(id, 0L));
+                continue;
+            }
+            long total = 0;
+            boolean any = false;
+            for (int s = 0; s < shards; s++) {
+                String v = values.get(i++);
+                if (v == null) continue;
+                long n = Long.parseLong(v);
+                track(id, s, n);
+                total += n;
+                any = true;
+            }
+            if (any) stock.put(id, total);
+        }
+        return stock;
+    }
+
+    // for callers that read the stock key themselves; no Redis call while leasing is off
+    public long leasedUnits(long goodsId) {
+        return leases.leased(goodsId);
+    }
+
+    public Map<Long, Long> leasedUnits(Collection<Long> goodsIds) {
+        return leases.leased(goodsIds);
+    }
+
+    public int shardCount(long goodsId) {
+        long[] cached = shardCounts.get(goodsId);
+        if (cached != null && System.currentTimeMillis() - cached[1] < SHARD_COUNT_TTL_MS) {
+            return (int) cached[0];
+        }
+        return refreshShardCount(goodsId);
+    }
+
+    public long enableSharding(long goodsId, int shards, long seedStock) {
+        String count = String.valueOf(shards);
+        // takes the stock off the single key and stops its scripts, so the buyers set no longer changes
+        Long total = redis.execute(SeckillScripts.SHARD_SPLIT, List.of(stockKey(goodsId), layoutKey(goodsId)), String.valueOf(seedStock), count);
+        if (total == null || total < 0) {
+            log.info("stock_sharding_enabled", Map.of("goods_id", goodsId, "shards", shards, "stock", String.valueOf(total)));
+            return total == null ? -1L : total;
+        }
+        // earlier buyers move to their home shard before any shard sells
+        copyMembers(buyersKey(goodsId), user -> shardBuyersKey(goodsId, homeShard(Long.parseLong(user), shards)));
+        for (int i = 0; i < shards; i++) {
+            long units = total / shards + (i < total % shards ? 1 : 0);
+            redis.execute(SeckillScripts.SHARD_FILL, List.of(shardKey(goodsId, i), shardLayoutKey(goodsId, i)), String.valueOf(units), count, "0");
+        }
+        redis.opsForHash().put(SHARDS_KEY, String.valueOf(goodsId), count);
+        refreshShardCount(goodsId);
+        shardTotalsPending.add(goodsId);
+        log.info("stock_sharding_enabled", Map.of("goods_id", goodsId, "shards", shards, "stock", total));
+        return total;
+    }
+
+    // an interrupted merge stays frozen and is finished by calling this again; units of shards it had already
+    // drained are missing from the single key until InventoryReconcileJob repairs the drift
+    public long disableSharding(long goodsId) {
+        int shards = refreshShardCount(goodsId);
+        if (shards <= 0) return -4L;
+        String count = String.valueOf(shards);
+        Long frozen = redis.execute(SeckillScripts.SHARD_FREEZE, List.of(layoutKey(goodsId)), count);
+        if (frozen == null || frozen < 0) {
+            if (frozen != null && frozen == -4L) redis.opsForHash().delete(SHARDS_KEY, String.valueOf(goodsId));
+            log.info("stock_sharding_disabled", Map.of("goods_id", goodsId, "stock", String.valueOf(frozen)));
+            return frozen == null ? -1L : frozen;
+        }
+        long units = 0;
+        for (int i = 0; i < shards; i++) {
+            Long r = redis.execute(SeckillScripts.SHARD_DRAIN, List.of(shardKey(goodsId, i), shardLayoutKey(goodsId, i)), count);
+            if (r == null || r < 0) {
+                log.error("stock_shard_drain_error", Map.of("goods_id", goodsId, "shard", i, "result", String.valueOf(r)));
+                return r == null ? -1L : r;
+            }
+            units += r;
+        }
+        for (int i = 0; i < shards; i++) {
+            copyMembers(shardBuyersKey(goodsId, i), user -> buyersKey(goodsId));
+            redis.delete(shardBuyersKey(goodsId, i));
+        }
+        Long total = redis.execute(SeckillScripts.SHARD_MERGE, List.of(stockKey(goodsId), layoutKey(goodsId)), String.valueOf(units));
+        if (total != null && total >= 0) redis.opsForHash().delete(SHARDS_KEY, String.valueOf(goodsId));
+        refreshShardCount(goodsId);
+        if (total != null && total >= 0) shardTotalsPending.add(goodsId);
+        log.info("stock_sharding_disabled", Map.of("goods_id", goodsId, "stock", String.valueOf(total)));
+        return total == null ? -1L : total;
+    }
+
+    // returns the stock after the adjustment, -4 for sharded goods, -6 when the stock key is missing
+    public long adjust(long goodsId, long delta) {
+        Long r = redis.execute(SeckillScripts.ADJUST, scriptKeys(stockKey(goodsId), goodsId), String.valueOf(goodsId), String.valueOf(delta));
+        if (r != null && r >= 0) changed.add(goodsId);
+        return r == null ? -2L : r;
+    }
+
+    // the ids collected since the last call; each one is handed out once
+    public Set<Long> drainChanged() {
+        Set<Long> ids = new HashSet<>();
+        for (var it = changed.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        return ids;
+    }
+
+    // refills only the evicted shards, with what the persisted total leaves after the shards still present;
+    // shards that still exist only get their layout key back
+    public boolean seedShardsFromStore(long goodsId, int shards) {
+        String count = String.valueOf(shards);
+        // a goods being merged, or sharded with another count, must not get its old shards back
+        if (!count.equals(redis.opsForValue().get(layoutKey(goodsId)))) return false;
+        Long persisted = stockRepo.findStock(goodsId);
+        if (persisted == null) return false;
+        List<String> values = redis.opsForValue().multiGet(shardKeys(goodsId, shards));
+        if (values == null || values.size() != shards) return false;
+        long present = 0;
+        int missing = 0;
+        for (String v : values) {
+            if (v == null) missing++;
+            else present += Long.parseLong(v);
+        }
+        long rest = Math.max(0L, persisted - present);
+        long total = 0;
+        for (int i = 0, m = 0; i < shards; i++) {
+            long units = 0;
+            if (values.get(i) == null) {
+                units = rest / missing + (m < rest % missing ? 1 : 0);
+                m++;
+            }
+            Long r = redis.execute(SeckillScripts.SHARD_FILL, List.of(shardKey(goodsId, i), shardLayoutKey(goodsId, i)), String.valueOf(units), count, "1");
+            if (r != null && r > 0) total += r;
+        }
+        shardTotalsPending.add(goodsId);
+        log.info("stock_shards_seeded_from_store", Map.of("goods_id", goodsId, "shards", shards, "persisted", persisted, "stock", total));
+        return true;
+    }
+
+    public boolean seedFromStore(long goodsId) {
+        Long persisted = stockRepo.findStock(goodsId);
+        if (persisted == null) return false;
+        Boolean seeded = redis.opsForValue().setIfAbsent(stockKey(goodsId), String.valueOf(Math.max(0L, persisted)));
+        if (Boolean.TRUE.equals(seeded)) {
+            log.info("stock_seeded_from_store", Map.of("goods_id", goodsId, "stock", persisted));
+        }
+        return true;
+    }
+
+    public void purge(long goodsId) {
+        int shards = shardCount(goodsId);
+        List<String> keys = new ArrayList<>(shardKeys(goodsId, shards));
+        for (int i = 0; i < shards; i++) {
+            keys.add(shardBuyersKey(goodsId, i));
+            keys.add(shardLayoutKey(goodsId, i));
+        }
+        keys.add(stockKey(goodsId));
+        keys.add(buyersKey(goodsId));
+        keys.add(layoutKey(goodsId));
+        keys.add(StockLeaseService.holdersKey(goodsId));
+        keys.add(StockLeaseService.expiryKey(goodsId));
+        try { redis.delete(keys); } catch (Exception ignored) {}
+        try { redis.opsForHash().delete(SHARDS_KEY, String.valueOf(goodsId)); } catch (Exception ignored) {}
+        try { redis.opsForHash().delete(StockLeaseService.LEASES_KEY, String.valueOf(goodsId)); } catch (Exception ignored) {}
+        try { redis.opsForSet().remove(DIRTY_KEY, String.valueOf(goodsId)); } catch (Exception ignored) {}
+        shardCounts.remove(goodsId);
+        shardTotalsPending.remove(goodsId);
+        untrack(goodsId, shards);
+    }
+
+    // the sharded decrement only touches its own slot; the shared keys get one write per goods per interval instead
+    @Scheduled(fixedDelayString = "${seckill.shards.aggregate-ms:1000}")
+    public void publishShardTotals() {
+        if (shardTotalsPending.isEmpty()) return;
+        Set<Long> ids = new HashSet<>();
+        for (var it = shardTotalsPending.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        try {
+            Map<Long, Long> totals = stockOf(ids);
+            if (totals.isEmpty()) return;
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (var e : totals.entrySet()) {
+                    String member = String.valueOf(e.getKey());
+                    if (e.getValue() > 0) {
+                        // XX: goods that have not started or already ended stay out of the active set
+                        conn.zAdd(CacheService.ACTIVE_BY_STOCK_KEY, e.getValue(), member, RedisZSetCommands.ZAddArgs.ifExists());
+                    } else {
+                        conn.zRem(CacheService.ACTIVE_BY_STOCK_KEY, member);
+                    }
+                    conn.sAdd(DIRTY_KEY, member);
+                }
+                conn.incr(CacheService.LIST_GEN_KEY);
+                return null;
+            });
+        } catch (Exception e) {
+            shardTotalsPending.addAll(ids);
+            log.warn("stock_shard_totals_error", Map.of("goods", ids.size(), "error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @Scheduled(fixedDelay = SHARD_COUNT_TTL_MS)
+    public void refreshShardGauges() {
+        for (var e : shardCounts.entrySet()) {
+            int shards = (int) e.getValue()[0];
+            if (shards <= 0) continue;
+            try { stockOf(e.getKey()); } catch (Exception ignored) {}
+        }
+    }
+
+    private Decrement route(long userId, long goodsId, long seedStock, int shards) {
+        if (shards > 0) return decrementSharded(userId, goodsId, shards);
+        if (leases.applies(goodsId, seedStock)) return leases.decrement(userId, goodsId);
+        return decrementSingle(userId, goodsId);
+    }
+
+    private Decrement decrementSingle(long userId, long goodsId) {
+        Long r = redis.execute(SeckillScripts.SECKILL, scriptKeys(stockKey(goodsId), goodsId), String.valueOf(userId), String.valueOf(goodsId), NO_SEED);
+        return new Decrement(r == null ? -2L : r, SINGLE);
+    }
+
+    private Decrement decrementSharded(long userId, long goodsId, int shards) {
+        int home = homeShard(userId, shards);
+        String count = String.valueOf(shards);
+        // the home shard records the buyer and sells from its own stock when it can, all in its own slot
+        Long r = redis.execute(SeckillScripts.SHARD_SECKILL, List.of(shardKey(goodsId, home), shardBuyersKey(goodsId, home), shardLayoutKey(goodsId, home)),
+                String.valueOf(userId), count);
+        if (r == null) return new Decrement(-2L, home);
+        if (r != HOME_EMPTY) {
+            if (r >= 0L) {
+                track(goodsId, home, r);
+                shardTotalsPending.add(goodsId);
+            }
+            return new Decrement(r, home);
+        }
+        track(goodsId, home, 0L);
+        // the buyer is held by the home shard; a sibling sells the unit from its own slot
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long t = redis.execute(SeckillScripts.SHARD_TAKE, List.of(shardKey(goodsId, shard), shardLayoutKey(goodsId, shard)), count);
+            if (t != null && t >= -1L) track(goodsId, shard, Math.max(0L, t));
+            if (t != null && t >= 0L) {
+                shardTotalsPending.add(goodsId);
+                return new Decrement(t, shard);
+            }
+            // an empty sibling falls through to the next one; anything else releases the buyer and is final
+            if (t == null || t != -1L) {
+                releaseBuyer(goodsId, home, userId);
+                return new Decrement(t == null ? -2L : t, shard);
+            }
+        }
+        releaseBuyer(goodsId, home, userId);
+        shardTotalsPending.add(goodsId);
+        return new Decrement(-1L, SINGLE);
+    }
+
+    private void releaseBuyer(long goodsId, int home, long userId) {
+        try {
+            redis.opsForSet().remove(shardBuyersKey(goodsId, home), String.valueOf(userId));
+        } catch (Exception e) {
+            log.warn("stock_shard_buyer_release_error", Map.of("goods_id", goodsId, "user_id", userId, "error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    // copies a set in chunks with plain SSCAN and SADD, which keeps the split and merge free of cross-slot scripts
+    private void copyMembers(String from, Function<String, String> target) {
+        Map<String, List<String>> batch = new HashMap<>();
+        int pending = 0;
+        try (Cursor<String> c = redis.opsForSet().scan(from, ScanOptions.scanOptions().count(COPY_BATCH).build())) {
+            while (c.hasNext()) {
+                String member = c.next();
+                batch.computeIfAbsent(target.apply(member), k -> new ArrayList<>()).add(member);
+                if (++pending >= COPY_BATCH) {
+                    addAll(batch);
+                    pending = 0;
+                }
+            }
+        }
+        addAll(batch);
+    }
+
+    private void addAll(Map<String, List<String>> batch) {
+        for (var e : batch.entrySet()) redis.opsForSet().add(e.getKey(), e.getValue().toArray(String[]::new));
+        batch.clear();
+    }
+
+    // the buyer is always recorded in the same set, whichever shard the unit came from
+    private static int homeShard(long userId, int shards) {
+        return shards <= 0 ? 0 : Math.floorMod(Long.hashCode(userId), shards);
+    }
+
+    private int refreshShardCount(long goodsId) {
+        int shards = 0;
+        try {
+            Object v = redis.opsForHash().get(SHARDS_KEY, String.valueOf(goodsId));
+            if (v != null) shards = Integer.parseInt(String.valueOf(v));
+        } catch (Exception ignored) {}
+        return rememberShardCount(goodsId, shards);
+    }
+
+    // cached counts as they are; the expired or unknown ones are read from the directory together
+    private Map<Long, Integer> shardCounts(Collection<Long> goodsIds) {
+        Map<Long, Integer> layout = new HashMap<>();
+        List<Long> stale = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Long id : goodsIds) {
+            long[] cached = shardCounts.get(id);
+            if (cached != null && now - cached[1] < SHARD_COUNT_TTL_MS) layout.put(id, (int) cached[0]);
+            else stale.add(id);
+        }
+        if (stale.isEmpty()) return layout;
+        List<Object> fields = new ArrayList<>(stale.size());
+        for (Long id : stale) fields.add(String.valueOf(id));
+        List<Object> values = null;
+        try {
+            values = redis.opsForHash().multiGet(SHARDS_KEY, fields);
+        } catch (Exception ignored) {}
+        for (int i = 0; i < stale.size(); i++) {
+            int shards = 0;
+            Object v = values == null || i >= values.size() ? null : values.get(i);
+            if (v != null) {
+                try { shards = Integer.parseInt(String.valueOf(v)); } catch (NumberFormatException ignored) {}
+            }
+            layout.put(stale.get(i), rememberShardCount(stale.get(i), shards));
+        }
+        return layout;
+    }
+
+    private int rememberShardCount(long goodsId, int shards) {
+        long[] prev = shardCounts.put(goodsId, new long[]{shards, System.currentTimeMillis()});
+        if (prev != null && prev[0] > shards) untrack(goodsId, (int) prev[0]);
+        return shards;
+    }
+
+    private List<String> scriptKeys(String stockKey, long goodsId) {
+        return List.of(stockKey, buyersKey(goodsId), CacheService.ACTIVE_BY_STOCK_KEY, CacheService.LIST_GEN_KEY, layoutKey(goodsId), DIRTY_KEY);
+    }
+
+    private static List<String> shardKeys(long goodsId, int shards) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) keys.add(shardKey(goodsId, i));
+        return keys;
+    }
+
+    private void track(long goodsId, int shard, long remaining) {
+        shardRemaining.computeIfAbsent(goodsId + ":" + shard, k -> {
+            AtomicLong holder = new AtomicLong();
+            Gauge.builder("seckill_stock_shard_remaining", holder, AtomicLong::get)
+                    .tag("goods_id", String.valueOf(goodsId))
+                    .tag("shard", String.valueOf(shard))
+                    .register(registry);
+            return holder;
+        }).set(remaining);
+    }
+
+    private void untrack(long goodsId, int shards) {
+        for (int i = 0; i < shards; i++) {
+            if (shardRemaining.remove(goodsId + ":" + i) == null) continue;
+            var gauge = registry.find("seckill_stock_shard_remaining")
+                    .tag("goods_id", String.valueOf(goodsId))
+                    .tag("shard", String.valueOf(i))
+                    .gauge();
+            if (gauge != null) registry.remove(gauge);
+        }
+    }
+}
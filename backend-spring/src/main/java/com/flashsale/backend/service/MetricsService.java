@@ -1,23 +1,121 @@
 package com.flashsale.backend.service;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Sales counters are summed in memory and written behind to Redis in one pipeline.
 @Service
 public class MetricsService {
+    public static final String TOTAL_SOLD_KEY = "mall:sold_count";
+    public static final String TURNOVER_CENTS_KEY = "mall:turnover_cents";
+    // written as a float by older builds; still read so the overview keeps its history
+    public static final String LEGACY_TURNOVER_KEY = "mall:turnover";
+
     private final StringRedisTemplate redis;
+    private final long flushEvents;
+    private final ConcurrentHashMap<Long, Tally> pending = new ConcurrentHashMap<>();
+    private final AtomicLong pendingEvents = new AtomicLong();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    static final class Tally {
+        final LongAdder count = new LongAdder();
+        final LongAdder cents = new LongAdder();
+    }
+
+    private record Drained(long goodsId, long count, long cents) {}
 
-    public MetricsService(StringRedisTemplate redis) {
+    public MetricsService(StringRedisTemplate redis, @Value("${metrics.sales.flush-events:1000}") long flushEvents) {
         this.redis = redis;
+        this.flushEvents = flushEvents;
     }
 
-    public void recordSale(long goodsId, double price) {
-        var turnoverKey = "mall:turnover";
-        var totalSoldKey = "mall:sold_count";
-        var goodsSoldKey = "goods:sold_count:" + goodsId;
-        redis.opsForValue().increment(totalSoldKey);
-        redis.opsForValue().increment(goodsSoldKey);
-        redis.opsForValue().increment(turnoverKey, price);
+    public static String goodsSoldKey(long goodsId) {
+        return "goods:sold_count:" + goodsId;
+    }
+
+    public void recordSale(long goodsId, BigDecimal price) {
+        Tally t = pending.computeIfAbsent(goodsId, id -> new Tally());
+        t.count.increment();
+        t.cents.add(toCents(price));
+        // a burst flushes on the recording thread instead of waiting for the timer; tryLock keeps that to one thread
+        if (pendingEvents.incrementAndGet() >= flushEvents && flushLock.tryLock()) {
+            try {
+                flushLocked();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    // exact decimal arithmetic: a double price like 0.29 would round to 28 cents after scaling
+    static long toCents(BigDecimal price) {
+        return price == null ? 0L : price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    public void forget(long goodsId) {
+        pending.remove(goodsId);
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.sales.flush-ms:500}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
     }
-}
 
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private void flushLocked() {
+        pendingEvents.set(0);
+        List<Drained> drained = new ArrayList<>();
+        long totalCount = 0;
+        long totalCents = 0;
+        for (var e : pending.entrySet()) {
+            long count = e.getValue().count.sumThenReset();
+            long cents = e.getValue().cents.sumThenReset();
+            if (count == 0 && cents == 0) continue;
+            drained.add(new Drained(e.getKey(), count, cents));
+            totalCount += count;
+            totalCents += cents;
+        }
+        if (drained.isEmpty()) return;
+        long count = totalCount;
+        long cents = totalCents;
+        try {
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.incrBy(TOTAL_SOLD_KEY, count);
+                conn.incrBy(TURNOVER_CENTS_KEY, cents);
+                for (Drained d : drained) conn.incrBy(goodsSoldKey(d.goodsId()), d.count());
+                return null;
+            });
+        } catch (Exception e) {
+            // put the amounts back so the next flush retries them
+            for (Drained d : drained) {
+                Tally t = pending.computeIfAbsent(d.goodsId(), id -> new Tally());
+                t.count.add(d.count());
+                t.cents.add(d.cents());
+            }
+        }
+    }
+}
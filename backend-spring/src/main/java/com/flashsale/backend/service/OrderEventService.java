@@ -1,8 +1,10 @@
 package com.flashsale.backend.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.flashsale.backend.logging.LoggerService;
-import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.model.GoodsSnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -11,7 +13,10 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class OrderEventService {
@@ -20,91 +25,186 @@ public class OrderEventService {
     private final LoggerService log;
     private final String orderTopic;
     private final CacheService cacheService;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final SoldOutRegistry soldOutRegistry;
+    private final InventoryService inventory;
+    private final SeckillResultService results;
+    private final boolean asyncEnabled;
+    private final long sendTimeoutMs;
+    // goods keys keep each goods' orders in sequence on one partition, at the price of a hot partition for a hot goods
+    private final boolean keyByGoods;
+    private final Timer publishOk;
+    private final Timer publishFailed;
+    // send callbacks run on the producer's I/O thread; the Redis rollback must not stall every other send behind it
+    private final ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
 
     public OrderEventService(StringRedisTemplate redis,
                              KafkaTemplate<String, String> kafka,
                              LoggerService log,
                              @Value("${kafka.order-topic}") String orderTopic,
-                             CacheService cacheService) {
+                             CacheService cacheService,
+                             SoldOutRegistry soldOutRegistry,
+                             InventoryService inventory,
+                             SeckillResultService results,
+                             @Value("${seckill.async.enabled:false}") boolean asyncEnabled,
+                             @Value("${seckill.send-timeout-ms:5000}") long sendTimeoutMs,
+                             @Value("${kafka.producer.key-by:order}") String keyBy,
+                             MeterRegistry registry) {
         this.redis = redis;
         this.kafka = kafka;
         this.log = log;
         this.orderTopic = orderTopic;
         this.cacheService = cacheService;
+        this.soldOutRegistry = soldOutRegistry;
+        this.inventory = inventory;
+        this.results = results;
+        this.asyncEnabled = asyncEnabled;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.keyByGoods = "goods".equals(keyBy);
+        this.publishOk = publishTimer(registry, "ok");
+        this.publishFailed = publishTimer(registry, "error");
     }
 
-    public Map<String, Object> processSeckill(Long userId, SeckillGoods product, Object requestIdAttr) {
-        var now = java.time.LocalDateTime.now();
-        long goodsId = product.getId();
-        String stockKey = "seckill:stock:" + goodsId;
-        String currentStock = redis.opsForValue().get(stockKey);
-        java.util.Map<String,Object> ctx1 = new java.util.HashMap<>();
-        ctx1.put("requestId", String.valueOf(requestIdAttr));
-        ctx1.put("userId", userId);
-        ctx1.put("goods_id", goodsId);
-        ctx1.put("cacheHit", currentStock != null);
-        log.info("seckill_check_stock", ctx1);
-        if (currentStock == null) {
-            currentStock = String.valueOf(product.getStock());
-            redis.opsForValue().set(stockKey, currentStock);
-            java.util.Map<String,Object> ctx2 = new java.util.HashMap<>();
-            ctx2.put("requestId", String.valueOf(requestIdAttr));
-            ctx2.put("goods_id", goodsId);
-            ctx2.put("stock", product.getStock());
-            log.info("seckill_init_stock_cache", ctx2);
-            if ((product.getStartTime().isBefore(now) || product.getStartTime().isEqual(now)) && product.getEndTime().isAfter(now)) {
-                try { redis.opsForZSet().add("goods:active_by_stock", String.valueOf(goodsId), product.getStock()); } catch (Exception ignored) {}
-            }
-        }
-        String script = "local v=redis.call('GET', KEYS[1]); if not v then return -2 end; local n=tonumber(v); if n and n>0 then local r=redis.call('DECR', KEYS[1]); return r else return -1 end";
-        var lua = new org.springframework.data.redis.core.script.DefaultRedisScript<Long>(script, Long.class);
-        Long newStock = redis.execute(lua, java.util.Collections.singletonList(stockKey));
+    public Map<String, Object> processSeckill(Long userId, GoodsSnapshot product, Object requestIdAttr) {
+        long goodsId = product.id();
+        long seedStock = product.seedStock();
+        InventoryService.Decrement decrement = inventory.decrement(userId, goodsId, seedStock);
+        long newStock = decrement.remaining();
         java.util.Map<String,Object> ctx3 = new java.util.HashMap<>();
         ctx3.put("requestId", String.valueOf(requestIdAttr));
+        ctx3.put("userId", userId);
         ctx3.put("goods_id", goodsId);
         ctx3.put("newStock", newStock);
+        ctx3.put("shard", decrement.shard());
         log.info("seckill_decrement_stock", ctx3);
-        if (newStock == null || newStock < 0) {
-            cacheService.updateActiveByStock(goodsId, 0);
+        if (newStock == -3L) {
+            return Map.of("success", false, "message", "Already purchased");
+        }
+        if (newStock < 0) {
+            // only -1 means sold out everywhere; -7 leaves units on other nodes' leases
+            if (newStock == -1L) soldOutRegistry.markSoldOut(goodsId);
             return Map.of("success", false, "message", "Product out of stock");
         }
+        if (soldOutRegistry.isMarked(goodsId)) soldOutRegistry.reset(goodsId);
+        String externalOrderId = java.util.UUID.randomUUID().toString();
         try {
-            String externalOrderId = java.util.UUID.randomUUID().toString();
             java.util.Map<String,Object> ctx4 = new java.util.HashMap<>();
             ctx4.put("requestId", String.valueOf(requestIdAttr));
             ctx4.put("userId", userId);
             ctx4.put("goods_id", goodsId);
             ctx4.put("orderId", externalOrderId);
             log.info("seckill_order_event_prepared", ctx4);
-            Map<String, Object> payload = Map.of(
-                    "event_type", "order_created",
-                    "request_id", String.valueOf(requestIdAttr),
-                    "order_id", externalOrderId,
-                    "user_id", userId,
-                    "goods_id", goodsId,
-                    "price", product.getSeckillPrice() != null ? product.getSeckillPrice() : BigDecimal.ZERO,
-                    "status", "PAID",
-                    "created_at", System.currentTimeMillis()
-            );
-            String json = mapper.writeValueAsString(payload);
-            ProducerRecord<String, String> record = new ProducerRecord<>(orderTopic, externalOrderId, json);
+            String json = encodeOrderCreated(String.valueOf(requestIdAttr), externalOrderId, userId, goodsId, product.seckillPrice(), System.currentTimeMillis());
+            ProducerRecord<String, String> record = new ProducerRecord<>(orderTopic, keyByGoods ? String.valueOf(goodsId) : externalOrderId, json);
             record.headers().add("x-request-id", String.valueOf(requestIdAttr).getBytes());
-            kafka.send(record);
             java.util.Map<String,Object> ctx5 = new java.util.HashMap<>();
             ctx5.put("topic", orderTopic);
-            ctx5.put("payload", payload);
+            ctx5.put("payload", json);
+            if (asyncEnabled) {
+                results.queued(externalOrderId, userId);
+                long sendStart = System.nanoTime();
+                kafka.send(record).whenComplete((r, ex) -> {
+                    recordPublish(sendStart, ex);
+                    if (ex != null) callbacks.execute(() -> onSendFailed(userId, goodsId, decrement.shard(), externalOrderId, requestIdAttr, ex));
+                });
+                log.info("kafka_produce_order_message", ctx5);
+                return Map.of("success", true, "order_id", externalOrderId, "status", SeckillResultService.QUEUED, "message", "Seckill accepted, order is being created.");
+            }
+            long sendStart = System.nanoTime();
+            var future = kafka.send(record).whenComplete((r, ex) -> recordPublish(sendStart, ex));
+            try {
+                future.get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException te) {
+                // the record may still be delivered: hand the client the order id to poll, and only give the stock
+                // back once the send is known to have failed
+                results.queued(externalOrderId, userId);
+                future.whenCompleteAsync((r, ex) -> {
+                    if (ex != null) onSendFailed(userId, goodsId, decrement.shard(), externalOrderId, requestIdAttr, ex);
+                }, callbacks);
+                java.util.Map<String,Object> err = new java.util.HashMap<>();
+                err.put("requestId", String.valueOf(requestIdAttr));
+                err.put("orderId", externalOrderId);
+                err.put("timeout_ms", sendTimeoutMs);
+                log.warn("seckill_order_publish_timeout", err);
+                return Map.of("success", true, "order_id", externalOrderId, "status", SeckillResultService.QUEUED, "message", "Seckill accepted, order is being created.");
+            }
             log.info("kafka_produce_order_message", ctx5);
-            try { cacheService.updateActiveByStock(goodsId, newStock); cacheService.invalidateProductListCaches(); } catch (Exception ignored) {}
             return Map.of("success", true, "order_id", externalOrderId, "message", "Seckill successful! Event published.");
         } catch (Exception e) {
-            try { redis.opsForValue().increment(stockKey); } catch (Exception ignored) {}
+            try {
+                inventory.rollback(userId, goodsId, decrement.shard());
+                soldOutRegistry.reset(goodsId);
+            } catch (Exception ignored) {}
+            if (asyncEnabled) results.failed(externalOrderId, userId);
             java.util.Map<String,Object> err = new java.util.HashMap<>();
             err.put("requestId", String.valueOf(requestIdAttr));
             err.put("error", String.valueOf(e.getMessage()));
             log.error("seckill_order_publish_error", err);
-            try { cacheService.updateActiveByStock(goodsId, Math.max(0L, newStock != null ? newStock : 0L)); cacheService.invalidateProductListCaches(); } catch (Exception ignored) {}
             return Map.of("success", false, "message", "Internal server error");
         }
     }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        // let pending rollbacks finish so their units are not lost on shutdown
+        callbacks.shutdown();
+        callbacks.awaitTermination(sendTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void onSendFailed(long userId, long goodsId, int shard, String orderId, Object requestIdAttr, Throwable ex) {
+        try {
+            inventory.rollback(userId, goodsId, shard);
+            soldOutRegistry.reset(goodsId);
+        } catch (Exception ignored) {}
+        results.failed(orderId, userId);
+        java.util.Map<String,Object> err = new java.util.HashMap<>();
+        err.put("requestId", String.valueOf(requestIdAttr));
+        err.put("orderId", orderId);
+        err.put("error", String.valueOf(ex.getMessage()));
+        log.error("seckill_order_publish_error", err);
+    }
+
+    // Hand-rolled to skip the Map and ObjectMapper round trip on the hot path; field names match what OrderConsumer reads.
+    static String encodeOrderCreated(String requestId, String orderId, long userId, long goodsId, BigDecimal price, long createdAt) {
+        StringBuilder sb = new StringBuilder(192 + requestId.length());
+        sb.append("{\"event_type\":\"order_created\",\"request_id\":");
+        appendString(sb, requestId);
+        sb.append(",\"order_id\":");
+        appendString(sb, orderId);
+        sb.append(",\"user_id\":").append(userId)
+          .append(",\"goods_id\":").append(goodsId)
+          .append(",\"price\":").append(price != null ? price.toPlainString() : "0")
+          .append(",\"status\":\"PAID\",\"created_at\":").append(createdAt)
+          .append('}');
+        return sb.toString();
+    }
+
+    private static void appendString(StringBuilder sb, String v) {
+        sb.append('"');
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void recordPublish(long startNanos, Throwable ex) {
+        (ex == null ? publishOk : publishFailed).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Timer publishTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("seckill_order_publish_seconds")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
 }
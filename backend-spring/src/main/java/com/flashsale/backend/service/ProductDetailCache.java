@@ -0,0 +1,177 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// Product detail bodies without stock, which is the only field that changes after a goods is created.
+// The live stock is spliced in per request, so a detail view costs one stock read and no MySQL.
+@Service
+public class ProductDetailCache implements MessageListener {
+    static final String MISSING_PREFIX = "product:missing:";
+
+    private final StringRedisTemplate redis;
+    private final SeckillGoodsRepository goodsRepo;
+    private final InventoryService inventory;
+    private final ObjectMapper mapper;
+    private final LoggerService log;
+    private final Cache<Long, Entry> local;
+    private final Duration missingTtl;
+    private final Counter l1Hits;
+    private final Counter l2Hits;
+    private final Counter misses;
+    private final Counter notFound;
+
+    // body is null for an id known not to exist
+    record Entry(byte[] body) {}
+
+    public record Detail(byte[] body, long stock) {}
+
+    public ProductDetailCache(StringRedisTemplate redis,
+                              SeckillGoodsRepository goodsRepo,
+                              InventoryService inventory,
+                              ObjectMapper mapper,
+                              LoggerService log,
+                              MeterRegistry registry,
+                              @Value("${products.detail-cache.max-size:10000}") long maxSize,
+                              @Value("${products.detail-cache.ttl-seconds:300}") long ttlSeconds,
+                              @Value("${products.detail-cache.missing-ttl-ms:2000}") long missingLocalMs,
+                              @Value("${products.detail-cache.missing-redis-ttl-ms:30000}") long missingRedisMs) {
+        this.redis = redis;
+        this.goodsRepo = goodsRepo;
+        this.inventory = inventory;
+        this.mapper = mapper;
+        this.log = log;
+        this.missingTtl = Duration.ofMillis(missingRedisMs);
+        long ttlNanos = Duration.ofSeconds(ttlSeconds).toNanos();
+        long missingNanos = Duration.ofMillis(missingLocalMs).toNanos();
+        this.local = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Long, Entry>() {
+                    @Override
+                    public long expireAfterCreate(Long key, Entry value, long currentTime) {
+                        return value.body() != null ? ttlNanos : missingNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long key, Entry value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long key, Entry value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        this.l1Hits = Counter.builder("products_detail_cache_requests_total").tag("result", "l1_hit").register(registry);
+        this.l2Hits = Counter.builder("products_detail_cache_requests_total").tag("result", "l2_hit").register(registry);
+        this.misses = Counter.builder("products_detail_cache_requests_total").tag("result", "miss").register(registry);
+        this.notFound = Counter.builder("products_detail_cache_requests_total").tag("result", "not_found").register(registry);
+    }
+
+    public static String missingKey(long goodsId) {
+        return MISSING_PREFIX + goodsId;
+    }
+
+    // null when the goods does not exist
+    public Detail get(long goodsId) throws IOException {
+        Entry e = local.getIfPresent(goodsId);
+        Long stock;
+        if (e != null) {
+            l1Hits.increment();
+            if (e.body() == null) return null;
+            stock = inventory.stockOrSeed(goodsId);
+        } else {
+            // the shared product JSON, the miss marker and the stock in one round trip
+            List<String> values = redis.opsForValue().multiGet(List.of("product:" + goodsId, missingKey(goodsId), InventoryService.stockKey(goodsId)));
+            String json = values == null ? null : values.get(0);
+            e = json != null ? fromJson(goodsId, json)
+                    : values != null && values.get(1) != null ? missing(goodsId, false)
+                    : load(goodsId);
+            if (e.body() == null) return null;
+            String sv = values == null ? null : values.get(2);
+            // a missing stock key is seeded from MySQL; the stock in the cached body is as old as the body
+            stock = sv != null ? Long.parseLong(sv) + inventory.leasedUnits(goodsId) : inventory.stockOrSeed(goodsId);
+        }
+        return new Detail(e.body(), stock == null ? 0L : stock);
+    }
+
+    // the cached body with "stock" added as its first field; no JSON is parsed per request
+    public static byte[] withStock(byte[] body, long stock) {
+        byte[] field = ("\"stock\":" + stock).getBytes(StandardCharsets.UTF_8);
+        boolean empty = body.length <= 2;
+        byte[] out = new byte[body.length + field.length + (empty ? 0 : 1)];
+        out[0] = '{';
+        System.arraycopy(field, 0, out, 1, field.length);
+        int pos = 1 + field.length;
+        if (!empty) out[pos++] = ',';
+        System.arraycopy(body, 1, out, pos, body.length - 1);
+        return out;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            local.invalidate(Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (NumberFormatException ignored) {}
+    }
+
+    private Entry fromJson(long goodsId, String json) throws IOException {
+        l2Hits.increment();
+        Entry e = entry((ObjectNode) mapper.readTree(json));
+        local.put(goodsId, e);
+        return e;
+    }
+
+    private Entry load(long goodsId) throws IOException {
+        var opt = goodsRepo.findById(goodsId);
+        if (opt.isEmpty()) return missing(goodsId, true);
+        misses.increment();
+        SeckillGoods g = opt.get();
+        String json = mapper.writeValueAsString(g);
+        // same key the list pages read, so the next miss on any node is served from Redis
+        try { redis.opsForValue().set("product:" + goodsId, json); } catch (Exception ignored) {}
+        Entry e = entry((ObjectNode) mapper.readTree(json));
+        local.put(goodsId, e);
+        return e;
+    }
+
+    private Entry missing(long goodsId, boolean fromStore) {
+        notFound.increment();
+        if (fromStore) {
+            // shields MySQL from repeated lookups of unknown ids; goods created later write product:{id} first
+            try {
+                redis.opsForValue().set(missingKey(goodsId), "1", missingTtl);
+            } catch (Exception ex) {
+                log.warn("product_missing_mark_error", Map.of("goods_id", goodsId, "error", String.valueOf(ex.getMessage())));
+            }
+        }
+        Entry e = new Entry(null);
+        local.put(goodsId, e);
+        return e;
+    }
+
+    private Entry entry(ObjectNode node) throws IOException {
+        node.remove("stock");
+        return new Entry(mapper.writeValueAsBytes(node));
+    }
+}
@@ -0,0 +1,255 @@
+package com.flashsale.backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Serialized product list pages: an in-process L1 keyed by query in front of the generation-keyed Redis L2.
+// Pages stay UTF-8 bytes end to end; neither level decodes them into a String.
+// Misses are coalesced: one loader per query on this node, and one node per query and generation through a lease.
+@Service
+public class ProductListCache implements MessageListener {
+    public static final String CHANNEL = "products:invalidate";
+    public static final String LOADED = "load";
+    static final Duration ACTIVE_TTL = Duration.ofSeconds(2);
+    static final Duration TTL = Duration.ofSeconds(20);
+    private static final long LEASE_POLL_NANOS = Duration.ofMillis(20).toNanos();
+
+    private final StringRedisTemplate redis;
+    private final CacheService cacheService;
+    private final Cache<String, Entry> local;
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inflight = new ConcurrentHashMap<>();
+    private final long activeFreshNanos;
+    private final long freshNanos;
+    private final boolean staleWhileRevalidate;
+    private final Duration leaseTtl;
+    private final long leaseWaitNanos;
+    private final long shareWaitNanos;
+    private final String token = UUID.randomUUID().toString();
+    private final Counter l1Hits;
+    private final Counter l2Hits;
+    private final Counter staleHits;
+    private final Counter coalesced;
+    private final Counter shareTimeouts;
+    private final Counter misses;
+    private final Counter etagHits;
+
+    record Entry(byte[] body, boolean active, long freshUntil, String etag) {}
+
+    // source is l1, l1_stale, l2, shared (waited on another caller's load) or load
+    public record Result(byte[] body, String source, String etag) {}
+
+    public ProductListCache(StringRedisTemplate redis,
+                            CacheService cacheService,
+                            MeterRegistry registry,
+                            @Value("${products.list-cache.l1-max-bytes:16777216}") long maxBytes,
+                            @Value("${products.list-cache.l1-ttl-ms:1000}") long l1TtlMs,
+                            @Value("${products.list-cache.stale-while-revalidate:false}") boolean staleWhileRevalidate,
+                            @Value("${products.list-cache.stale-ms:5000}") long staleMs,
+                            @Value("${products.list-cache.lease-ms:2000}") long leaseMs,
+                            @Value("${products.list-cache.lease-wait-ms:500}") long leaseWaitMs,
+                            @Value("${products.list-cache.share-wait-ms:2000}") long shareWaitMs) {
+        this.redis = redis;
+        this.cacheService = cacheService;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.leaseTtl = Duration.ofMillis(leaseMs);
+        this.leaseWaitNanos = Duration.ofMillis(leaseWaitMs).toNanos();
+        this.shareWaitNanos = Duration.ofMillis(shareWaitMs).toNanos();
+        // L1 ignores the generation so a hit needs no Redis round trip; stock-driven bumps reach it through this TTL
+        this.activeFreshNanos = Duration.ofMillis(Math.min(l1TtlMs, ACTIVE_TTL.toMillis())).toNanos();
+        this.freshNanos = Duration.ofMillis(Math.min(l1TtlMs, TTL.toMillis())).toNanos();
+        long keepNanos = staleWhileRevalidate ? Duration.ofMillis(staleMs).toNanos() : 0L;
+        this.local = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String k, Entry e) -> k.length() * 2 + e.body().length)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry value, long currentTime) {
+                        return (value.active() ? activeFreshNanos : freshNanos) + keepNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        this.l1Hits = Counter.builder("products_list_cache_requests_total").tag("result", "l1_hit").register(registry);
+        this.l2Hits = Counter.builder("products_list_cache_requests_total").tag("result", "l2_hit").register(registry);
+        this.staleHits = Counter.builder("products_list_cache_requests_total").tag("result", "stale_hit").register(registry);
+        this.coalesced = Counter.builder("products_list_cache_requests_total").tag("result", "coalesced").register(registry);
+        this.misses = Counter.builder("products_list_cache_requests_total").tag("result", "miss").register(registry);
+        this.shareTimeouts = Counter.builder("products_list_cache_requests_total").tag("result", "share_timeout").register(registry);
+        this.etagHits = Counter.builder("products_list_cache_requests_total").tag("result", "etag_hit").register(registry);
+    }
+
+    // exceptions thrown by the loader reach every caller that waited on it
+    public Result getOrLoad(String query, boolean active, Supplier<byte[]> loader) {
+        Entry e = local.getIfPresent(query);
+        if (e != null) {
+            if (System.nanoTime() - e.freshUntil() < 0) {
+                l1Hits.increment();
+                return new Result(e.body(), "l1", e.etag());
+            }
+            if (staleWhileRevalidate) {
+                staleHits.increment();
+                if (!inflight.containsKey(query)) {
+                    Thread.ofVirtual().name("product-list-refresh").start(() -> {
+                        try { load(query, active, loader); } catch (RuntimeException ignored) {}
+                    });
+                }
+                return new Result(e.body(), "l1_stale", e.etag());
+            }
+        }
+        return load(query, active, loader);
+    }
+
+    // the ETag of the page a getOrLoad would serve, if it is known without the body and passes the check: taken from a
+    // fresh L1 entry, or from the small key stored next to the L2 body; null means the page has to be fetched
+    public String matchingEtag(String query, Predicate<String> matches) {
+        Entry e = local.getIfPresent(query);
+        if (e != null && System.nanoTime() - e.freshUntil() < 0) {
+            if (!matches.test(e.etag())) return null;
+            l1Hits.increment();
+            return e.etag();
+        }
+        String etag = redis.opsForValue().get(etagKey(cacheService.listGeneration(), query));
+        if (etag == null || !matches.test(etag)) return null;
+        etagHits.increment();
+        return etag;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        local.invalidateAll();
+    }
+
+    private Result load(String query, boolean active, Supplier<byte[]> loader) {
+        CompletableFuture<Result> mine = new CompletableFuture<>();
+        CompletableFuture<Result> running = inflight.putIfAbsent(query, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                Result r = running.get(shareWaitNanos, TimeUnit.NANOSECONDS);
+                return new Result(r.body(), "shared", r.etag());
+            } catch (TimeoutException ex) {
+                // a stuck loader must not hold every later caller; this one builds the page on its own
+                shareTimeouts.increment();
+                return loadShared(query, active, loader);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException re) throw re;
+                throw new IllegalStateException(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+        try {
+            Result r = loadShared(query, active, loader);
+            mine.complete(r);
+            return r;
+        } catch (RuntimeException ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(query, mine);
+        }
+    }
+
+    private Result loadShared(String query, boolean active, Supplier<byte[]> loader) {
+        String generation = cacheService.listGeneration();
+        String key = l2Key(generation, query);
+        byte[] cached = getBytes(key);
+        if (cached != null) return fromL2(query, active, cached);
+        String lease = "products:lease:" + generation + ":" + query;
+        boolean leader = Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(lease, token, leaseTtl));
+        if (!leader) {
+            // another node is building this page; wait briefly for its result instead of querying MySQL as well
+            long deadline = System.nanoTime() + leaseWaitNanos;
+            while (System.nanoTime() - deadline < 0) {
+                LockSupport.parkNanos(LEASE_POLL_NANOS);
+                cached = getBytes(key);
+                if (cached != null) return fromL2(query, active, cached);
+            }
+        }
+        misses.increment();
+        try {
+            byte[] body = loader.get();
+            String etag = etagOf(body);
+            local.put(query, new Entry(body, active, System.nanoTime() + (active ? activeFreshNanos : freshNanos), etag));
+            setBytes(key, body, active ? ACTIVE_TTL : TTL);
+            redis.opsForValue().set(etagKey(generation, query), etag, active ? ACTIVE_TTL : TTL);
+            return new Result(body, LOADED, etag);
+        } finally {
+            if (leader) {
+                try { redis.execute(SeckillScripts.LOCK_RELEASE, List.of(lease), token); } catch (Exception ignored) {}
+            }
+        }
+    }
+
+    private Result fromL2(String query, boolean active, byte[] body) {
+        l2Hits.increment();
+        String etag = etagOf(body);
+        local.put(query, new Entry(body, active, System.nanoTime() + (active ? activeFreshNanos : freshNanos), etag));
+        return new Result(body, "l2", etag);
+    }
+
+    // strong validator over the exact bytes: a page can change without a generation bump when goods start or end
+    static String etagOf(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] getBytes(String key) {
+        return redis.execute((RedisCallback<byte[]>) con -> con.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void setBytes(String key, byte[] body, Duration ttl) {
+        redis.execute((RedisCallback<Boolean>) con -> con.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), body,
+                Expiration.from(ttl), RedisStringCommands.SetOption.upsert()));
+    }
+
+    private static String l2Key(String generation, String query) {
+        return "products:" + generation + ":" + query;
+    }
+
+    static String etagKey(String generation, String query) {
+        return "products:etag:" + generation + ":" + query;
+    }
+}
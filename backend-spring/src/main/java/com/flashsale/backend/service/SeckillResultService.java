@@ -0,0 +1,61 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+
+@Service
+public class SeckillResultService {
+    public static final String QUEUED = "QUEUED";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    private final StringRedisTemplate redis;
+    private final LoggerService log;
+    private final Duration ttl;
+
+    public SeckillResultService(StringRedisTemplate redis,
+                                LoggerService log,
+                                @Value("${seckill.result.ttl-seconds:3600}") long ttlSeconds) {
+        this.redis = redis;
+        this.log = log;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+    }
+
+    public static String resultKey(String orderId) {
+        return "seckill:result:" + orderId;
+    }
+
+    public void queued(String orderId, long userId) {
+        redis.opsForValue().set(resultKey(orderId), QUEUED + ":" + userId, ttl);
+    }
+
+    public void failed(String orderId, long userId) {
+        try {
+            redis.opsForValue().set(resultKey(orderId), FAILED + ":" + userId, ttl);
+        } catch (Exception e) {
+            log.warn("seckill_result_update_error", Map.of("order_id", orderId, "status", FAILED, "error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    // only orders admitted in async mode have a status key; synchronous ones are never polled
+    public void created(String orderId, long userId) {
+        try {
+            redis.opsForValue().setIfPresent(resultKey(orderId), CREATED + ":" + userId, ttl);
+        } catch (Exception e) {
+            log.warn("seckill_result_update_error", Map.of("order_id", orderId, "status", CREATED, "error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    public String statusOf(String orderId, long userId) {
+        String v = redis.opsForValue().get(resultKey(orderId));
+        if (v == null) return null;
+        int sep = v.indexOf(':');
+        if (sep < 0 || !v.substring(sep + 1).equals(String.valueOf(userId))) return null;
+        return v.substring(0, sep);
+    }
+}
@@ -0,0 +1,42 @@
+package com.flashsale.backend.service;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+// Loaded once; RedisTemplate runs them with EVALSHA and only falls back to EVAL on NOSCRIPT.
+public final class SeckillScripts {
+    public static final RedisScript<Long> SECKILL = load("scripts/seckill.lua");
+    public static final RedisScript<Long> ROLLBACK = load("scripts/seckill_rollback.lua");
+    public static final RedisScript<Long> SHARD_SECKILL = load("scripts/seckill_shard.lua");
+    public static final RedisScript<Long> SHARD_TAKE = load("scripts/stock_shard_take.lua");
+    public static final RedisScript<Long> SHARD_FILL = load("scripts/stock_shard_fill.lua");
+    public static final RedisScript<Long> SHARD_SPLIT = load("scripts/stock_shard_split.lua");
+    public static final RedisScript<Long> SHARD_FREEZE = load("scripts/stock_shard_freeze.lua");
+    public static final RedisScript<Long> SHARD_DRAIN = load("scripts/stock_shard_drain.lua");
+    public static final RedisScript<Long> SHARD_MERGE = load("scripts/stock_shard_merge.lua");
+    public static final RedisScript<Long> RECONCILE_ADVANCE = load("scripts/reconcile_advance.lua");
+    public static final RedisScript<Long> LEASE = load("scripts/stock_lease.lua");
+    public static final RedisScript<Long> LEASE_RETURN = load("scripts/stock_lease_return.lua");
+    public static final RedisScript<Long> LEASE_REPORT = load("scripts/stock_lease_report.lua");
+    public static final RedisScript<Long> LEASE_RECLAIM = load("scripts/stock_lease_reclaim.lua");
+    public static final RedisScript<Long> ADJUST = load("scripts/stock_adjust.lua");
+    public static final RedisScript<Long> LOCK_RELEASE = load("scripts/lock_release.lua");
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> ACTIVE_PAGE = load("scripts/active_page.lua", List.class);
+
+    private SeckillScripts() {}
+
+    private static RedisScript<Long> load(String path) {
+        return load(path, Long.class);
+    }
+
+    private static <T> RedisScript<T> load(String path, Class<T> type) {
+        var script = new DefaultRedisScript<T>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(type);
+        return script;
+    }
+}
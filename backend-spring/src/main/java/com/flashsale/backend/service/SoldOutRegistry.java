@@ -0,0 +1,100 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class SoldOutRegistry implements MessageListener {
+    public static final String CHANNEL = "seckill:soldout";
+
+    private final StringRedisTemplate redis;
+    private final LoggerService log;
+    private final long recheckMs;
+    // goods id -> epoch millis of the last transition; positive = sold out, negative = stock added back
+    private final ConcurrentHashMap<Long, Long> state = new ConcurrentHashMap<>();
+
+    public SoldOutRegistry(StringRedisTemplate redis,
+                           LoggerService log,
+                           @Value("${seckill.sold-out.recheck-ms:5000}") long recheckMs) {
+        this.redis = redis;
+        this.log = log;
+        this.recheckMs = recheckMs;
+    }
+
+    public boolean isSoldOut(long goodsId) {
+        Long epoch = state.get(goodsId);
+        if (epoch == null || epoch <= 0) return false;
+        long now = System.currentTimeMillis();
+        if (now - epoch < recheckMs) return true;
+        // let one request through to Redis so a lost reset broadcast cannot block the goods forever
+        state.replace(goodsId, epoch, now);
+        return false;
+    }
+
+    public boolean isMarked(long goodsId) {
+        Long epoch = state.get(goodsId);
+        return epoch != null && epoch > 0;
+    }
+
+    public void markSoldOut(long goodsId) {
+        long epoch = System.currentTimeMillis();
+        if (apply(goodsId, epoch)) publish("S", goodsId, epoch);
+    }
+
+    public void reset(long goodsId) {
+        long epoch = System.currentTimeMillis();
+        apply(goodsId, -epoch);
+        // always broadcast: other nodes may hold a mark this node never saw
+        publish("R", goodsId, epoch);
+    }
+
+    public void forget(long goodsId) {
+        state.remove(goodsId);
+    }
+
+    public int size() {
+        return state.size();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split(":");
+        if (parts.length != 3) return;
+        try {
+            long goodsId = Long.parseLong(parts[1]);
+            long epoch = Long.parseLong(parts[2]);
+            if ("S".equals(parts[0])) {
+                apply(goodsId, epoch);
+            } else if ("R".equals(parts[0])) {
+                apply(goodsId, -epoch);
+            }
+        } catch (NumberFormatException ignored) {}
+    }
+
+    private boolean apply(long goodsId, long signedEpoch) {
+        boolean[] changed = new boolean[1];
+        state.compute(goodsId, (id, prev) -> {
+            if (prev != null && Math.abs(prev) > Math.abs(signedEpoch)) return prev;
+            changed[0] = prev == null ? signedEpoch > 0 : (prev > 0) != (signedEpoch > 0);
+            return signedEpoch;
+        });
+        return changed[0];
+    }
+
+    private void publish(String type, long goodsId, long epoch) {
+        try {
+            redis.convertAndSend(CHANNEL, type + ":" + goodsId + ":" + epoch);
+        } catch (Exception e) {
+            log.warn("sold_out_broadcast_error", Map.of("goods_id", goodsId, "type", type, "error", String.valueOf(e.getMessage())));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+public class StockLeaseService {
+    // goods id -> unsold units held by all nodes together, as last reported
+    public static final String LEASES_KEY = "seckill:leases";
+    // returned by decrement when this node has no units but other nodes still do; the goods is not sold out
+    public static final long HELD_ELSEWHERE = -7L;
+
+    private final StringRedisTemplate redis;
+    private final SoldOutRegistry soldOutRegistry;
+    private final LoggerService log;
+    private final ConcurrentHashMap<Long, Lease> leases = new ConcurrentHashMap<>();
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Value("${seckill.lease.enabled:false}")
+    private boolean enabled;
+    @Value("${seckill.lease.min-stock:10000}")
+    private long minStock;
+    @Value("${seckill.lease.min-size:10}")
+    private long minSize;
+    @Value("${seckill.lease.max-size:200}")
+    private long maxSize;
+    @Value("${seckill.lease.target-seconds:2}")
+    private double targetSeconds;
+    @Value("${seckill.lease.idle-return-ms:3000}")
+    private long idleReturnMs;
+    // a lease not reported for this long is treated as abandoned by a dead node and its units go back to the stock key
+    @Value("${seckill.lease.ttl-ms:10000}")
+    private long ttlMs;
+
+    static final class Lease {
+        final AtomicLong available = new AtomicLong();
+        final ReentrantLock lock = new ReentrantLock();
+        // units granted by the last refill; the rate estimate is based on how fast they sold
+        volatile long granted;
+        volatile long grantedAt;
+        // whether seckill:lease_holders:{id} has an entry for this node, which is then reclaimed if the node goes silent
+        volatile boolean recorded;
+        volatile long lastSaleAt;
+        // units sold per second on this node, smoothed across refills
+        volatile double rate;
+    }
+
+    public StockLeaseService(StringRedisTemplate redis, SoldOutRegistry soldOutRegistry, LoggerService log, MeterRegistry registry) {
+        this.redis = redis;
+        this.soldOutRegistry = soldOutRegistry;
+        this.log = log;
+        Gauge.builder("seckill_stock_leased_units", leases, m -> m.values().stream().mapToLong(l -> l.available.get()).sum())
+                .register(registry);
+    }
+
+    public static String holdersKey(long goodsId) {
+        return "seckill:lease_holders:{" + goodsId + "}";
+    }
+
+    public static String expiryKey(long goodsId) {
+        return "seckill:lease_expiry:{" + goodsId + "}";
+    }
+
+    public boolean applies(long goodsId, long seedStock) {
+        // once a node holds a lease it keeps serving from it, even after the persisted stock drops below the threshold
+        return enabled && (seedStock >= minStock || leases.containsKey(goodsId));
+    }
+
+    public InventoryService.Decrement decrement(long userId, long goodsId) {
+        Lease lease = leases.computeIfAbsent(goodsId, id -> new Lease());
+        if (!take(lease)) {
+            long got = refill(goodsId, lease);
+            // -4 sharded, -6 stock key missing: both are resolved by InventoryService before retrying
+            if (got == -4L || got == -6L || got == HELD_ELSEWHERE) return new InventoryService.Decrement(got, InventoryService.LEASED);
+            if (!take(lease)) return new InventoryService.Decrement(-1L, InventoryService.LEASED);
+        }
+        // the one-per-user check stays global, so a leased sale still costs one round trip; it is a SADD instead of
+        // the stock script, which keeps the stock key out of the hot path (LeasedStockBenchmark)
+        Long added = redis.opsForSet().add(InventoryService.buyersKey(goodsId), String.valueOf(userId));
+        if (added != null && added == 0L) {
+            lease.available.incrementAndGet();
+            return new InventoryService.Decrement(-3L, InventoryService.LEASED);
+        }
+        lease.lastSaleAt = System.currentTimeMillis();
+        return new InventoryService.Decrement(lease.available.get(), InventoryService.LEASED);
+    }
+
+    public void rollback(long userId, long goodsId) {
+        Lease lease = leases.computeIfAbsent(goodsId, id -> new Lease());
+        lease.available.incrementAndGet();
+        redis.opsForSet().remove(InventoryService.buyersKey(goodsId), String.valueOf(userId));
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void returnIdleLeases() {
+        long now = System.currentTimeMillis();
+        for (var e : leases.entrySet()) {
+            Lease lease = e.getValue();
+            if (lease.granted == 0 && lease.available.get() == 0) continue;
+            if (now - Math.max(lease.lastSaleAt, lease.grantedAt) < idleReturnMs) continue;
+            giveBack(e.getKey(), lease);
+        }
+    }
+
+    // keeps this node's leases alive and reports their unsold units, then hands back the units of nodes that went silent
+    @Scheduled(fixedDelayString = "${seckill.lease.heartbeat-ms:1000}")
+    public void heartbeat() {
+        long expiresAt = System.currentTimeMillis() + ttlMs;
+        for (var e : leases.entrySet()) {
+            Lease lease = e.getValue();
+            if (!lease.recorded) continue;
+            try {
+                Long r = redis.execute(SeckillScripts.LEASE_REPORT, keys(e.getKey()),
+                        String.valueOf(e.getKey()), nodeId, String.valueOf(lease.available.get()), String.valueOf(expiresAt));
+                if (r != null && r == -1L) dropLost(e.getKey(), lease);
+            } catch (Exception ex) {
+                log.warn("stock_lease_report_error", Map.of("goods_id", e.getKey(), "error", String.valueOf(ex.getMessage())));
+            }
+        }
+        reclaimExpired();
+    }
+
+    public long leased(long goodsId) {
+        if (!enabled) return 0L;
+        Object v = redis.opsForHash().get(LEASES_KEY, String.valueOf(goodsId));
+        return v == null ? 0L : Math.max(0L, Long.parseLong(String.valueOf(v)));
+    }
+
+    // one HMGET for the whole collection; goods without leased units are left out
+    public Map<Long, Long> leased(Collection<Long> goodsIds) {
+        Map<Long, Long> found = new HashMap<>();
+        if (!enabled || goodsIds.isEmpty()) return found;
+        List<Long> ids = new ArrayList<>(goodsIds);
+        List<Object> fields = new ArrayList<>(ids.size());
+        for (Long id : ids) fields.add(String.valueOf(id));
+        List<Object> values = redis.opsForHash().multiGet(LEASES_KEY, fields);
+        for (int i = 0; values != null && i < values.size(); i++) {
+            if (values.get(i) == null) continue;
+            long n = Long.parseLong(String.valueOf(values.get(i)));
+            if (n > 0) found.put(ids.get(i), n);
+        }
+        return found;
+    }
+
+    @PreDestroy
+    public void returnAll() {
+        leases.forEach(this::giveBack);
+    }
+
+    private static boolean take(Lease lease) {
+        long v;
+        do {
+            v = lease.available.get();
+            if (v <= 0) return false;
+        } while (!lease.available.compareAndSet(v, v - 1));
+        return true;
+    }
+
+    private long refill(long goodsId, Lease lease) {
+        lease.lock.lock();
+        try {
+            if (lease.available.get() > 0) return lease.available.get();
+            long now = System.currentTimeMillis();
+            if (lease.granted > 0) {
+                double secs = Math.max(0.001, (now - lease.grantedAt) / 1000.0);
+                double r = lease.granted / secs;
+                lease.rate = lease.rate == 0 ? r : 0.5 * lease.rate + 0.5 * r;
+            }
+            long size = Math.max(minSize, Math.min(maxSize, (long) Math.ceil(lease.rate * targetSeconds)));
+            Long got = redis.execute(SeckillScripts.LEASE, keys(goodsId),
+                    String.valueOf(goodsId), String.valueOf(size), "-1", nodeId, String.valueOf(now + ttlMs));
+            if (got == null) return 0L;
+            if (got < 0) {
+                if (got == HELD_ELSEWHERE) {
+                    lease.granted = 0;
+                    lease.recorded = false;
+                }
+                return got;
+            }
+            lease.granted = got;
+            lease.recorded = got > 0;
+            lease.grantedAt = now;
+            lease.available.addAndGet(got);
+            return got;
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private void giveBack(long goodsId, Lease lease) {
+        lease.lock.lock();
+        long unused = lease.available.getAndSet(0);
+        long granted = lease.granted;
+        try {
+            if (unused == 0 && granted == 0) return;
+            Long stock = redis.execute(SeckillScripts.LEASE_RETURN, keys(goodsId),
+                    String.valueOf(goodsId), String.valueOf(unused), nodeId, lease.recorded ? "1" : "0");
+            lease.granted = 0;
+            lease.recorded = false;
+            lease.rate = 0;
+            if (unused > 0 && stock != null && stock > 0) soldOutRegistry.reset(goodsId);
+            log.info("stock_lease_returned", Map.of("goods_id", goodsId, "unused", unused, "granted", granted));
+        } catch (Exception e) {
+            lease.available.addAndGet(unused);
+            log.error("stock_lease_return_error", Map.of("goods_id", goodsId, "error", String.valueOf(e.getMessage())));
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private void reclaimExpired() {
+        long now = System.currentTimeMillis();
+        for (Object field : redis.opsForHash().keys(LEASES_KEY)) {
+            long goodsId;
+            try { goodsId = Long.parseLong(String.valueOf(field)); } catch (NumberFormatException e) { continue; }
+            try {
+                Long back = redis.execute(SeckillScripts.LEASE_RECLAIM, keys(goodsId), String.valueOf(goodsId), String.valueOf(now));
+                if (back == null || back <= 0) continue;
+                soldOutRegistry.reset(goodsId);
+                log.warn("stock_lease_reclaimed", Map.of("goods_id", goodsId, "units", back));
+            } catch (Exception e) {
+                log.warn("stock_lease_reclaim_error", Map.of("goods_id", goodsId, "error", String.valueOf(e.getMessage())));
+            }
+        }
+    }
+
+    // this node missed its heartbeats long enough for another node to reclaim the lease; its units are no longer ours
+    private void dropLost(long goodsId, Lease lease) {
+        lease.lock.lock();
+        try {
+            long lost = lease.available.getAndSet(0);
+            lease.granted = 0;
+            lease.recorded = false;
+            lease.rate = 0;
+            log.warn("stock_lease_lost", Map.of("goods_id", goodsId, "units", lost));
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private static List<String> keys(long goodsId) {
+        return List.of(InventoryService.stockKey(goodsId), LEASES_KEY, CacheService.ACTIVE_BY_STOCK_KEY, CacheService.LIST_GEN_KEY,
+                InventoryService.layoutKey(goodsId), InventoryService.DIRTY_KEY, holdersKey(goodsId), expiryKey(goodsId));
+    }
+}
@@ -0,0 +1,241 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Live stock for SSE clients. Each node publishes the goods it changed once per interval; every node fans the
+// message out to its own subscribers, so one connection replaces polling the product endpoints.
+@Service
+public class StockStream implements MessageListener {
+    public static final String CHANNEL = "seckill:stock:changes";
+
+    private final StringRedisTemplate redis;
+    private final InventoryService inventory;
+    private final ObjectMapper mapper;
+    private final LoggerService log;
+    private final boolean enabled;
+    private final int maxConnections;
+    private final int maxIds;
+    private final long timeoutMs;
+    private final long slowClientMs;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Long, Set<Subscriber>> byGoods = new ConcurrentHashMap<>();
+    // a blocked write parks its virtual thread instead of the Redis listener thread
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter dropped;
+
+    public StockStream(StringRedisTemplate redis,
+                       InventoryService inventory,
+                       ObjectMapper mapper,
+                       LoggerService log,
+                       MeterRegistry registry,
+                       @Value("${products.stock-stream.enabled:true}") boolean enabled,
+                       @Value("${products.stock-stream.max-connections:10000}") int maxConnections,
+                       @Value("${products.stock-stream.max-ids:200}") int maxIds,
+                       @Value("${products.stock-stream.timeout-ms:1800000}") long timeoutMs,
+                       @Value("${products.stock-stream.slow-client-ms:10000}") long slowClientMs) {
+        this.redis = redis;
+        this.inventory = inventory;
+        this.mapper = mapper;
+        this.log = log;
+        this.enabled = enabled;
+        this.maxConnections = maxConnections;
+        this.maxIds = maxIds;
+        this.timeoutMs = timeoutMs;
+        this.slowClientMs = slowClientMs;
+        Gauge.builder("stock_stream_connections", subscribers, Set::size).register(registry);
+        this.dropped = Counter.builder("stock_stream_slow_clients_dropped_total").register(registry);
+    }
+
+    public int maxIds() {
+        return maxIds;
+    }
+
+    // null when this node is at its connection limit
+    public SseEmitter subscribe(Collection<Long> goodsIds) {
+        if (!enabled || subscribers.size() >= maxConnections) return null;
+        Subscriber sub = new Subscriber(new SseEmitter(timeoutMs), Set.copyOf(goodsIds));
+        sub.emitter.onCompletion(() -> remove(sub));
+        sub.emitter.onTimeout(() -> remove(sub));
+        sub.emitter.onError(e -> remove(sub));
+        subscribers.add(sub);
+        for (Long id : sub.ids) byGoods.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(sub);
+        // current stock first, so the deltas that follow have a baseline
+        try {
+            inventory.stockOf(sub.ids).forEach(sub::offer);
+        } catch (Exception e) {
+            log.warn("stock_stream_snapshot_error", Map.of("error", String.valueOf(e.getMessage())));
+        }
+        return sub.emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${products.stock-stream.publish-ms:500}")
+    public void publishChanges() {
+        if (!enabled) return;
+        Set<Long> ids = inventory.drainChanged();
+        if (ids.isEmpty()) return;
+        try {
+            Map<Long, Long> stock = inventory.stockOf(ids);
+            if (stock.isEmpty()) return;
+            StringBuilder body = new StringBuilder();
+            for (var e : stock.entrySet()) {
+                if (body.length() > 0) body.append(',');
+                body.append(e.getKey()).append(':').append(e.getValue());
+            }
+            redis.convertAndSend(CHANNEL, body.toString());
+        } catch (Exception e) {
+            log.warn("stock_stream_publish_error", Map.of("goods", ids.size(), "error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${products.stock-stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        // proxies close idle connections, and a write is the only way to notice a client that went away
+        long now = System.currentTimeMillis();
+        for (Subscriber sub : subscribers) {
+            if (!dropIfSlow(sub, now)) sub.ping();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        long now = System.currentTimeMillis();
+        for (String pair : new String(message.getBody(), StandardCharsets.UTF_8).split(",")) {
+            int sep = pair.indexOf(':');
+            if (sep <= 0) continue;
+            try {
+                long goodsId = Long.parseLong(pair.substring(0, sep));
+                long stock = Long.parseLong(pair.substring(sep + 1));
+                Set<Subscriber> subs = byGoods.get(goodsId);
+                if (subs == null) continue;
+                for (Subscriber sub : subs) {
+                    if (!dropIfSlow(sub, now)) sub.offer(goodsId, stock);
+                }
+            } catch (NumberFormatException ignored) {}
+        }
+    }
+
+    public int connections() {
+        return subscribers.size();
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Subscriber sub : subscribers) {
+            try { sub.emitter.complete(); } catch (Exception ignored) {}
+        }
+        senders.shutdownNow();
+    }
+
+    private boolean dropIfSlow(Subscriber sub, long now) {
+        long since = sub.sendingSince;
+        if (since == 0 || now - since < slowClientMs) return false;
+        if (remove(sub)) {
+            dropped.increment();
+            log.warn("stock_stream_slow_client_dropped", Map.of("goods", sub.ids.size(), "blocked_ms", now - since));
+            try { sub.emitter.complete(); } catch (Exception ignored) {}
+        }
+        return true;
+    }
+
+    private boolean remove(Subscriber sub) {
+        if (!subscribers.remove(sub)) return false;
+        for (Long id : sub.ids) {
+            byGoods.computeIfPresent(id, (k, subs) -> {
+                subs.remove(sub);
+                return subs.isEmpty() ? null : subs;
+            });
+        }
+        return true;
+    }
+
+    private final class Subscriber {
+        final SseEmitter emitter;
+        final Set<Long> ids;
+        // latest unsent stock per goods: the buffer never holds more than one value per subscribed id
+        private final Map<Long, Long> pending = new LinkedHashMap<>();
+        private boolean ping;
+        private boolean scheduled;
+        volatile long sendingSince;
+
+        Subscriber(SseEmitter emitter, Set<Long> ids) {
+            this.emitter = emitter;
+            this.ids = ids;
+        }
+
+        synchronized void offer(long goodsId, long stock) {
+            pending.put(goodsId, stock);
+            schedule();
+        }
+
+        synchronized void ping() {
+            ping = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled) return;
+            scheduled = true;
+            try {
+                senders.execute(this::drain);
+            } catch (Exception e) {
+                scheduled = false;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Map<Long, Long> batch;
+                boolean heartbeat;
+                synchronized (this) {
+                    if (pending.isEmpty() && !ping) {
+                        scheduled = false;
+                        return;
+                    }
+                    batch = new LinkedHashMap<>(pending);
+                    pending.clear();
+                    heartbeat = ping;
+                    ping = false;
+                }
+                sendingSince = System.currentTimeMillis();
+                try {
+                    if (!batch.isEmpty()) {
+                        emitter.send(SseEmitter.event().name("stock").data(mapper.writeValueAsString(batch)));
+                    } else if (heartbeat) {
+                        emitter.send(SseEmitter.event().comment("ping"));
+                    }
+                } catch (Exception e) {
+                    // the client went away; the servlet container completes the emitter
+                    remove(this);
+                    synchronized (this) {
+                        pending.clear();
+                        scheduled = false;
+                    }
+                    return;
+                } finally {
+                    sendingSince = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,3 @@
+-- stock is now written back from Redis; initial_stock keeps what the goods started with
+ALTER TABLE seckill_goods ADD COLUMN initial_stock INT NULL AFTER stock;
+UPDATE seckill_goods SET initial_stock = stock WHERE initial_stock IS NULL;
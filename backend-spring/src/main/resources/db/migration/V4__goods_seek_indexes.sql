@@ -0,0 +1,3 @@
+-- keyset pagination seeks on (sort column, id); InnoDB already appends id to the start_time and end_time indexes
+CREATE INDEX idx_seckill_goods_created_at ON seckill_goods (created_at, id);
+CREATE INDEX idx_seckill_goods_stock ON seckill_goods (stock, id);
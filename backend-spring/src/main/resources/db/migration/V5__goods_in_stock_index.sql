@@ -0,0 +1,5 @@
+-- available=true filters, counts and pages in SQL; stock is written back from Redis within seconds
+ALTER TABLE seckill_goods ADD COLUMN in_stock TINYINT AS (IFNULL(stock, 0) > 0) STORED;
+CREATE INDEX idx_seckill_goods_in_stock_start_time ON seckill_goods (in_stock, start_time, id);
+CREATE INDEX idx_seckill_goods_in_stock_end_time ON seckill_goods (in_stock, end_time, id);
+CREATE INDEX idx_seckill_goods_in_stock_created_at ON seckill_goods (in_stock, created_at, id);
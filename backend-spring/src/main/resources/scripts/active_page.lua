@@ -0,0 +1,25 @@
+-- KEYS[1] goods:active_by_stock
+-- ARGV[1] score of the last goods on the previous page  ARGV[2] its id, empty for the first page  ARGV[3] page size
+-- returns the next page in ZREVRANGE order (stock desc, then id desc as a string) as id, score pairs
+local start = 0
+if ARGV[2] ~= '' then
+  local score = redis.call('ZSCORE', KEYS[1], ARGV[2])
+  if score and tonumber(score) == tonumber(ARGV[1]) then
+    start = redis.call('ZREVRANK', KEYS[1], ARGV[2]) + 1
+  else
+    -- the goods sold or left the set since: its ties sit right after everything scored higher, in descending
+    -- member order, so a binary search over those ranks finds the first one below the cursor id
+    local lo = redis.call('ZCOUNT', KEYS[1], '(' .. ARGV[1], '+inf')
+    local hi = lo + redis.call('ZCOUNT', KEYS[1], ARGV[1], ARGV[1])
+    while lo < hi do
+      local mid = math.floor((lo + hi) / 2)
+      if redis.call('ZREVRANGE', KEYS[1], mid, mid)[1] > ARGV[2] then
+        lo = mid + 1
+      else
+        hi = mid
+      end
+    end
+    start = lo
+  end
+end
+return redis.call('ZREVRANGE', KEYS[1], start, start + tonumber(ARGV[3]) - 1, 'WITHSCORES')
@@ -0,0 +1,7 @@
+-- KEYS[1] lock key
+-- ARGV[1] token the lock was taken with
+-- returns 1 when the lock was released, 0 when it expired and another holder owns it now
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+  return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,13 @@
+-- KEYS[1] seckill:reconcile:{orders}, whose 'watermark' field holds the last order id counted
+-- ARGV[1] watermark the counts were read from  ARGV[2] new watermark  ARGV[3..] goods id, order count pairs
+-- adds the counts and moves the watermark in one step, so a crash in between can never count a range twice;
+-- both live in one hash, so an eviction drops them together and the counts are rebuilt from the first order
+-- returns 1, or 0 when the watermark moved since it was read and the counts were not applied
+if (redis.call('HGET', KEYS[1], 'watermark') or '0') ~= ARGV[1] then
+  return 0
+end
+for i = 3, #ARGV, 2 do
+  redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+redis.call('HSET', KEYS[1], 'watermark', ARGV[2])
+return 1
@@ -0,0 +1,35 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:buyers:{id}  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[5] seckill:shards:{id}  KEYS[6] seckill:stock:dirty
+-- ARGV[1] user id  ARGV[2] goods id  ARGV[3] stock to seed with when the stock key is missing, -1 to refuse seeding
+-- returns remaining stock, -1 when sold out, -3 when the user already bought this goods,
+-- -4 when the goods has been switched to sharded stock, -6 when the stock key is missing and no seed was given
+if redis.call('EXISTS', KEYS[5]) == 1 then
+  return -4
+end
+local v = redis.call('GET', KEYS[1])
+if not v then
+  if tonumber(ARGV[3]) < 0 then
+    return -6
+  end
+  v = ARGV[3]
+  redis.call('SET', KEYS[1], v)
+end
+local n = tonumber(v)
+if not n or n <= 0 then
+  if redis.call('ZREM', KEYS[3], ARGV[2]) == 1 then
+    redis.call('INCR', KEYS[4])
+  end
+  return -1
+end
+if redis.call('SADD', KEYS[2], ARGV[1]) == 0 then
+  return -3
+end
+local r = redis.call('DECR', KEYS[1])
+if r > 0 then
+  redis.call('ZADD', KEYS[3], r, ARGV[2])
+else
+  redis.call('ZREM', KEYS[3], ARGV[2])
+end
+redis.call('INCR', KEYS[4])
+redis.call('SADD', KEYS[6], ARGV[2])
+return r
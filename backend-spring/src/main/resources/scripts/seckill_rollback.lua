@@ -0,0 +1,11 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:buyers:{id}  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[6] seckill:stock:dirty
+-- ARGV[1] user id  ARGV[2] goods id
+local r = redis.call('INCR', KEYS[1])
+redis.call('SREM', KEYS[2], ARGV[1])
+if r > 0 then
+  redis.call('ZADD', KEYS[3], r, ARGV[2])
+end
+redis.call('INCR', KEYS[4])
+redis.call('SADD', KEYS[6], ARGV[2])
+return r
@@ -0,0 +1,23 @@
+-- KEYS[1] seckill:stock:{id:home}  KEYS[2] seckill:buyers:{id:home}  KEYS[3] seckill:shards:{id:home}
+-- ARGV[1] user id  ARGV[2] shard count the caller routed with
+-- the buyer's home shard: every key lives in the shard's own slot, so shards spread over Cluster nodes
+-- returns remaining stock of this shard, -3 when the user already bought this goods, -4 when the shard has a
+-- different shard count, -6 when the shard or its layout key is missing, -7 when the home shard is empty: the buyer
+-- is then held in the home set and the caller takes the unit from a sibling or releases the buyer
+local layout = redis.call('GET', KEYS[3])
+local v = redis.call('GET', KEYS[1])
+-- an evicted shard is not the same as an empty one; the caller re-seeds it from the persisted stock
+if not layout or not v then
+  return -6
+end
+if tonumber(layout) ~= tonumber(ARGV[2]) then
+  return -4
+end
+if redis.call('SADD', KEYS[2], ARGV[1]) == 0 then
+  return -3
+end
+local n = tonumber(v)
+if not n or n <= 0 then
+  return -7
+end
+return redis.call('DECR', KEYS[1])
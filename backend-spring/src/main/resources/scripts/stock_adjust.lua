@@ -0,0 +1,24 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:buyers:{id} (unused)  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[5] seckill:shards:{id}  KEYS[6] seckill:stock:dirty
+-- ARGV[1] goods id  ARGV[2] units to add, negative to take away; the stock never goes below zero
+-- returns the stock after the adjustment, -4 when the goods is sharded, -6 when the stock key is missing
+if redis.call('EXISTS', KEYS[5]) == 1 then
+  return -4
+end
+local v = redis.call('GET', KEYS[1])
+if not v then
+  return -6
+end
+local delta = tonumber(ARGV[2])
+if tonumber(v) + delta < 0 then
+  delta = -tonumber(v)
+end
+local r = redis.call('INCRBY', KEYS[1], delta)
+if r > 0 then
+  redis.call('ZADD', KEYS[3], r, ARGV[1])
+else
+  redis.call('ZREM', KEYS[3], ARGV[1])
+end
+redis.call('INCR', KEYS[4])
+redis.call('SADD', KEYS[6], ARGV[1])
+return r
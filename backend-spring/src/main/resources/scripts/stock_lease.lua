@@ -0,0 +1,52 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:leases  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[5] seckill:shards:{id}  KEYS[6] seckill:stock:dirty  KEYS[7] seckill:lease_holders:{id}  KEYS[8] seckill:lease_expiry:{id}
+-- ARGV[1] goods id  ARGV[2] units wanted  ARGV[3] stock to seed with when the stock key is missing, -1 to refuse seeding
+-- ARGV[4] node id  ARGV[5] epoch millis after which the new lease counts as abandoned
+-- returns the units granted (0 when sold out), -4 when the goods is sharded, -6 when the stock key is missing and no seed was given,
+-- -7 when the stock key is empty but other nodes still hold leased units
+if redis.call('EXISTS', KEYS[5]) == 1 then
+  return -4
+end
+local v = redis.call('GET', KEYS[1])
+if not v then
+  if tonumber(ARGV[3]) < 0 then
+    return -6
+  end
+  v = ARGV[3]
+  redis.call('SET', KEYS[1], v)
+end
+-- this node's previous lease is exhausted: drop what it last reported holding
+local held = tonumber(redis.call('HGET', KEYS[7], ARGV[4]) or '0')
+local leased = redis.call('HINCRBY', KEYS[2], ARGV[1], 0 - held)
+local n = tonumber(v) or 0
+local take = math.min(tonumber(ARGV[2]), n)
+if take < 0 then
+  take = 0
+end
+local r = n
+if take > 0 then
+  r = redis.call('DECRBY', KEYS[1], take)
+  redis.call('HSET', KEYS[7], ARGV[4], take)
+  redis.call('HSET', KEYS[8], ARGV[4], ARGV[5])
+  leased = redis.call('HINCRBY', KEYS[2], ARGV[1], take)
+else
+  redis.call('HDEL', KEYS[7], ARGV[4])
+  redis.call('HDEL', KEYS[8], ARGV[4])
+end
+if leased <= 0 then
+  redis.call('HDEL', KEYS[2], ARGV[1])
+  leased = 0
+end
+-- units parked on nodes are still for sale, so they count towards the listed stock
+if r + leased > 0 then
+  redis.call('ZADD', KEYS[3], r + leased, ARGV[1])
+else
+  redis.call('ZREM', KEYS[3], ARGV[1])
+end
+if take > 0 then
+  redis.call('INCR', KEYS[4])
+  redis.call('SADD', KEYS[6], ARGV[1])
+elseif leased > 0 then
+  return -7
+end
+return take
@@ -0,0 +1,28 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:leases  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[6] seckill:stock:dirty  KEYS[7] seckill:lease_holders:{id}  KEYS[8] seckill:lease_expiry:{id}
+-- ARGV[1] goods id  ARGV[2] now in epoch millis
+-- returns the units moved back to the stock key from nodes that stopped reporting, -6 when the stock key is missing
+if redis.call('EXISTS', KEYS[1]) == 0 then
+  return -6
+end
+local expiry = redis.call('HGETALL', KEYS[8])
+local back = 0
+for i = 1, #expiry, 2 do
+  if tonumber(expiry[i + 1]) < tonumber(ARGV[2]) then
+    back = back + tonumber(redis.call('HGET', KEYS[7], expiry[i]) or '0')
+    redis.call('HDEL', KEYS[7], expiry[i])
+    redis.call('HDEL', KEYS[8], expiry[i])
+  end
+end
+local leased = redis.call('HINCRBY', KEYS[2], ARGV[1], 0 - back)
+if leased <= 0 or redis.call('HLEN', KEYS[7]) == 0 then
+  redis.call('HDEL', KEYS[2], ARGV[1])
+  leased = 0
+end
+if back > 0 then
+  local r = redis.call('INCRBY', KEYS[1], back)
+  redis.call('ZADD', KEYS[3], r + leased, ARGV[1])
+  redis.call('INCR', KEYS[4])
+  redis.call('SADD', KEYS[6], ARGV[1])
+end
+return back
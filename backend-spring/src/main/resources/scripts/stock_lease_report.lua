@@ -0,0 +1,26 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:leases  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[7] seckill:lease_holders:{id}  KEYS[8] seckill:lease_expiry:{id}
+-- ARGV[1] goods id  ARGV[2] node id  ARGV[3] unsold units the node holds now  ARGV[4] new expiry in epoch millis
+-- returns the units recorded, -1 when the lease is no longer on record because it expired and was reclaimed
+local held = redis.call('HGET', KEYS[7], ARGV[2])
+if not held then
+  return -1
+end
+redis.call('HSET', KEYS[8], ARGV[2], ARGV[4])
+local unsold = tonumber(ARGV[3])
+if unsold ~= tonumber(held) then
+  redis.call('HSET', KEYS[7], ARGV[2], unsold)
+  local leased = redis.call('HINCRBY', KEYS[2], ARGV[1], unsold - tonumber(held))
+  if leased <= 0 then
+    redis.call('HDEL', KEYS[2], ARGV[1])
+    leased = 0
+  end
+  local total = tonumber(redis.call('GET', KEYS[1]) or '0') + leased
+  if total > 0 then
+    redis.call('ZADD', KEYS[3], total, ARGV[1])
+  else
+    redis.call('ZREM', KEYS[3], ARGV[1])
+  end
+  redis.call('INCR', KEYS[4])
+end
+return unsold
@@ -0,0 +1,31 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:leases  KEYS[3] goods:active_by_stock  KEYS[4] products:gen
+-- KEYS[5] seckill:shards:{id} (unused)  KEYS[6] seckill:stock:dirty  KEYS[7] seckill:lease_holders:{id}  KEYS[8] seckill:lease_expiry:{id}
+-- ARGV[1] goods id  ARGV[2] unused units handed back  ARGV[3] node id  ARGV[4] 1 when the node had a lease on record
+-- returns the stock after the return
+local held = redis.call('HGET', KEYS[7], ARGV[3])
+local unused = tonumber(ARGV[2])
+if not held and ARGV[4] == '1' then
+  -- the lease expired and its units were already reclaimed
+  unused = 0
+end
+redis.call('HDEL', KEYS[7], ARGV[3])
+redis.call('HDEL', KEYS[8], ARGV[3])
+local leased = redis.call('HINCRBY', KEYS[2], ARGV[1], 0 - tonumber(held or '0'))
+if leased <= 0 then
+  redis.call('HDEL', KEYS[2], ARGV[1])
+  leased = 0
+end
+local r
+if unused > 0 then
+  r = redis.call('INCRBY', KEYS[1], unused)
+  redis.call('SADD', KEYS[6], ARGV[1])
+else
+  r = tonumber(redis.call('GET', KEYS[1]) or '0')
+end
+if r + leased > 0 then
+  redis.call('ZADD', KEYS[3], r + leased, ARGV[1])
+else
+  redis.call('ZREM', KEYS[3], ARGV[1])
+end
+redis.call('INCR', KEYS[4])
+return r
@@ -0,0 +1,10 @@
+-- KEYS[1] seckill:stock:{id:shard}  KEYS[2] seckill:shards:{id:shard}
+-- ARGV[1] shard count being merged
+-- removes one shard and its layout; returns the units it held, -5 when it belongs to a different shard count
+local layout = redis.call('GET', KEYS[2])
+if layout and tonumber(layout) ~= tonumber(ARGV[1]) then
+  return -5
+end
+local n = tonumber(redis.call('GET', KEYS[1]) or '0')
+redis.call('DEL', KEYS[1], KEYS[2])
+return n
@@ -0,0 +1,17 @@
+-- KEYS[1] seckill:stock:{id:shard}  KEYS[2] seckill:shards:{id:shard}
+-- ARGV[1] units for this shard  ARGV[2] shard count  ARGV[3] '1' to keep a shard that still exists
+-- sets the shard and its layout together, so the shard never sells before it knows the shard count
+-- returns the shard's stock, -4 when the shard already belongs to a different shard count
+local layout = redis.call('GET', KEYS[2])
+if layout and tonumber(layout) ~= tonumber(ARGV[2]) then
+  return -4
+end
+redis.call('SET', KEYS[2], ARGV[2])
+if ARGV[3] == '1' then
+  local v = redis.call('GET', KEYS[1])
+  if v then
+    return tonumber(v)
+  end
+end
+redis.call('SET', KEYS[1], ARGV[1])
+return tonumber(ARGV[1])
@@ -0,0 +1,14 @@
+-- KEYS[1] seckill:shards:{id}
+-- ARGV[1] shard count being merged
+-- first step of a merge: the layout becomes 0, which no shard count matches, so neither the single-key scripts
+-- nor the shard re-seed run until the merge completes; a merge interrupted earlier can be resumed
+-- returns the shard count, -4 when the goods is not sharded, -5 when it has a different shard count
+local v = redis.call('GET', KEYS[1])
+if not v then
+  return -4
+end
+if v ~= '0' and tonumber(v) ~= tonumber(ARGV[1]) then
+  return -5
+end
+redis.call('SET', KEYS[1], '0')
+return tonumber(ARGV[1])
@@ -0,0 +1,10 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:shards:{id}
+-- ARGV[1] units drained from the shards
+-- last step of a merge: puts the stock back on the single key and lifts the freeze
+-- returns the merged stock, -4 when the goods is not frozen for a merge
+if redis.call('GET', KEYS[2]) ~= '0' then
+  return -4
+end
+redis.call('SET', KEYS[1], ARGV[1])
+redis.call('DEL', KEYS[2])
+return tonumber(ARGV[1])
@@ -0,0 +1,15 @@
+-- KEYS[1] seckill:stock:{id}  KEYS[2] seckill:shards:{id}
+-- ARGV[1] stock to split when the stock key is missing  ARGV[2] shard count
+-- first step of a split: takes the stock off the single key and marks the goods as sharded, which stops the
+-- single-key scripts; InventoryService then fills each shard in its own slot
+-- returns the stock to split, -4 when the goods is already sharded
+if redis.call('EXISTS', KEYS[2]) == 1 then
+  return -4
+end
+local total = tonumber(redis.call('GET', KEYS[1]) or ARGV[1])
+if total < 0 then
+  total = 0
+end
+redis.call('SET', KEYS[2], ARGV[2])
+redis.call('DEL', KEYS[1])
+return total
@@ -0,0 +1,18 @@
+-- KEYS[1] seckill:stock:{id:shard}  KEYS[2] seckill:shards:{id:shard}
+-- ARGV[1] shard count the caller routed with
+-- one unit from a sibling shard for a buyer already held by the home shard
+-- returns remaining stock of this shard, -1 when it is empty, -4 when the shard has a different shard count,
+-- -6 when the shard or its layout key is missing
+local layout = redis.call('GET', KEYS[2])
+local v = redis.call('GET', KEYS[1])
+if not layout or not v then
+  return -6
+end
+if tonumber(layout) ~= tonumber(ARGV[1]) then
+  return -4
+end
+local n = tonumber(v)
+if not n or n <= 0 then
+  return -1
+end
+return redis.call('DECR', KEYS[1])
@@ -0,0 +1,98 @@
+package com.flashsale.backend.benchmark;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.SoldOutRegistry;
+import com.flashsale.backend.service.StockLeaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// mvn test -Dtest=LeasedStockBenchmark -Dbenchmark.redis=localhost:6379
+// A leased sale still adds the buyer to seckill:buyers:{id}; this reports how many Redis round trips a sale costs either way.
+@EnabledIfSystemProperty(named = "benchmark.redis", matches = ".+")
+class LeasedStockBenchmark {
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 64);
+    private static final long DURATION_MS = Long.getLong("benchmark.duration-ms", 5000);
+
+    @Test
+    void roundTripsPerSaleWithAndWithoutLeases() throws Exception {
+        String[] hp = System.getProperty("benchmark.redis").split(":");
+        LettuceConnectionFactory cf = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(hp[0], hp.length > 1 ? Integer.parseInt(hp[1]) : 6379));
+        cf.afterPropertiesSet();
+        try {
+            RoundTripCountingTemplate redis = new RoundTripCountingTemplate(cf);
+            LoggerService log = new LoggerService();
+            long goodsBase = 9_100_000_000L + (System.currentTimeMillis() % 1_000_000) * 10;
+            for (boolean leased : new boolean[]{false, true}) {
+                StockLeaseService leases = new StockLeaseService(redis, new SoldOutRegistry(redis, log, 5000), log, new SimpleMeterRegistry());
+                ReflectionTestUtils.setField(leases, "enabled", leased);
+                ReflectionTestUtils.setField(leases, "minStock", 1L);
+                ReflectionTestUtils.setField(leases, "minSize", 10L);
+                ReflectionTestUtils.setField(leases, "maxSize", 200L);
+                ReflectionTestUtils.setField(leases, "targetSeconds", 2.0);
+                ReflectionTestUtils.setField(leases, "ttlMs", 60_000L);
+                InventoryService inventory = new InventoryService(redis, log, new SimpleMeterRegistry(), leases, null);
+                long goodsId = goodsBase + (leased ? 1 : 0);
+                redis.opsForValue().set(InventoryService.stockKey(goodsId), String.valueOf(Integer.MAX_VALUE));
+                long tripsBefore = redis.roundTrips.get();
+                long sales = run(inventory, goodsId);
+                long trips = redis.roundTrips.get() - tripsBefore;
+                java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+                ctx.put("leased", leased);
+                ctx.put("threads", THREADS);
+                ctx.put("sales_per_sec", Math.round(sales * 1000.0 / DURATION_MS));
+                ctx.put("round_trips_per_sale", Math.round(trips * 100.0 / Math.max(1, sales)) / 100.0);
+                log.info("leased_stock_benchmark", ctx);
+                leases.returnAll();
+                inventory.purge(goodsId);
+            }
+        } finally {
+            cf.destroy();
+        }
+    }
+
+    private static long run(InventoryService inventory, long goodsId) throws InterruptedException {
+        AtomicLong sales = new AtomicLong();
+        AtomicLong userSeq = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        long deadline = System.currentTimeMillis() + DURATION_MS;
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        if (inventory.decrement(userSeq.incrementAndGet(), goodsId, Integer.MAX_VALUE).remaining() >= 0) sales.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        return sales.get();
+    }
+
+    // every command and script call goes through here, so this counts what the client sends rather than what Redis runs
+    private static final class RoundTripCountingTemplate extends StringRedisTemplate {
+        final AtomicLong roundTrips = new AtomicLong();
+
+        RoundTripCountingTemplate(LettuceConnectionFactory cf) {
+            super(cf);
+        }
+
+        @Override
+        public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+            roundTrips.incrementAndGet();
+            return super.execute(action, exposeConnection, pipeline);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.flashsale.backend.benchmark;
+
+import com.flashsale.backend.kafka.OrderBatchConsumer;
+import com.flashsale.backend.kafka.OrderConsumer;
+import com.flashsale.backend.kafka.OrderDedupeFilter;
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillOrder;
+import com.flashsale.backend.repository.SeckillOrderBulkRepository;
+import com.flashsale.backend.service.MetricsService;
+import com.flashsale.backend.service.SeckillResultService;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// mvn test -Dtest=PartitionedConsumerBenchmark -Dbenchmark.kafka=true
+// Every poll goes through OrderBatchConsumer.handleBatch. With -Dbenchmark.mysql=<jdbc url> the orders are written to a
+// migrated schema; without it the bulk insert waits out a simulated round trip instead.
+@EnabledIfSystemProperty(named = "benchmark.kafka", matches = "true")
+class PartitionedConsumerBenchmark {
+    private static final String TOPIC = "bench-orders";
+    private static final String ORDER_PREFIX = "bench-";
+    private static final int PARTITIONS = Integer.getInteger("benchmark.partitions", 8);
+    private static final int RECORDS = Integer.getInteger("benchmark.records", 100_000);
+    private static final long BATCH_COST_MICROS = Long.getLong("benchmark.batch-cost-us", 5_000);
+    private static final long RECORD_COST_MICROS = Long.getLong("benchmark.record-cost-us", 20);
+
+    @Test
+    void throughputByConcurrency() throws Exception {
+        LoggerService log = new LoggerService();
+        JdbcTemplate jdbc = jdbc(System.getProperty("benchmark.mysql"));
+        EmbeddedKafkaKraftBroker broker = new EmbeddedKafkaKraftBroker(1, PARTITIONS, TOPIC);
+        broker.afterPropertiesSet();
+        try {
+            produce(broker.getBrokersAsString());
+            for (int concurrency = 1; concurrency <= PARTITIONS; concurrency *= 2) {
+                // every round writes the same orders, so the previous round's rows go first
+                if (jdbc != null) jdbc.update("DELETE FROM seckill_orders WHERE external_order_id LIKE ?", ORDER_PREFIX + "%");
+                double perSec = consume(broker.getBrokersAsString(), concurrency, bulkRepository(jdbc));
+                java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+                ctx.put("partitions", PARTITIONS);
+                ctx.put("concurrency", concurrency);
+                ctx.put("store", jdbc == null ? "simulated" : "mysql");
+                ctx.put("records_per_sec", Math.round(perSec));
+                log.info("partitioned_consumer_benchmark", ctx);
+            }
+        } finally {
+            if (jdbc != null) jdbc.update("DELETE FROM seckill_orders WHERE external_order_id LIKE ?", ORDER_PREFIX + "%");
+            broker.destroy();
+        }
+    }
+
+    private static void produce(String brokers) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        var pf = new DefaultKafkaProducerFactory<String, String>(props);
+        var template = new KafkaTemplate<>(pf);
+        for (int i = 0; i < RECORDS; i++) {
+            String orderId = ORDER_PREFIX + UUID.randomUUID();
+            template.send(TOPIC, orderId, "{\"order_id\":\"" + orderId + "\",\"goods_id\":" + (i % 100) + ",\"price\":1,\"user_id\":" + i + "}");
+        }
+        template.flush();
+        pf.destroy();
+    }
+
+    private static double consume(String brokers, int concurrency, SeckillOrderBulkRepository bulkRepo) throws InterruptedException {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, brokers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "bench-" + concurrency + "-" + System.nanoTime());
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        // the consumer under test; its collaborators outside the insert path are stubbed out so they don't skew the numbers
+        OrderBatchConsumer consumer = new OrderBatchConsumer(bulkRepo, new OrderDedupeFilter(true, RECORDS, 0.001),
+                Mockito.mock(OrderConsumer.class), Mockito.mock(MetricsService.class),
+                Mockito.mock(SeckillResultService.class), Mockito.mock(LoggerService.class));
+        CountDownLatch done = new CountDownLatch(RECORDS);
+        ContainerProperties cp = new ContainerProperties(TOPIC);
+        cp.setAckMode(ContainerProperties.AckMode.BATCH);
+        cp.setMessageListener((BatchMessageListener<String, String>) (List<ConsumerRecord<String, String>> batch) -> {
+            consumer.handleBatch(batch);
+            for (int i = 0; i < batch.size(); i++) done.countDown();
+        });
+        var container = new ConcurrentMessageListenerContainer<>(new DefaultKafkaConsumerFactory<String, String>(props), cp);
+        container.setConcurrency(concurrency);
+        // start paused so the timing only covers consumption after every consumer has its partitions
+        container.pause();
+        container.start();
+        try {
+            ContainerTestUtils.waitForAssignment(container, PARTITIONS);
+            long start = System.nanoTime();
+            container.resume();
+            if (!done.await(5, TimeUnit.MINUTES)) throw new IllegalStateException("consumers did not drain the topic");
+            long elapsed = System.nanoTime() - start;
+            return RECORDS * 1e9 / elapsed;
+        } finally {
+            container.stop();
+        }
+    }
+
+    private static JdbcTemplate jdbc(String url) {
+        if (url == null || url.isBlank()) return null;
+        return new JdbcTemplate(new DriverManagerDataSource(url));
+    }
+
+    private static SeckillOrderBulkRepository bulkRepository(JdbcTemplate jdbc) {
+        if (jdbc != null) return new SeckillOrderBulkRepository(jdbc);
+        return new SeckillOrderBulkRepository(null) {
+            @Override
+            public Set<String> findExistingExternalIds(Collection<String> externalOrderIds) {
+                if (!externalOrderIds.isEmpty()) LockSupport.parkNanos(BATCH_COST_MICROS * 1000);
+                return Set.of();
+            }
+
+            @Override
+            public List<SeckillOrder> insertIgnoringDuplicates(List<SeckillOrder> orders) {
+                LockSupport.parkNanos((BATCH_COST_MICROS + RECORD_COST_MICROS * orders.size()) * 1000);
+                return orders;
+            }
+        };
+    }
+}
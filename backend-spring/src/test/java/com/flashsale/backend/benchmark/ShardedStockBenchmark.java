@@ -0,0 +1,85 @@
+package com.flashsale.backend.benchmark;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.SoldOutRegistry;
+import com.flashsale.backend.service.StockLeaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// mvn test -Dtest=ShardedStockBenchmark -Dbenchmark.redis=localhost:6379
+// (a comma separated node list runs against a Redis Cluster, which is where sharding pays off)
+@EnabledIfSystemProperty(named = "benchmark.redis", matches = ".+")
+class ShardedStockBenchmark {
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 64);
+    private static final long DURATION_MS = Long.getLong("benchmark.duration-ms", 5000);
+
+    @Test
+    void throughputByShardCount() throws Exception {
+        LettuceConnectionFactory cf = connectionFactory(System.getProperty("benchmark.redis"));
+        cf.afterPropertiesSet();
+        try {
+            StringRedisTemplate redis = new StringRedisTemplate(cf);
+            LoggerService log = new LoggerService();
+            InventoryService inventory = new InventoryService(redis, log, new SimpleMeterRegistry(), new StockLeaseService(redis, new SoldOutRegistry(redis, log, 5000), log, new SimpleMeterRegistry()), null);
+            long goodsBase = 9_000_000_000L + (System.currentTimeMillis() % 1_000_000) * 100;
+            for (int shards : new int[]{1, 2, 4, 8, 16}) {
+                long goodsId = goodsBase + shards;
+                redis.opsForValue().set(InventoryService.stockKey(goodsId), String.valueOf(Integer.MAX_VALUE));
+                if (shards > 1) inventory.enableSharding(goodsId, shards, 0);
+                double opsPerSec = run(inventory, goodsId);
+                java.util.Map<String,Object> ctx = new java.util.HashMap<>();
+                ctx.put("shards", shards);
+                ctx.put("threads", THREADS);
+                ctx.put("ops_per_sec", Math.round(opsPerSec));
+                log.info("sharded_stock_benchmark", ctx);
+                inventory.purge(goodsId);
+            }
+        } finally {
+            cf.destroy();
+        }
+    }
+
+    private static double run(InventoryService inventory, long goodsId) throws InterruptedException {
+        AtomicLong ops = new AtomicLong();
+        AtomicLong userSeq = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        long deadline = System.currentTimeMillis() + DURATION_MS;
+        List<Thread> threads = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            Thread th = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        inventory.decrement(userSeq.incrementAndGet(), goodsId, 0);
+                        ops.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            threads.add(th);
+            th.start();
+        }
+        done.await();
+        return ops.get() * 1000.0 / DURATION_MS;
+    }
+
+    private static LettuceConnectionFactory connectionFactory(String spec) {
+        if (spec.contains(",")) {
+            return new LettuceConnectionFactory(new RedisClusterConfiguration(Arrays.asList(spec.split(","))));
+        }
+        String[] hp = spec.split(":");
+        return new LettuceConnectionFactory(new RedisStandaloneConfiguration(hp[0], hp.length > 1 ? Integer.parseInt(hp[1]) : 6379));
+    }
+}
@@ -9,6 +9,7 @@ import org.mockito.Mockito;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
@@ -28,9 +29,15 @@ class ProductControllerNullSafetyTest {
         LoggerService log = Mockito.mock(LoggerService.class);
         EntityManager em = Mockito.mock(EntityManager.class);
         com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-        ProductController controller = new ProductController(goodsRepo, redis, log, em, mapper);
+        var registry = new io.micrometer.core.instrument.simple.SimpleMeterRegistry();
+        var soldOut = new com.flashsale.backend.service.SoldOutRegistry(redis, log, 5000);
+        var inventory = new com.flashsale.backend.service.InventoryService(redis, log, registry,
+                new com.flashsale.backend.service.StockLeaseService(redis, soldOut, log, registry),
+                Mockito.mock(com.flashsale.backend.repository.SeckillGoodsStockRepository.class));
+        ProductController controller = new ProductController(goodsRepo, redis, log, em, mapper, new com.flashsale.backend.service.ProductListCache(redis, new com.flashsale.backend.service.CacheService(redis, registry), registry, 1 << 20, 1000, false, 0, 2000, 0, 2000), inventory,
+                new com.flashsale.backend.service.ProductDetailCache(redis, goodsRepo, inventory, mapper, log, registry, 100, 300, 2000, 30000));
         MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller)
-                .setMessageConverters(new MappingJackson2HttpMessageConverter(mapper))
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), new MappingJackson2HttpMessageConverter(mapper))
                 .build();
 
         ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
@@ -0,0 +1,226 @@
+package com.flashsale.backend.controller;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.flashsale.backend.service.CacheService;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.ProductDetailCache;
+import com.flashsale.backend.service.ProductListCache;
+import com.flashsale.backend.service.SeckillScripts;
+import com.flashsale.backend.service.SoldOutRegistry;
+import com.flashsale.backend.service.StockLeaseService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ProductControllerTest {
+    @Test
+    void activePageIsAssembledWithOneMultiGet() throws Exception {
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        MockMvc mockMvc = mockMvc(goodsRepo, redis, mapper);
+
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zops);
+        when(zops.zCard(anyString())).thenReturn(3L);
+        when(zops.reverseRange(anyString(), anyLong(), anyLong())).thenReturn(new LinkedHashSet<>(List.of("1", "2", "3")));
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList(
+                mapper.writeValueAsString(goods(1L)), null, mapper.writeValueAsString(goods(3L)),
+                "5", "6", "7"));
+        when(goodsRepo.findAllById(List.of(2L))).thenReturn(List.of(goods(2L)));
+
+        mockMvc.perform(get("/api/products").param("status", "active").param("limit", "3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(3))
+                .andExpect(jsonPath("$.products[1].id").value(2))
+                .andExpect(jsonPath("$.products[1].stock").value(6))
+                .andExpect(jsonPath("$.products[2].stock").value(7));
+
+        verify(vops, times(1)).multiGet(List.of("product:1", "product:2", "product:3",
+                InventoryService.stockKey(1L), InventoryService.stockKey(2L), InventoryService.stockKey(3L)));
+        verify(vops, never()).get(startsWith("product:"));
+        verify(goodsRepo, never()).findById(anyLong());
+        verify(vops).multiSet(argThat(m -> m.size() == 1 && m.containsKey("product:2")));
+    }
+
+    @Test
+    void activeCursorSeeksFromTheLastGoodsOfThePreviousPage() throws Exception {
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        MockMvc mockMvc = mockMvc(goodsRepo, redis, mapper);
+
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zops);
+        when(zops.zCard(anyString())).thenReturn(40L);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList(
+                mapper.writeValueAsString(goods(4L)), mapper.writeValueAsString(goods(2L)), "9", "9"));
+        when(redis.execute(eq(SeckillScripts.ACTIVE_PAGE), anyList(), any(), any(), any())).thenReturn(List.of("4", "9", "2", "9"));
+        String cursor = new ProductController.Cursor(ProductController.Cursor.ACTIVE, "9", 7L).encode();
+
+        mockMvc.perform(get("/api/products").param("status", "active").param("limit", "2").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(2))
+                .andExpect(jsonPath("$.next_cursor").value(new ProductController.Cursor(ProductController.Cursor.ACTIVE, "9", 2L).encode()));
+
+        verify(redis).execute(SeckillScripts.ACTIVE_PAGE, List.of(CacheService.ACTIVE_BY_STOCK_KEY), "9", "7", "2");
+        verify(zops, never()).reverseRange(anyString(), anyLong(), anyLong());
+
+        // a cursor issued for another ordering is refused rather than silently restarting
+        String other = new ProductController.Cursor("end_time:asc", "2024-01-01T00:00", 7L).encode();
+        mockMvc.perform(get("/api/products").param("status", "active").param("cursor", other))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/products").param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void availableActivePageIsPagedAndCountedInTheZset() throws Exception {
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        MockMvc mockMvc = mockMvc(goodsRepo, redis, mapper);
+
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zops);
+        when(zops.count(anyString(), eq(1.0), eq(Double.POSITIVE_INFINITY))).thenReturn(25L);
+        when(zops.reverseRangeByScore(anyString(), eq(1.0), eq(Double.POSITIVE_INFINITY), eq(20L), eq(2L)))
+                .thenReturn(new LinkedHashSet<>(List.of("5", "6")));
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList(
+                mapper.writeValueAsString(goods(5L)), mapper.writeValueAsString(goods(6L)), "3", "1"));
+
+        mockMvc.perform(get("/api/products").param("status", "active").param("available", "true")
+                        .param("page", "11").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(2))
+                .andExpect(jsonPath("$.total").value(25));
+
+        verify(zops, never()).reverseRange(anyString(), anyLong(), anyLong());
+        verify(zops, never()).zCard(anyString());
+    }
+
+    @Test
+    void matchingEtagsAreAnsweredWithNotModified() throws Exception {
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        MockMvc mockMvc = mockMvc(goodsRepo, redis, mapper);
+
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zops);
+        when(zops.zCard(anyString())).thenReturn(1L);
+        when(zops.reverseRange(anyString(), anyLong(), anyLong())).thenReturn(new LinkedHashSet<>(List.of("1")));
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList(mapper.writeValueAsString(goods(1L)), "5"));
+        when(vops.get(InventoryService.stockKey(1L))).thenReturn("5");
+        when(goodsRepo.findById(1L)).thenReturn(java.util.Optional.of(goods(1L)));
+
+        String listTag = mockMvc.perform(get("/api/products").param("status", "active"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(listTag);
+        mockMvc.perform(get("/api/products").param("status", "active").header("If-None-Match", listTag))
+                .andExpect(status().isNotModified());
+        // the 304 came from L1: the page was only assembled once
+        verify(vops, times(1)).multiGet(anyCollection());
+
+        when(vops.multiGet(List.of("product:1", "product:missing:1", InventoryService.stockKey(1L)))).thenReturn(Arrays.asList(null, null, "5"));
+        String detailTag = mockMvc.perform(get("/api/products/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stock").value(5))
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/api/products/1").header("If-None-Match", "W/" + detailTag))
+                .andExpect(status().isNotModified());
+        verify(goodsRepo, times(1)).findById(1L);
+
+        when(vops.get(InventoryService.stockKey(1L))).thenReturn("4");
+        mockMvc.perform(get("/api/products/1").header("If-None-Match", detailTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stock").value(4));
+    }
+
+    @Test
+    void storedListEtagIsAnsweredBeforeThePageIsFetched() throws Exception {
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        MockMvc mockMvc = mockMvc(goodsRepo, redis, new ObjectMapper().registerModule(new JavaTimeModule()));
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zops);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        // another node built this page under generation 0 and stored its ETag next to it
+        when(vops.get("products:etag:0:1:10:active:start_time:asc:null:null")).thenReturn("\"p1\"");
+
+        mockMvc.perform(get("/api/products").param("status", "active").header("If-None-Match", "\"p1\""))
+                .andExpect(status().isNotModified());
+        verify(redis, never()).execute(any(org.springframework.data.redis.core.RedisCallback.class));
+        verifyNoInteractions(zops);
+    }
+
+    @Test
+    void seekClauseKeepsNullsWhereMysqlSortsThem() {
+        assertEquals(" AND (stock > :cv OR (stock = :cv AND id > :cid))", ProductController.seekClause("stock", false, false));
+        assertEquals(" AND (stock < :cv OR (stock = :cv AND id < :cid) OR stock IS NULL)", ProductController.seekClause("stock", true, false));
+        assertEquals(" AND (stock IS NOT NULL OR id > :cid)", ProductController.seekClause("stock", false, true));
+        assertEquals(" AND stock IS NULL AND id < :cid", ProductController.seekClause("stock", true, true));
+    }
+
+    private static MockMvc mockMvc(SeckillGoodsRepository goodsRepo, StringRedisTemplate redis, ObjectMapper mapper) {
+        LoggerService log = Mockito.mock(LoggerService.class);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        InventoryService inventory = new InventoryService(redis, log, registry,
+                new StockLeaseService(redis, new SoldOutRegistry(redis, log, 5000), log, registry),
+                Mockito.mock(SeckillGoodsStockRepository.class));
+        ProductController controller = new ProductController(goodsRepo, redis, log, Mockito.mock(EntityManager.class), mapper,
+                new ProductListCache(redis, new CacheService(redis, registry), registry, 1 << 20, 1000, false, 0, 2000, 0, 2000), inventory,
+                new ProductDetailCache(redis, goodsRepo, inventory, mapper, log, registry, 100, 300, 2000, 30000));
+        return MockMvcBuilders.standaloneSetup(controller)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), new MappingJackson2HttpMessageConverter(mapper))
+                .build();
+    }
+
+    private static SeckillGoods goods(long id) {
+        SeckillGoods g = new SeckillGoods();
+        g.setId(id);
+        g.setName("g" + id);
+        g.setStock(100);
+        g.setSeckillPrice(BigDecimal.ONE);
+        g.setOriginalPrice(BigDecimal.TEN);
+        g.setStartTime(LocalDateTime.now().minusHours(1));
+        g.setEndTime(LocalDateTime.now().plusHours(1));
+        return g;
+    }
+}
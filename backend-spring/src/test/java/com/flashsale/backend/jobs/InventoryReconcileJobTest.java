@@ -0,0 +1,166 @@
+package com.flashsale.backend.jobs;
+
+import com.flashsale.backend.kafka.OrderRetryBacklogMonitor;
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.flashsale.backend.service.InventoryService;
+import com.flashsale.backend.service.SeckillScripts;
+import com.flashsale.backend.service.SoldOutRegistry;
+import com.flashsale.backend.service.StockLeaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InventoryReconcileJobTest {
+    @Test
+    void leakIsReportedThenRepairedOnceTheGoodsIsQuiet() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(redis.opsForZSet()).thenReturn(zops);
+        doReturn(hops).when(redis).opsForHash();
+        when(zops.range(anyString(), anyLong(), anyLong())).thenReturn(Set.of());
+        when(hops.multiGet(eq(StockLeaseService.LEASES_KEY), anyCollection())).thenReturn(Arrays.asList((Object) null));
+        when(hops.multiGet(eq(InventoryReconcileJob.ORDERED_KEY), anyCollection())).thenReturn(Arrays.asList((Object) "3"));
+        // 10 units to start with, 3 orders stored, 5 left in Redis: 2 units were decremented without an order
+        when(vops.multiGet(anyCollection())).thenReturn(List.of("5"));
+        when(hops.get(InventoryReconcileJob.ORDERED_KEY, InventoryReconcileJob.WATERMARK_FIELD)).thenReturn(null, "40");
+        when(redis.execute(eq(SeckillScripts.RECONCILE_ADVANCE), anyList(), any(Object[].class))).thenReturn(1L);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.maxOrderId()).thenReturn(40L);
+        when(stockRepo.orderCountsInIdRange(0L, 40L)).thenReturn(Map.of(7L, 3L));
+        when(stockRepo.findInitialStock(anyCollection())).thenReturn(Map.of(7L, 10L));
+        InventoryService inventory = Mockito.mock(InventoryService.class);
+        when(inventory.adjust(7L, 2L)).thenReturn(7L);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        InventoryReconcileJob job = new InventoryReconcileJob(redis, inventory, stockRepo, new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 5000),
+                backlog(Map.of("orders-retry-0", 0L, "orders-dlq", 0L)), registry, Mockito.mock(LoggerService.class), true, true, 0, 1000, 100, 10000, 1000);
+
+        assertEquals(1, job.reconcile(0));
+        assertEquals(2.0, registry.get("seckill_stock_drift").tag("goods_id", "7").gauge().value());
+        job.reconcile(500);
+        verify(inventory, never()).adjust(anyLong(), anyLong());
+
+        job.reconcile(1000);
+        verify(inventory).adjust(7L, 2L);
+        assertNull(registry.find("seckill_stock_drift").tag("goods_id", "7").gauge());
+        // the shared watermark moved to order 40 once; later runs found nothing new to count
+        verify(redis, times(1)).execute(eq(SeckillScripts.RECONCILE_ADVANCE), eq(List.of(InventoryReconcileJob.ORDERED_KEY)),
+                eq("0"), eq("40"), eq("7"), eq("3"));
+        verify(stockRepo, times(1)).orderCountsInIdRange(anyLong(), anyLong());
+    }
+
+    @Test
+    void ordersStillInRetryTiersAreNotRepairedAway() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(redis.opsForZSet()).thenReturn(zops);
+        doReturn(hops).when(redis).opsForHash();
+        when(zops.range(anyString(), anyLong(), anyLong())).thenReturn(Set.of("7"));
+        when(hops.multiGet(anyString(), anyCollection())).thenReturn(Arrays.asList((Object) null));
+        // 10 units, nothing stored yet, 5 left: 3 of the missing units are orders waiting in the retry tiers and the DLQ
+        when(vops.multiGet(anyCollection())).thenReturn(List.of("5"));
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.findInitialStock(anyCollection())).thenReturn(Map.of(7L, 10L));
+        InventoryService inventory = Mockito.mock(InventoryService.class);
+        when(inventory.adjust(anyLong(), anyLong())).thenReturn(7L);
+        OrderRetryBacklogMonitor backlog = backlog(Map.of("orders-retry-0", 2L, "orders-dlq", 1L));
+        InventoryReconcileJob job = new InventoryReconcileJob(redis, inventory, stockRepo, new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 5000),
+                backlog, new SimpleMeterRegistry(), Mockito.mock(LoggerService.class), true, true, 0, 1000, 100, 10000, 1000);
+
+        job.reconcile(0);
+        job.reconcile(1000);
+        verify(inventory).adjust(7L, 2L);
+
+        // an unknown backlog could hide any number of orders, so nothing is repaired
+        when(backlog.snapshot()).thenReturn(Map.of("orders-retry-0", -1L, "orders-dlq", 0L));
+        when(vops.multiGet(anyCollection())).thenReturn(List.of("4"));
+        job.reconcile(2000);
+        job.reconcile(3000);
+        verify(inventory, times(1)).adjust(anyLong(), anyLong());
+    }
+
+    @Test
+    void evictedCountsAreRebuiltFromTheFirstOrder() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(redis.opsForZSet()).thenReturn(zops);
+        doReturn(hops).when(redis).opsForHash();
+        when(zops.range(anyString(), anyLong(), anyLong())).thenReturn(Set.of());
+        when(hops.multiGet(anyString(), anyCollection())).thenReturn(Arrays.asList((Object) null));
+        when(vops.multiGet(anyCollection())).thenReturn(List.of("7"));
+        // counted up to order 40, then the hash was evicted along with its watermark
+        when(hops.get(InventoryReconcileJob.ORDERED_KEY, InventoryReconcileJob.WATERMARK_FIELD)).thenReturn("40", (Object) null);
+        when(redis.execute(eq(SeckillScripts.RECONCILE_ADVANCE), anyList(), any(Object[].class))).thenReturn(1L);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.maxOrderId()).thenReturn(50L, 60L);
+        when(stockRepo.orderCountsInIdRange(anyLong(), anyLong())).thenReturn(Map.of(7L, 3L));
+        when(stockRepo.findInitialStock(anyCollection())).thenReturn(Map.of(7L, 10L));
+        InventoryReconcileJob job = new InventoryReconcileJob(redis, Mockito.mock(InventoryService.class), stockRepo, new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 5000),
+                backlog(Map.of()), new SimpleMeterRegistry(), Mockito.mock(LoggerService.class), true, true, 0, 1000, 100, 10000, 1000);
+
+        job.reconcile(0);
+        verify(stockRepo).orderCountsInIdRange(40L, 50L);
+        job.reconcile(1000);
+        verify(stockRepo).orderCountsInIdRange(0L, 60L);
+        verify(redis).execute(eq(SeckillScripts.RECONCILE_ADVANCE), eq(List.of(InventoryReconcileJob.ORDERED_KEY)), eq("0"), eq("60"), eq("7"), eq("3"));
+
+        // a cleaned up goods is looked up again if it ever comes back
+        job.forget(7L);
+        job.reconcile(2000);
+        verify(stockRepo, times(2)).findInitialStock(anyCollection());
+    }
+
+    private static OrderRetryBacklogMonitor backlog(Map<String, Long> pending) {
+        OrderRetryBacklogMonitor backlog = Mockito.mock(OrderRetryBacklogMonitor.class);
+        when(backlog.snapshot()).thenReturn(pending);
+        return backlog;
+    }
+
+    @Test
+    void goodsThatKeepsSellingIsNeverRepaired() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        ZSetOperations<String, String> zops = Mockito.mock(ZSetOperations.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(redis.opsForZSet()).thenReturn(zops);
+        doReturn(hops).when(redis).opsForHash();
+        when(zops.range(anyString(), anyLong(), anyLong())).thenReturn(Set.of("7"));
+        when(hops.multiGet(anyString(), anyCollection())).thenReturn(Arrays.asList((Object) null));
+        // orders still in flight: Redis keeps dropping ahead of the stored rows
+        when(vops.multiGet(anyCollection())).thenReturn(List.of("9"), List.of("8"), List.of("7"));
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.findInitialStock(anyCollection())).thenReturn(Map.of(7L, 10L));
+        InventoryService inventory = Mockito.mock(InventoryService.class);
+        InventoryReconcileJob job = new InventoryReconcileJob(redis, inventory, stockRepo, new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 5000),
+                backlog(Map.of()), new SimpleMeterRegistry(), Mockito.mock(LoggerService.class), true, true, 0, 1000, 100, 10000, 1000);
+
+        job.reconcile(0);
+        job.reconcile(5000);
+        job.reconcile(10000);
+        verify(inventory, never()).adjust(anyLong(), anyLong());
+        verify(stockRepo, times(1)).findInitialStock(anyCollection());
+    }
+}
@@ -0,0 +1,62 @@
+package com.flashsale.backend.jobs;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.flashsale.backend.service.InventoryService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StockWriteBehindJobTest {
+    @Test
+    void dirtyGoodsArePersistedInOneUpdate() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(sops.pop(InventoryService.DIRTY_KEY, 100L)).thenReturn(List.of("1", "2", "3", "4"));
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList("7", null));
+        InventoryService inventory = Mockito.mock(InventoryService.class);
+        when(inventory.shardCount(3L)).thenReturn(4);
+        when(inventory.shardTotal(3L)).thenReturn(12L);
+        // goods 4 lost a shard: a partial sum would persist too little stock
+        when(inventory.shardCount(4L)).thenReturn(2);
+        when(inventory.shardTotal(4L)).thenReturn(null);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        StockWriteBehindJob job = new StockWriteBehindJob(redis, inventory, stockRepo, Mockito.mock(LoggerService.class), true, 100, 10000);
+
+        // goods 2 was evicted from Redis, so its persisted value is left alone
+        assertEquals(2, job.persistDirty());
+        verify(vops).multiGet(List.of(InventoryService.stockKey(1L), InventoryService.stockKey(2L)));
+        verify(stockRepo).persistStock(Map.of(1L, 7L, 3L, 12L));
+    }
+
+    @Test
+    void failedUpdatePutsGoodsBackInTheDirtySet() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(sops.pop(InventoryService.DIRTY_KEY, 100L)).thenReturn(List.of("1", "2"));
+        when(vops.multiGet(anyCollection())).thenReturn(List.of("7", "8"));
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.persistStock(anyMap())).thenThrow(new QueryTimeoutException("timeout"));
+        StockWriteBehindJob job = new StockWriteBehindJob(redis, Mockito.mock(InventoryService.class), stockRepo, Mockito.mock(LoggerService.class), true, 100, 10000);
+
+        assertEquals(0, job.persistDirty());
+        verify(sops).add(InventoryService.DIRTY_KEY, "1", "2");
+    }
+}
@@ -0,0 +1,135 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillOrder;
+import com.flashsale.backend.repository.SeckillOrderBulkRepository;
+import com.flashsale.backend.service.MetricsService;
+import com.flashsale.backend.service.SeckillResultService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderBatchConsumerTest {
+    private static ConsumerRecord<String, String> event(String orderId, long goodsId) {
+        return record(orderId, "{\"order_id\":\"" + orderId + "\",\"goods_id\":" + goodsId + ",\"price\":9.9,\"user_id\":1}");
+    }
+
+    private static ConsumerRecord<String, String> record(String key, String value) {
+        return new ConsumerRecord<>("orders", 0, 0L, key, value);
+    }
+
+    @Test
+    void dedupesAndInsertsOnlyNewOrdersInOneStatement() {
+        SeckillOrderBulkRepository bulk = Mockito.mock(SeckillOrderBulkRepository.class);
+        OrderConsumer single = Mockito.mock(OrderConsumer.class);
+        MetricsService metrics = Mockito.mock(MetricsService.class);
+        // o-2 is already stored, which only the insert finds out with the filter off
+        when(bulk.insertIgnoringDuplicates(anyList())).thenAnswer(inv -> ((List<SeckillOrder>) inv.getArgument(0)).stream()
+                .filter(o -> !o.getExternalOrderId().equals("o-2")).toList());
+        var consumer = new OrderBatchConsumer(bulk, new OrderDedupeFilter(false, 1, 0.01), single, metrics, Mockito.mock(SeckillResultService.class), Mockito.mock(LoggerService.class));
+
+        consumer.handleBatch(List.of(event("o-1", 5), event("o-2", 5), event("o-1", 5), event("o-3", 6)));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<SeckillOrder>> inserted = ArgumentCaptor.forClass(List.class);
+        verify(bulk, times(1)).insertIgnoringDuplicates(inserted.capture());
+        assertEquals(List.of("o-1", "o-2", "o-3"), inserted.getValue().stream().map(SeckillOrder::getExternalOrderId).toList());
+        verify(bulk, never()).findExistingExternalIds(anyCollection());
+        verify(metrics, times(1)).recordSale(5L, new BigDecimal("9.9"));
+        verify(metrics).recordSale(6L, new BigDecimal("9.9"));
+        verify(single, never()).handle(any(), anyString());
+    }
+
+    @Test
+    void countsOnlyRowsThisBatchInserted() {
+        SeckillOrderBulkRepository bulk = Mockito.mock(SeckillOrderBulkRepository.class);
+        MetricsService metrics = Mockito.mock(MetricsService.class);
+        OrderDedupeFilter filter = new OrderDedupeFilter(true, 1000, 0.001);
+        when(bulk.findExistingExternalIds(anyCollection())).thenReturn(Set.of());
+        // o-3 was stored by another node between the poll and the insert
+        when(bulk.insertIgnoringDuplicates(anyList())).thenAnswer(inv -> ((List<SeckillOrder>) inv.getArgument(0)).subList(0, 1));
+        SeckillResultService results = Mockito.mock(SeckillResultService.class);
+        var consumer = new OrderBatchConsumer(bulk, filter, Mockito.mock(OrderConsumer.class), metrics, results, Mockito.mock(LoggerService.class));
+
+        consumer.handleBatch(List.of(event("o-1", 5), event("o-3", 6)));
+
+        verify(metrics).recordSale(5L, new BigDecimal("9.9"));
+        verify(metrics, never()).recordSale(eq(6L), any());
+        assertTrue(filter.mightContain("o-1"));
+        assertFalse(filter.mightContain("o-3"));
+        verify(results).created("o-3", 1L);
+    }
+
+    @Test
+    void fallsBackToPerRecordHandlingWhenBatchFails() {
+        SeckillOrderBulkRepository bulk = Mockito.mock(SeckillOrderBulkRepository.class);
+        OrderConsumer single = Mockito.mock(OrderConsumer.class);
+        when(bulk.findExistingExternalIds(anyCollection())).thenReturn(Set.of());
+        when(bulk.insertIgnoringDuplicates(anyList())).thenThrow(new DataAccessResourceFailureException("deadlock"));
+        var consumer = new OrderBatchConsumer(bulk, new OrderDedupeFilter(false, 1, 0.01), single, Mockito.mock(MetricsService.class), Mockito.mock(SeckillResultService.class), Mockito.mock(LoggerService.class));
+
+        consumer.handleBatch(List.of(event("o-1", 5), event("o-2", 5), record("k-3", "not json")));
+
+        verify(single).handle("o-1", event("o-1", 5).value());
+        verify(single).handle("k-3", "not json");
+        verify(single, times(3)).handle(any(), anyString());
+    }
+
+    @Test
+    void unroutableRecordFailsTheBatchAtItsOwnIndex() {
+        SeckillOrderBulkRepository bulk = Mockito.mock(SeckillOrderBulkRepository.class);
+        OrderConsumer single = Mockito.mock(OrderConsumer.class);
+        when(bulk.insertIgnoringDuplicates(anyList())).thenThrow(new DataAccessResourceFailureException("deadlock"));
+        doThrow(new IllegalStateException("unrouted")).when(single).handle(eq("o-2"), anyString());
+        var consumer = new OrderBatchConsumer(bulk, new OrderDedupeFilter(false, 1, 0.01), single, Mockito.mock(MetricsService.class), Mockito.mock(SeckillResultService.class), Mockito.mock(LoggerService.class));
+
+        // the records before o-2 are handled and committable; o-2 and everything after it is redelivered
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> consumer.handleBatch(List.of(event("o-1", 5), event("o-2", 5), event("o-3", 5))));
+        assertEquals(1, ex.getIndex());
+        verify(single, never()).handle(eq("o-3"), anyString());
+    }
+
+    @Test
+    void skipsExistenceCheckForIdsTheFilterHasNotSeen() {
+        SeckillOrderBulkRepository bulk = Mockito.mock(SeckillOrderBulkRepository.class);
+        OrderDedupeFilter filter = new OrderDedupeFilter(true, 1000, 0.001);
+        filter.add("o-1");
+        when(bulk.findExistingExternalIds(anyCollection())).thenReturn(Set.of("o-1"));
+        when(bulk.insertIgnoringDuplicates(anyList())).thenAnswer(inv -> inv.getArgument(0));
+        var consumer = new OrderBatchConsumer(bulk, filter, Mockito.mock(OrderConsumer.class), Mockito.mock(MetricsService.class), Mockito.mock(SeckillResultService.class), Mockito.mock(LoggerService.class));
+
+        consumer.handleBatch(List.of(event("o-1", 5), event("o-2", 5)));
+
+        verify(bulk).findExistingExternalIds(List.of("o-1"));
+        assertTrue(filter.mightContain("o-2"));
+    }
+
+    @Test
+    void disabledFilterNeverLooksUpExistingIds() {
+        SeckillOrderBulkRepository bulk = Mockito.mock(SeckillOrderBulkRepository.class);
+        when(bulk.insertIgnoringDuplicates(anyList())).thenAnswer(inv -> inv.getArgument(0));
+        var consumer = new OrderBatchConsumer(bulk, new OrderDedupeFilter(false, 1, 0.01), Mockito.mock(OrderConsumer.class), Mockito.mock(MetricsService.class), Mockito.mock(SeckillResultService.class), Mockito.mock(LoggerService.class));
+
+        consumer.handleBatch(List.of(event("o-1", 5)));
+        // the same poll again, as after a rebalance
+        consumer.handleBatch(List.of(event("o-1", 5)));
+
+        verify(bulk, never()).findExistingExternalIds(anyCollection());
+        verify(bulk, times(2)).insertIgnoringDuplicates(anyList());
+    }
+}
@@ -0,0 +1,129 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.config.KafkaConfig;
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillOrder;
+import com.flashsale.backend.repository.SeckillOrderBulkRepository;
+import com.flashsale.backend.service.MetricsService;
+import com.flashsale.backend.service.SeckillResultService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderConsumerTest {
+    private static final String EVENT = "{\"order_id\":\"o-1\",\"goods_id\":5,\"price\":9.9,\"user_id\":1}";
+
+    @Test
+    void filterHitThatIsStoredSkipsTheInsert() {
+        SeckillOrderBulkRepository repo = Mockito.mock(SeckillOrderBulkRepository.class);
+        MetricsService metrics = Mockito.mock(MetricsService.class);
+        OrderDedupeFilter filter = new OrderDedupeFilter(true, 1000, 0.001);
+        filter.add("o-1");
+        when(repo.findExistingExternalIds(List.of("o-1"))).thenReturn(Set.of("o-1"));
+        var consumer = new OrderConsumer(repo, filter, Mockito.mock(LoggerService.class), Mockito.mock(OrderRetryRouter.class), metrics, Mockito.mock(SeckillResultService.class));
+
+        assertEquals(OrderConsumer.Outcome.STORED, consumer.store(EVENT));
+        verify(repo, never()).insert(any(SeckillOrder.class));
+        verify(metrics, never()).recordSale(anyLong(), any());
+    }
+
+    @Test
+    void filterMissInsertsWithoutALookup() {
+        SeckillOrderBulkRepository repo = Mockito.mock(SeckillOrderBulkRepository.class);
+        MetricsService metrics = Mockito.mock(MetricsService.class);
+        OrderDedupeFilter filter = new OrderDedupeFilter(true, 1000, 0.001);
+        when(repo.insert(any(SeckillOrder.class))).thenReturn(11L);
+        var consumer = new OrderConsumer(repo, filter, Mockito.mock(LoggerService.class), Mockito.mock(OrderRetryRouter.class), metrics, Mockito.mock(SeckillResultService.class));
+
+        assertEquals(OrderConsumer.Outcome.STORED, consumer.store(EVENT));
+        verify(repo, never()).findExistingExternalIds(anyCollection());
+        verify(metrics).recordSale(5L, new BigDecimal("9.9"));
+        assertTrue(filter.mightContain("o-1"));
+    }
+
+    @Test
+    void duplicateOrderIsSkippedWithoutCountingTheSale() {
+        SeckillOrderBulkRepository repo = Mockito.mock(SeckillOrderBulkRepository.class);
+        MetricsService metrics = Mockito.mock(MetricsService.class);
+        SeckillResultService results = Mockito.mock(SeckillResultService.class);
+        when(repo.insert(any(SeckillOrder.class))).thenThrow(new DuplicateKeyException("uk_seckill_orders_external_order_id"));
+        var consumer = new OrderConsumer(repo, new OrderDedupeFilter(false, 1, 0.01), Mockito.mock(LoggerService.class), Mockito.mock(OrderRetryRouter.class), metrics, results);
+
+        consumer.handle("o-1", EVENT);
+
+        // with the filter off the unique key is the only duplicate check
+        verify(repo, never()).findExistingExternalIds(anyCollection());
+        verify(metrics, never()).recordSale(anyLong(), any());
+        verify(results).created("o-1", 1L);
+    }
+
+    @Test
+    void failedInsertClimbsTheRetryLadder() {
+        SeckillOrderBulkRepository orderRepo = Mockito.mock(SeckillOrderBulkRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        LoggerService log = Mockito.mock(LoggerService.class);
+        OrderRetryRouter router = Mockito.mock(OrderRetryRouter.class);
+        when(router.escalate(any(), anyString(), anyInt())).thenReturn(true);
+        when(router.deadLetter(any(), anyString(), anyInt())).thenReturn(true);
+        when(orderRepo.insert(any())).thenThrow(new QueryTimeoutException("brownout"));
+        OrderConsumer consumer = new OrderConsumer(orderRepo, new OrderDedupeFilter(false, 1, 0.01), log, router, Mockito.mock(MetricsService.class), new SeckillResultService(redis, log, 3600));
+        String json = "{\"order_id\":\"o-3\",\"goods_id\":1,\"price\":1,\"user_id\":2}";
+        assertEquals(OrderConsumer.Outcome.RETRYABLE, consumer.dispatch("o-3", json, 1));
+        verify(router).escalate("o-3", json, 2);
+        consumer.handle(new ConsumerRecord<>("orders", 0, 0L, "k-9", "not json"));
+        // the record key travels with it, so the order keeps its partition in the DLQ
+        verify(router).deadLetter("k-9", "not json", 0);
+
+        // a tier that cannot be reached leaves the record uncommitted
+        when(router.escalate(any(), anyString(), anyInt())).thenReturn(false);
+        assertEquals(OrderConsumer.Outcome.UNROUTED, consumer.dispatch("o-3", json, 1));
+        assertThrows(IllegalStateException.class, () -> consumer.handle("o-3", json));
+    }
+
+    @Test
+    void unroutableRecordIsRedeliveredAndNeverCommitted() {
+        SeckillOrderBulkRepository repo = Mockito.mock(SeckillOrderBulkRepository.class);
+        OrderRetryRouter router = Mockito.mock(OrderRetryRouter.class);
+        // MySQL is down and neither the retry tiers nor the DLQ take the order
+        when(repo.insert(any(SeckillOrder.class))).thenThrow(new QueryTimeoutException("brownout"));
+        when(router.escalate(any(), anyString(), anyInt())).thenReturn(false);
+        when(router.deadLetter(any(), anyString(), anyInt())).thenReturn(false);
+        var consumer = new OrderConsumer(repo, new OrderDedupeFilter(false, 1, 0.01), Mockito.mock(LoggerService.class), router, Mockito.mock(MetricsService.class), Mockito.mock(SeckillResultService.class));
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("orders", 2, 41L, "o-1", EVENT);
+        TopicPartition tp = new TopicPartition("orders", 2);
+        DefaultErrorHandler handler = KafkaConfig.redeliveringErrorHandler(1, 1);
+        Consumer<String, String> kafka = Mockito.mock(Consumer.class);
+        MessageListenerContainer container = Mockito.mock(MessageListenerContainer.class);
+        when(container.getContainerProperties()).thenReturn(new ContainerProperties("orders"));
+
+        // well past the ten attempts after which the default handler would commit past the record
+        for (int i = 0; i < 25; i++) {
+            RuntimeException failure = assertThrows(IllegalStateException.class, () -> consumer.handle(record));
+            assertThrows(RuntimeException.class, () -> handler.handleRemaining(failure, List.of(record), kafka, container));
+        }
+
+        verify(kafka, times(25)).seek(tp, 41L);
+        verify(kafka, never()).commitSync(anyMap());
+        verify(kafka, never()).commitSync(anyMap(), any());
+        verify(kafka, never()).commitAsync(anyMap(), any());
+        verify(repo, times(25)).insert(any(SeckillOrder.class));
+    }
+}
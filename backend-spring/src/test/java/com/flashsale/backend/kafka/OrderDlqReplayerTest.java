@@ -0,0 +1,68 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.logging.LoggerService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderDlqReplayerTest {
+    private static ConsumerRecord<String, String> record(long offset, String value) {
+        return new ConsumerRecord<>("orders-dlq", 0, offset, "k" + offset, value);
+    }
+
+    @Test
+    void countsStoredAndMalformedApartAndPausesWhileTheDatabaseFails() {
+        OrderConsumer orders = Mockito.mock(OrderConsumer.class);
+        when(orders.store("ok")).thenReturn(OrderConsumer.Outcome.STORED);
+        when(orders.store("bad")).thenReturn(OrderConsumer.Outcome.MALFORMED);
+        when(orders.store("down")).thenReturn(OrderConsumer.Outcome.RETRYABLE);
+        KafkaListenerEndpointRegistry registry = Mockito.mock(KafkaListenerEndpointRegistry.class);
+        MessageListenerContainer c = Mockito.mock(MessageListenerContainer.class);
+        when(registry.getListenerContainer(OrderDlqReplayer.LISTENER_ID)).thenReturn(c);
+        var replayer = new OrderDlqReplayer(orders, registry, Mockito.mock(LoggerService.class), new SimpleMeterRegistry(), 0);
+
+        Acknowledgment stored = Mockito.mock(Acknowledgment.class);
+        replayer.handle(record(1, "ok"), stored);
+        Acknowledgment bad = Mockito.mock(Acknowledgment.class);
+        replayer.handle(record(2, "bad"), bad);
+        verify(stored).acknowledge();
+        verify(bad).acknowledge();
+        verify(c, never()).pause();
+
+        Acknowledgment down = Mockito.mock(Acknowledgment.class);
+        replayer.handle(record(3, "down"), down);
+        verify(c).pause();
+        verify(down).nack(any(Duration.class));
+        verify(down, never()).acknowledge();
+
+        var status = replayer.status();
+        assertEquals(1L, status.get("replayed"));
+        assertEquals(1L, status.get("malformed"));
+        assertEquals(1L, status.get("failed"));
+    }
+
+    @Test
+    void startResumesAPausedReplay() {
+        KafkaListenerEndpointRegistry registry = Mockito.mock(KafkaListenerEndpointRegistry.class);
+        MessageListenerContainer c = Mockito.mock(MessageListenerContainer.class);
+        when(registry.getListenerContainer(OrderDlqReplayer.LISTENER_ID)).thenReturn(c);
+        when(c.isRunning()).thenReturn(true);
+        when(c.isPauseRequested()).thenReturn(true);
+        var replayer = new OrderDlqReplayer(Mockito.mock(OrderConsumer.class), registry, Mockito.mock(LoggerService.class), new SimpleMeterRegistry(), 0);
+
+        replayer.start();
+
+        verify(c, never()).start();
+        verify(c).resume();
+    }
+}
@@ -0,0 +1,105 @@
+package com.flashsale.backend.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderRetryConsumerTest {
+    private static final TopicPartition P0 = new TopicPartition("orders-retry-0", 0);
+    private static final TopicPartition P1 = new TopicPartition("orders-retry-0", 1);
+
+    private static ConsumerRecord<String, String> record(TopicPartition tp, long offset, long dueAt) {
+        ConsumerRecord<String, String> r = new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "k" + offset, "m" + offset);
+        r.headers().add(OrderRetryRouter.DUE_AT_HEADER, String.valueOf(dueAt).getBytes(StandardCharsets.UTF_8));
+        r.headers().add(OrderRetryRouter.ATTEMPT_HEADER, "1".getBytes(StandardCharsets.UTF_8));
+        return r;
+    }
+
+    private static MessageListenerContainer container(KafkaListenerEndpointRegistry registry) {
+        MessageListenerContainer c = Mockito.mock(MessageListenerContainer.class);
+        when(registry.getListenerContainer(OrderRetryConsumer.LISTENER_ID)).thenReturn(c);
+        return c;
+    }
+
+    @Test
+    void recordNotDueHoldsBackOnlyItsPartition() throws Exception {
+        OrderConsumer orders = Mockito.mock(OrderConsumer.class);
+        when(orders.dispatch(any(), anyString(), anyInt())).thenReturn(OrderConsumer.Outcome.STORED);
+        KafkaListenerEndpointRegistry registry = Mockito.mock(KafkaListenerEndpointRegistry.class);
+        MessageListenerContainer c = container(registry);
+        Consumer<?, ?> consumer = Mockito.mock(Consumer.class);
+        var retry = new OrderRetryConsumer(orders, registry, 1000);
+        long dueAt = System.currentTimeMillis() + 100;
+
+        Acknowledgment early = Mockito.mock(Acknowledgment.class);
+        retry.handle(record(P0, 5, dueAt), early, consumer);
+        verify(consumer).seek(P0, 5);
+        verify(c).pausePartition(P0);
+        verify(early, never()).acknowledge();
+        verify(early, never()).nack(any());
+
+        // the rest of the same poll: partition 0 waits for the seek, partition 1 is handled as usual
+        Acknowledgment behind = Mockito.mock(Acknowledgment.class);
+        retry.handle(record(P0, 6, dueAt), behind, consumer);
+        Acknowledgment other = Mockito.mock(Acknowledgment.class);
+        retry.handle(record(P1, 3, 0), other, consumer);
+        verify(behind, never()).acknowledge();
+        verify(other).acknowledge();
+        verify(orders, times(1)).dispatch(any(), anyString(), anyInt());
+        verify(orders).dispatch("k3", "m3", 1);
+
+        when(c.isPartitionPauseRequested(P0)).thenReturn(true);
+        retry.resumeDue();
+        verify(c, never()).resumePartition(any());
+        Thread.sleep(150);
+        retry.resumeDue();
+        verify(c).resumePartition(P0);
+
+        // redelivered from the rewound offset once resumed
+        Acknowledgment redelivered = Mockito.mock(Acknowledgment.class);
+        retry.handle(record(P0, 5, dueAt), redelivered, consumer);
+        verify(orders).dispatch("k5", "m5", 1);
+        verify(redelivered).acknowledge();
+    }
+
+    @Test
+    void unroutedRecordIsRewoundInsteadOfCommitted() {
+        OrderConsumer orders = Mockito.mock(OrderConsumer.class);
+        when(orders.dispatch(any(), anyString(), anyInt())).thenReturn(OrderConsumer.Outcome.UNROUTED);
+        KafkaListenerEndpointRegistry registry = Mockito.mock(KafkaListenerEndpointRegistry.class);
+        MessageListenerContainer c = container(registry);
+        Consumer<?, ?> consumer = Mockito.mock(Consumer.class);
+        var retry = new OrderRetryConsumer(orders, registry, 1000);
+
+        Acknowledgment ack = Mockito.mock(Acknowledgment.class);
+        retry.handle(record(P0, 8, 0), ack, consumer);
+
+        verify(ack, never()).acknowledge();
+        verify(consumer).seek(P0, 8);
+        verify(c).pausePartition(P0);
+    }
+
+    @Test
+    void revokedPartitionIsNotLeftPaused() {
+        KafkaListenerEndpointRegistry registry = Mockito.mock(KafkaListenerEndpointRegistry.class);
+        MessageListenerContainer c = container(registry);
+        var retry = new OrderRetryConsumer(Mockito.mock(OrderConsumer.class), registry, 1000);
+        retry.handle(record(P0, 5, System.currentTimeMillis() + 60_000), Mockito.mock(Acknowledgment.class), Mockito.mock(Consumer.class));
+
+        retry.onPartitionsRevoked(List.of(P0, P1));
+
+        verify(c).resumePartition(P0);
+        verify(c, never()).resumePartition(P1);
+    }
+}
@@ -0,0 +1,54 @@
+package com.flashsale.backend.kafka;
+
+import com.flashsale.backend.logging.LoggerService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class OrderRetryRouterTest {
+    @Test
+    void walksTheTiersThenDeadLetters() {
+        KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
+        when(kafka.send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any())).thenReturn(CompletableFuture.completedFuture(null));
+        var router = new OrderRetryRouter(kafka, Mockito.mock(LoggerService.class), new SimpleMeterRegistry(), "orders", "orders-dlq", new long[]{1000, 5000}, 1000);
+        assertEquals(List.of("orders-retry-0", "orders-retry-1", "orders-dlq"), router.tiers());
+
+        long before = System.currentTimeMillis();
+        assertTrue(router.escalate("k", "m", 1));
+        assertTrue(router.escalate("k", "m", 2));
+        assertFalse(router.exhausted(2));
+        assertTrue(router.exhausted(3));
+        assertTrue(router.escalate("k", "m", 3));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ProducerRecord<String, String>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafka, times(3)).send(sent.capture());
+        List<ProducerRecord<String, String>> records = sent.getAllValues();
+        assertEquals(List.of("orders-retry-0", "orders-retry-1", "orders-dlq"), records.stream().map(ProducerRecord::topic).toList());
+        long dueAt = OrderRetryRouter.headerLong(records.get(1).headers(), OrderRetryRouter.DUE_AT_HEADER, 0);
+        assertTrue(dueAt >= before + 5000);
+        assertEquals(3, OrderRetryRouter.headerLong(records.get(2).headers(), OrderRetryRouter.ATTEMPT_HEADER, 0));
+    }
+
+    @Test
+    void reportsASendTheBrokerDidNotAcknowledge() {
+        KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
+        when(kafka.send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker down")))
+                .thenReturn(new CompletableFuture<>());
+        var router = new OrderRetryRouter(kafka, Mockito.mock(LoggerService.class), new SimpleMeterRegistry(), "orders", "orders-dlq", new long[]{1000}, 50);
+
+        assertFalse(router.escalate("k", "m", 1));
+        // a send that never completes is given up on after the timeout
+        assertFalse(router.deadLetter("k", "m", 2));
+    }
+}
@@ -0,0 +1,68 @@
+package com.flashsale.backend.repository;
+
+import com.flashsale.backend.model.SeckillOrder;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SeckillOrderBulkRepositoryTest {
+    private static SeckillOrder order(String externalOrderId) {
+        SeckillOrder o = new SeckillOrder();
+        o.setUserId(1L);
+        o.setGoodsId(5L);
+        o.setExternalOrderId(externalOrderId);
+        return o;
+    }
+
+    private static List<String> ids(List<SeckillOrder> orders) {
+        return orders.stream().map(SeckillOrder::getExternalOrderId).toList();
+    }
+
+    @Test
+    void duplicatesAreLeftOutByReadingBackTheStoredIds() {
+        JdbcTemplate jdbc = Mockito.mock(JdbcTemplate.class);
+        // the multi-row insert fails on o-2, then another node stores o-3 before the retry
+        when(jdbc.update(anyString(), any(Object[].class)))
+                .thenThrow(new DuplicateKeyException("o-2"), new DuplicateKeyException("o-3"))
+                .thenReturn(1);
+        when(jdbc.queryForList(anyString(), eq(String.class), any(Object[].class)))
+                .thenReturn(List.of("o-2"), List.of("o-3"));
+        var repo = new SeckillOrderBulkRepository(jdbc);
+
+        List<SeckillOrder> inserted = repo.insertIgnoringDuplicates(List.of(order("o-1"), order("o-2"), order("o-3")));
+
+        // batch update counts are never consulted, so SUCCESS_NO_INFO cannot drop a stored row
+        assertEquals(List.of("o-1"), ids(inserted));
+        verify(jdbc, never()).batchUpdate(anyString(), anyList());
+        verify(jdbc, times(3)).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void everyRowAlreadyStoredInsertsNothing() {
+        JdbcTemplate jdbc = Mockito.mock(JdbcTemplate.class);
+        when(jdbc.update(anyString(), any(Object[].class))).thenThrow(new DuplicateKeyException("o-1"));
+        when(jdbc.queryForList(anyString(), eq(String.class), any(Object[].class))).thenReturn(List.of("o-1", "o-2"));
+        var repo = new SeckillOrderBulkRepository(jdbc);
+
+        assertEquals(List.of(), repo.insertIgnoringDuplicates(List.of(order("o-1"), order("o-2"))));
+        verify(jdbc, times(1)).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void duplicateOnAnotherKeyIsNotRetriedForever() {
+        JdbcTemplate jdbc = Mockito.mock(JdbcTemplate.class);
+        when(jdbc.update(anyString(), any(Object[].class))).thenThrow(new DuplicateKeyException("PRIMARY"));
+        when(jdbc.queryForList(anyString(), eq(String.class), any(Object[].class))).thenReturn(List.of());
+        var repo = new SeckillOrderBulkRepository(jdbc);
+
+        assertThrows(DuplicateKeyException.class, () -> repo.insertIgnoringDuplicates(List.of(order("o-1"))));
+    }
+}
@@ -0,0 +1,32 @@
+package com.flashsale.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheServiceTest {
+    @Test
+    void invalidationBumpsTheGenerationInsteadOfScanningKeys() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.increment(CacheService.LIST_GEN_KEY)).thenReturn(42L);
+        when(vops.get(CacheService.LIST_GEN_KEY)).thenReturn("45");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CacheService cache = new CacheService(redis, registry);
+
+        cache.invalidateProductListCaches();
+        assertEquals("45", cache.listGeneration());
+
+        verify(redis, never()).keys(anyString());
+        verify(redis).convertAndSend(ProductListCache.CHANNEL, "42");
+        assertEquals(1.0, registry.get("products_list_cache_invalidations_total").counter().count());
+        assertEquals(45.0, registry.get("products_list_cache_generation_total").functionCounter().count());
+    }
+}
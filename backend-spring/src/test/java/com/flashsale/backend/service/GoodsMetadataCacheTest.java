@@ -0,0 +1,54 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.repository.SeckillGoodsRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class GoodsMetadataCacheTest {
+    @Test
+    void loadsOnceUntilInvalidated() {
+        SeckillGoodsRepository repo = Mockito.mock(SeckillGoodsRepository.class);
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SeckillGoods g = new SeckillGoods();
+        g.setId(5L);
+        g.setStock(3);
+        g.setSeckillPrice(BigDecimal.ONE);
+        g.setStartTime(LocalDateTime.now().minusMinutes(1));
+        g.setEndTime(LocalDateTime.now().plusMinutes(1));
+        when(repo.findById(5L)).thenReturn(Optional.of(g));
+        GoodsMetadataCache cache = new GoodsMetadataCache(repo, redis, Mockito.mock(LoggerService.class), 100, 30);
+
+        assertTrue(cache.get(5L).orElseThrow().isActive(LocalDateTime.now()));
+        assertEquals(3, cache.get(5L).orElseThrow().seedStock());
+        verify(repo, times(1)).findById(5L);
+
+        cache.onMessage(new DefaultMessage(GoodsMetadataCache.CHANNEL.getBytes(StandardCharsets.UTF_8), "5".getBytes(StandardCharsets.UTF_8)), null);
+        cache.get(5L);
+        verify(repo, times(2)).findById(5L);
+
+        cache.invalidate(5L);
+        verify(redis).convertAndSend(GoodsMetadataCache.CHANNEL, "5");
+    }
+
+    @Test
+    void missingGoodsAreCachedToo() {
+        SeckillGoodsRepository repo = Mockito.mock(SeckillGoodsRepository.class);
+        when(repo.findById(9L)).thenReturn(Optional.empty());
+        GoodsMetadataCache cache = new GoodsMetadataCache(repo, Mockito.mock(StringRedisTemplate.class), Mockito.mock(LoggerService.class), 100, 30);
+        assertTrue(cache.get(9L).isEmpty());
+        assertTrue(cache.get(9L).isEmpty());
+        verify(repo, times(1)).findById(9L);
+    }
+}
@@ -0,0 +1,87 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InventoryRebuildServiceTest {
+    @Test
+    void rebuiltStockTakesTheLowerOfPersistedAndInitialMinusSold() {
+        assertEquals(7L, InventoryRebuildService.rebuiltStock(10, 50, 43));
+        assertEquals(10L, InventoryRebuildService.rebuiltStock(10, 50, 12));
+        assertEquals(0L, InventoryRebuildService.rebuiltStock(10, 50, 60));
+        assertEquals(10L, InventoryRebuildService.rebuiltStock(10, null, 60));
+    }
+
+    @Test
+    void goodsAreUnblockedBatchByBatch() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.keys(InventoryService.SHARDS_KEY)).thenReturn(Set.of("3"));
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.soldCounts()).thenReturn(Map.of(1L, 4L));
+        InventoryRebuildService rebuild = new InventoryRebuildService(redis, stockRepo, Mockito.mock(CacheService.class),
+                new ObjectMapper().registerModule(new JavaTimeModule()), Mockito.mock(LoggerService.class), false, 100, 2);
+        List<Long> watermarks = new ArrayList<>();
+        doAnswer(inv -> {
+            Consumer<SeckillGoods> sink = inv.getArgument(1);
+            for (long id = 1; id <= 5; id++) {
+                sink.accept(goods(id));
+                watermarks.add(rebuildWatermark(rebuild));
+            }
+            return null;
+        }).when(stockRepo).forEachGoods(eq(100), any());
+        when(redis.executePipelined(any(RedisCallback.class))).thenReturn(List.of(true, true));
+
+        ReflectionTestUtils.setField(rebuild, "watermark", 0L);
+        assertFalse(rebuild.isRebuilt(1L));
+        rebuild.run("test");
+
+        // a batch of two is written before its goods are let through
+        assertEquals(List.of(0L, 2L, 2L, 4L, 4L), watermarks);
+        assertTrue(rebuild.isRebuilt(5L));
+        verify(vops).set(eq(InventoryRebuildService.REBUILT_KEY), anyString());
+        // stock pipeline plus metadata pipeline for each of the three batches
+        verify(redis, times(6)).executePipelined(any(RedisCallback.class));
+    }
+
+    private static long rebuildWatermark(InventoryRebuildService rebuild) {
+        long id = 0;
+        while (rebuild.isRebuilt(id + 1)) id++;
+        return id;
+    }
+
+    private static SeckillGoods goods(long id) {
+        SeckillGoods g = new SeckillGoods();
+        g.setId(id);
+        g.setName("g" + id);
+        g.setStock(10);
+        g.setInitialStock(10);
+        g.setStartTime(LocalDateTime.now().minusHours(1));
+        g.setEndTime(LocalDateTime.now().plusHours(1));
+        return g;
+    }
+}
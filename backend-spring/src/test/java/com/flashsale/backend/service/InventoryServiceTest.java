@@ -0,0 +1,294 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InventoryServiceTest {
+    private static InventoryService newInventory(StringRedisTemplate redis, SimpleMeterRegistry registry) {
+        return newInventory(redis, registry, Mockito.mock(SeckillGoodsStockRepository.class));
+    }
+
+    private static InventoryService newInventory(StringRedisTemplate redis, SimpleMeterRegistry registry, SeckillGoodsStockRepository stockRepo) {
+        LoggerService log = Mockito.mock(LoggerService.class);
+        return new InventoryService(redis, log, registry, new StockLeaseService(redis, new SoldOutRegistry(redis, log, 5000), log, registry), stockRepo);
+    }
+
+    @Test
+    void shardedDecrementFallsBackToSiblingShards() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.get(InventoryService.SHARDS_KEY, "5")).thenReturn("4");
+        // user 2's home shard 2 is empty and holds the buyer; shard 3 is empty too and shard 0 sells the unit
+        when(redis.execute(eq(SeckillScripts.SHARD_SECKILL), anyList(), any(), any())).thenReturn(-7L);
+        when(redis.execute(eq(SeckillScripts.SHARD_TAKE), anyList(), any())).thenReturn(-1L);
+        when(redis.execute(eq(SeckillScripts.SHARD_TAKE), ArgumentMatchers.<List<String>>argThat(keys -> keys != null && keys.get(0).equals(InventoryService.shardKey(5L, 0))), any())).thenReturn(7L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        InventoryService.Decrement d = inventory.decrement(2L, 5L, 100L);
+        assertEquals(7L, d.remaining());
+        assertEquals(0, d.shard());
+        verify(redis).execute(SeckillScripts.SHARD_SECKILL,
+                List.of(InventoryService.shardKey(5L, 2), InventoryService.shardBuyersKey(5L, 2), InventoryService.shardLayoutKey(5L, 2)), "2", "4");
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        verify(redis, times(2)).execute(eq(SeckillScripts.SHARD_TAKE), keys.capture(), eq("4"));
+        verify(redis, never()).execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any());
+        // every call stays inside one shard's own slot
+        assertEquals(List.of(
+                List.of(InventoryService.shardKey(5L, 3), InventoryService.shardLayoutKey(5L, 3)),
+                List.of(InventoryService.shardKey(5L, 0), InventoryService.shardLayoutKey(5L, 0))), keys.getAllValues());
+        assertTrue(InventoryService.shardKey(5L, 3).contains("{5:3}"));
+        verify(redis, never()).opsForSet();
+    }
+
+    @Test
+    void soldOutShardsReleaseTheHeldBuyer() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        when(hops.get(InventoryService.SHARDS_KEY, "5")).thenReturn("2");
+        when(redis.execute(eq(SeckillScripts.SHARD_SECKILL), anyList(), any(), any())).thenReturn(-7L);
+        when(redis.execute(eq(SeckillScripts.SHARD_TAKE), anyList(), any())).thenReturn(-1L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        assertEquals(-1L, inventory.decrement(2L, 5L, 100L).remaining());
+        // the buyer may try again once units come back
+        verify(sops).remove(InventoryService.shardBuyersKey(5L, 0), "2");
+    }
+
+    @Test
+    void splitFillsEachShardInItsOwnSlot() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        Cursor<String> buyers = cursor("2", "3");
+        when(sops.scan(eq(InventoryService.buyersKey(4L)), any())).thenReturn(buyers);
+        when(redis.execute(eq(SeckillScripts.SHARD_SPLIT), anyList(), any(), any())).thenReturn(10L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        assertEquals(10L, inventory.enableSharding(4L, 3, 0));
+        verify(redis).execute(SeckillScripts.SHARD_SPLIT, List.of(InventoryService.stockKey(4L), InventoryService.layoutKey(4L)), "0", "3");
+        // buyers from before the split move to their home shard
+        verify(sops).add(InventoryService.shardBuyersKey(4L, 2), "2");
+        verify(sops).add(InventoryService.shardBuyersKey(4L, 0), "3");
+        verify(redis).execute(SeckillScripts.SHARD_FILL, List.of(InventoryService.shardKey(4L, 0), InventoryService.shardLayoutKey(4L, 0)), "4", "3", "0");
+        verify(redis).execute(SeckillScripts.SHARD_FILL, List.of(InventoryService.shardKey(4L, 1), InventoryService.shardLayoutKey(4L, 1)), "3", "3", "0");
+        verify(redis).execute(SeckillScripts.SHARD_FILL, List.of(InventoryService.shardKey(4L, 2), InventoryService.shardLayoutKey(4L, 2)), "3", "3", "0");
+        verify(hops).put(InventoryService.SHARDS_KEY, "4", "3");
+    }
+
+    @Test
+    void mergeDrainsShardsBeforeTheSingleKeyIsBack() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        Cursor<String> shard0 = cursor();
+        Cursor<String> shard1 = cursor("7");
+        when(sops.scan(anyString(), any())).thenReturn(shard0, shard1);
+        when(hops.get(InventoryService.SHARDS_KEY, "4")).thenReturn("2");
+        when(redis.execute(eq(SeckillScripts.SHARD_FREEZE), anyList(), any())).thenReturn(2L);
+        when(redis.execute(eq(SeckillScripts.SHARD_DRAIN), anyList(), any())).thenReturn(3L, 4L);
+        when(redis.execute(eq(SeckillScripts.SHARD_MERGE), anyList(), any())).thenReturn(7L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        assertEquals(7L, inventory.disableSharding(4L));
+        var order = inOrder(redis, sops, hops);
+        order.verify(redis).execute(SeckillScripts.SHARD_FREEZE, List.of(InventoryService.layoutKey(4L)), "2");
+        order.verify(redis).execute(SeckillScripts.SHARD_DRAIN, List.of(InventoryService.shardKey(4L, 0), InventoryService.shardLayoutKey(4L, 0)), "2");
+        order.verify(redis).execute(SeckillScripts.SHARD_DRAIN, List.of(InventoryService.shardKey(4L, 1), InventoryService.shardLayoutKey(4L, 1)), "2");
+        order.verify(sops).add(InventoryService.buyersKey(4L), "7");
+        order.verify(redis).execute(SeckillScripts.SHARD_MERGE, List.of(InventoryService.stockKey(4L), InventoryService.layoutKey(4L)), "7");
+        order.verify(hops).delete(InventoryService.SHARDS_KEY, "4");
+    }
+
+    @Test
+    void shardTotalsReachSharedKeysOncePerInterval() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.get(InventoryService.SHARDS_KEY, "5")).thenReturn("2");
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList("3", "4"));
+        when(redis.execute(eq(SeckillScripts.SHARD_SECKILL), anyList(), any(), any())).thenReturn(3L, 2L, 1L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        for (long user = 1; user <= 3; user++) inventory.decrement(user, 5L, 100L);
+        verify(redis, never()).executePipelined(any(RedisCallback.class));
+
+        inventory.publishShardTotals();
+        ArgumentCaptor<RedisCallback<Object>> cb = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis, times(1)).executePipelined(cb.capture());
+        StringRedisConnection conn = Mockito.mock(StringRedisConnection.class);
+        cb.getValue().doInRedis(conn);
+        verify(conn).zAdd(CacheService.ACTIVE_BY_STOCK_KEY, 7.0, "5", RedisZSetCommands.ZAddArgs.ifExists());
+        verify(conn).sAdd(InventoryService.DIRTY_KEY, "5");
+        verify(conn, times(1)).incr(CacheService.LIST_GEN_KEY);
+
+        inventory.publishShardTotals();
+        verify(redis, times(1)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void shardedStockIsSummedAndExposedPerShard() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.get(InventoryService.SHARDS_KEY, "8")).thenReturn("3");
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList("4", null, "6"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        InventoryService inventory = newInventory(redis, registry);
+
+        assertEquals(10L, inventory.stockOf(8L));
+        assertEquals(6.0, registry.get("seckill_stock_shard_remaining").tag("goods_id", "8").tag("shard", "2").gauge().value());
+        verify(vops, never()).get(anyString());
+    }
+
+    @Test
+    void batchStockReadsLayoutsAndKeysOncePerBatch() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.multiGet(InventoryService.SHARDS_KEY, List.of("1", "8"))).thenReturn(Arrays.asList(null, "2"));
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(List.of(InventoryService.stockKey(1L), InventoryService.shardKey(8L, 0), InventoryService.shardKey(8L, 1))))
+                .thenReturn(Arrays.asList("5", "4", null));
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        assertEquals(java.util.Map.of(1L, 5L, 8L, 4L), inventory.stockOf(List.of(1L, 8L)));
+        // the counts just read are cached: a second batch goes straight to the MGET
+        inventory.stockOf(List.of(1L, 8L));
+        verify(hops, times(1)).multiGet(anyString(), anyCollection());
+        verify(hops, never()).get(anyString(), any());
+        verify(vops, times(2)).multiGet(anyCollection());
+    }
+
+    @Test
+    void unshardedGoodsUseSingleScript() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        when(redis.execute(eq(SeckillScripts.SECKILL), eq(List.of(
+                InventoryService.stockKey(1L), InventoryService.buyersKey(1L), CacheService.ACTIVE_BY_STOCK_KEY,
+                CacheService.LIST_GEN_KEY, InventoryService.layoutKey(1L), InventoryService.DIRTY_KEY)), any(), any(), eq("-1"))).thenReturn(3L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+        InventoryService.Decrement d = inventory.decrement(9L, 1L, 10L);
+        assertEquals(3L, d.remaining());
+        assertEquals(-1, d.shard());
+    }
+
+    @Test
+    void missingStockKeyIsSeededFromPersistedStock() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.setIfAbsent(InventoryService.stockKey(3L), "4")).thenReturn(true);
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(-6L, 3L);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.findStock(3L)).thenReturn(4L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry(), stockRepo);
+
+        // the stale seed from the goods snapshot is never written to Redis
+        assertEquals(3L, inventory.decrement(9L, 3L, 100L).remaining());
+        verify(vops).setIfAbsent(InventoryService.stockKey(3L), "4");
+        verify(vops, never()).setIfAbsent(InventoryService.stockKey(3L), "100");
+
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(-6L);
+        when(stockRepo.findStock(11L)).thenReturn(null);
+        assertEquals(-1L, inventory.decrement(9L, 11L, 100L).remaining());
+    }
+
+    @Test
+    void evictedShardIsReseededFromPersistedStock() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(hops.get(InventoryService.SHARDS_KEY, "6")).thenReturn("2");
+        when(vops.get(InventoryService.layoutKey(6L))).thenReturn("2");
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList("5", null));
+        when(redis.execute(eq(SeckillScripts.SHARD_SECKILL), anyList(), any(), any())).thenReturn(-6L, 4L);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.findStock(6L)).thenReturn(9L);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry(), stockRepo);
+
+        // a missing shard is not an empty one: no fall-through to the sibling before the re-seed
+        assertEquals(4L, inventory.decrement(2L, 6L, 100L).remaining());
+        verify(redis).execute(SeckillScripts.SHARD_FILL, List.of(InventoryService.shardKey(6L, 1), InventoryService.shardLayoutKey(6L, 1)), "4", "2", "1");
+        // the shard still present keeps its stock and only gets its layout back
+        verify(redis).execute(SeckillScripts.SHARD_FILL, List.of(InventoryService.shardKey(6L, 0), InventoryService.shardLayoutKey(6L, 0)), "0", "2", "1");
+        verify(redis, times(2)).execute(eq(SeckillScripts.SHARD_SECKILL), anyList(), any(), any());
+        verify(redis, never()).execute(eq(SeckillScripts.SHARD_TAKE), anyList(), any());
+    }
+
+    @Test
+    void shardsAreNotReseededWhileAMergeRuns() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(hops.get(InventoryService.SHARDS_KEY, "6")).thenReturn("2");
+        when(vops.get(InventoryService.layoutKey(6L))).thenReturn("0");
+        when(redis.execute(eq(SeckillScripts.SHARD_SECKILL), anyList(), any(), any())).thenReturn(-6L);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry(), stockRepo);
+
+        assertEquals(-1L, inventory.decrement(2L, 6L, 100L).remaining());
+        verify(stockRepo, never()).findStock(anyLong());
+        verify(redis, never()).execute(eq(SeckillScripts.SHARD_FILL), anyList(), any(), any(), any());
+    }
+
+    @Test
+    void shardTotalIsWithheldWhileAShardIsMissing() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.get(InventoryService.SHARDS_KEY, "6")).thenReturn("2");
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyCollection())).thenReturn(Arrays.asList("3", "5"), Arrays.asList("3", null));
+        InventoryService inventory = newInventory(redis, new SimpleMeterRegistry());
+
+        assertEquals(8L, inventory.shardTotal(6L));
+        assertNull(inventory.shardTotal(6L));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cursor<String> cursor(String... members) {
+        Cursor<String> c = Mockito.mock(Cursor.class);
+        Iterator<String> it = List.of(members).iterator();
+        when(c.hasNext()).thenAnswer(inv -> it.hasNext());
+        when(c.next()).thenAnswer(inv -> it.next());
+        return c;
+    }
+}
@@ -0,0 +1,65 @@
+package com.flashsale.backend.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MetricsServiceTest {
+    @Test
+    void salesAreSummedAndFlushedInOnePipeline() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        MetricsService metrics = new MetricsService(redis, 1000);
+        metrics.recordSale(1L, new BigDecimal("0.1"));
+        metrics.recordSale(1L, new BigDecimal("0.2"));
+        metrics.recordSale(2L, new BigDecimal("19.99"));
+        verify(redis, never()).executePipelined(any(RedisCallback.class));
+
+        metrics.flush();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<RedisCallback<Object>> cb = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis, times(1)).executePipelined(cb.capture());
+        StringRedisConnection conn = Mockito.mock(StringRedisConnection.class);
+        cb.getValue().doInRedis(conn);
+        verify(conn).incrBy(MetricsService.TOTAL_SOLD_KEY, 3L);
+        verify(conn).incrBy(MetricsService.TURNOVER_CENTS_KEY, 2029L);
+        verify(conn).incrBy(MetricsService.goodsSoldKey(1L), 2L);
+        verify(conn).incrBy(MetricsService.goodsSoldKey(2L), 1L);
+
+        metrics.flush();
+        verify(redis, times(1)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void failedFlushKeepsTheAmounts() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        when(redis.executePipelined(any(RedisCallback.class))).thenThrow(new RuntimeException("down")).thenReturn(java.util.List.of());
+        MetricsService metrics = new MetricsService(redis, 2);
+        metrics.recordSale(3L, new BigDecimal("1.0"));
+        metrics.recordSale(3L, new BigDecimal("1.0"));
+        metrics.flush();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<RedisCallback<Object>> cb = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis, times(2)).executePipelined(cb.capture());
+        StringRedisConnection conn = Mockito.mock(StringRedisConnection.class);
+        cb.getAllValues().get(1).doInRedis(conn);
+        verify(conn).incrBy(MetricsService.TURNOVER_CENTS_KEY, 200L);
+    }
+
+    @Test
+    void centsAreExactForPricesADoubleCannotHold() {
+        assertEquals(29L, MetricsService.toCents(new BigDecimal("0.29")));
+        assertEquals(1999L, MetricsService.toCents(new BigDecimal("19.99")));
+        assertEquals(100000000000001L, MetricsService.toCents(new BigDecimal("1000000000000.01")));
+        assertEquals(1L, MetricsService.toCents(new BigDecimal("0.005")));
+        assertEquals(0L, MetricsService.toCents(null));
+    }
+}
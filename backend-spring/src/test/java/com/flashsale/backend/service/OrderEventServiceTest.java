@@ -1,7 +1,10 @@
 package com.flashsale.backend.service;
 
 import com.flashsale.backend.logging.LoggerService;
-import com.flashsale.backend.model.SeckillGoods;
+import com.flashsale.backend.model.GoodsSnapshot;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -10,32 +13,40 @@ import org.springframework.kafka.core.KafkaTemplate;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 public class OrderEventServiceTest {
+    private static OrderEventService newService(StringRedisTemplate redis, KafkaTemplate<String, String> kafka, LoggerService log, SoldOutRegistry soldOut) {
+        return newService(redis, kafka, log, soldOut, false);
+    }
+
+    private static OrderEventService newService(StringRedisTemplate redis, KafkaTemplate<String, String> kafka, LoggerService log, SoldOutRegistry soldOut, boolean async) {
+        var registry = new SimpleMeterRegistry();
+        var inventory = new InventoryService(redis, log, registry, new StockLeaseService(redis, soldOut, log, registry), Mockito.mock(SeckillGoodsStockRepository.class));
+        return new OrderEventService(redis, kafka, log, "order-events", new CacheService(redis, registry), soldOut, inventory,
+                new SeckillResultService(redis, log, 3600), async, 1000, "order", registry);
+    }
+
     @Test
     void outOfStock_returnsFail() {
         StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
         KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
         LoggerService log = Mockito.mock(LoggerService.class);
-        CacheService cacheService = new CacheService(redis);
-        OrderEventService svc = new OrderEventService(redis, kafka, log, "order-events", cacheService);
-        SeckillGoods goods = new SeckillGoods();
-        goods.setId(1L);
-        goods.setStock(0);
-        goods.setSeckillPrice(BigDecimal.ONE);
-        goods.setStartTime(LocalDateTime.now().minusMinutes(1));
-        goods.setEndTime(LocalDateTime.now().plusMinutes(1));
+        SoldOutRegistry soldOut = new SoldOutRegistry(redis, log, 5000);
+        OrderEventService svc = newService(redis, kafka, log, soldOut);
+        GoodsSnapshot goods = new GoodsSnapshot(1L, "g1", BigDecimal.ONE, LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1), 0);
         var valueOps = Mockito.mock(org.springframework.data.redis.core.ValueOperations.class);
         when(redis.opsForValue()).thenReturn(valueOps);
         when(valueOps.get(anyString())).thenReturn("0");
-        when(redis.execute(any(), anyList())).thenReturn(-1L);
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(-1L);
         Map<String, Object> res = svc.processSeckill(10L, goods, "req1");
         assertEquals(Boolean.FALSE, res.get("success"));
-        verify(kafka, times(0)).send(org.mockito.ArgumentMatchers.<org.apache.kafka.clients.producer.ProducerRecord<String, String>>any());
+        assertTrue(soldOut.isSoldOut(1L));
+        verify(kafka, times(0)).send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any());
     }
 
     @Test
@@ -43,21 +54,95 @@ public class OrderEventServiceTest {
         StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
         KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
         LoggerService log = Mockito.mock(LoggerService.class);
-        CacheService cacheService = new CacheService(redis);
-        OrderEventService svc = new OrderEventService(redis, kafka, log, "order-events", cacheService);
-        SeckillGoods goods = new SeckillGoods();
-        goods.setId(2L);
-        goods.setStock(10);
-        goods.setSeckillPrice(BigDecimal.TEN);
-        goods.setStartTime(LocalDateTime.now().minusMinutes(1));
-        goods.setEndTime(LocalDateTime.now().plusMinutes(1));
+        OrderEventService svc = newService(redis, kafka, log, new SoldOutRegistry(redis, log, 5000));
+        GoodsSnapshot goods = new GoodsSnapshot(2L, "g2", BigDecimal.TEN, LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1), 10);
         var valueOps2 = Mockito.mock(org.springframework.data.redis.core.ValueOperations.class);
         when(redis.opsForValue()).thenReturn(valueOps2);
         when(valueOps2.get(anyString())).thenReturn("10");
-        when(redis.execute(any(), anyList())).thenReturn(9L);
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(9L);
+        when(kafka.send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any())).thenReturn(CompletableFuture.completedFuture(null));
         Map<String, Object> res = svc.processSeckill(20L, goods, "req2");
         assertEquals(Boolean.TRUE, res.get("success"));
         assertNotNull(res.get("order_id"));
-        verify(kafka, times(1)).send(org.mockito.ArgumentMatchers.<org.apache.kafka.clients.producer.ProducerRecord<String, String>>any());
+        verify(redis, never()).keys(anyString());
+        verify(kafka, times(1)).send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any());
+    }
+
+    @Test
+    void repeatPurchase_isRejectedWithoutPublishing() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
+        LoggerService log = Mockito.mock(LoggerService.class);
+        OrderEventService svc = newService(redis, kafka, log, new SoldOutRegistry(redis, log, 5000));
+        GoodsSnapshot goods = new GoodsSnapshot(3L, "g3", BigDecimal.TEN, LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1), 10);
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(-3L);
+        Map<String, Object> res = svc.processSeckill(30L, goods, "req3");
+        assertEquals(Boolean.FALSE, res.get("success"));
+        assertEquals("Already purchased", res.get("message"));
+        verify(kafka, times(0)).send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any());
+    }
+
+    @Test
+    void asyncSendFailure_rollsBackAndMarksFailed() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
+        LoggerService log = Mockito.mock(LoggerService.class);
+        OrderEventService svc = newService(redis, kafka, log, new SoldOutRegistry(redis, log, 5000), true);
+        GoodsSnapshot goods = new GoodsSnapshot(4L, "g4", BigDecimal.TEN, LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1), 10);
+        var valueOps = Mockito.mock(org.springframework.data.redis.core.ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(9L);
+        CompletableFuture<org.springframework.kafka.support.SendResult<String, String>> pending = new CompletableFuture<>();
+        when(kafka.send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any())).thenReturn(pending);
+
+        Map<String, Object> res = svc.processSeckill(40L, goods, "req4");
+        assertEquals(Boolean.TRUE, res.get("success"));
+        assertEquals(SeckillResultService.QUEUED, res.get("status"));
+        String key = SeckillResultService.resultKey((String) res.get("order_id"));
+        verify(valueOps).set(eq(key), eq("QUEUED:40"), any(java.time.Duration.class));
+        verify(redis, never()).execute(eq(SeckillScripts.ROLLBACK), anyList(), any(), any());
+
+        pending.completeExceptionally(new RuntimeException("broker down"));
+        verify(redis, timeout(1000)).execute(eq(SeckillScripts.ROLLBACK), anyList(), any(), any());
+        verify(valueOps, timeout(1000)).set(eq(key), eq("FAILED:40"), any(java.time.Duration.class));
+    }
+
+    @Test
+    void syncSendTimeout_returnsQueuedOrderAndRollsBackOnlyOnFailure() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        KafkaTemplate<String, String> kafka = Mockito.mock(KafkaTemplate.class);
+        LoggerService log = Mockito.mock(LoggerService.class);
+        OrderEventService svc = newService(redis, kafka, log, new SoldOutRegistry(redis, log, 5000));
+        GoodsSnapshot goods = new GoodsSnapshot(5L, "g5", BigDecimal.TEN, LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1), 10);
+        var valueOps = Mockito.mock(org.springframework.data.redis.core.ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        when(redis.execute(eq(SeckillScripts.SECKILL), anyList(), any(), any(), any())).thenReturn(9L);
+        CompletableFuture<org.springframework.kafka.support.SendResult<String, String>> pending = new CompletableFuture<>();
+        when(kafka.send(org.mockito.ArgumentMatchers.<ProducerRecord<String, String>>any())).thenReturn(pending);
+
+        Map<String, Object> res = svc.processSeckill(50L, goods, "req5");
+        assertEquals(Boolean.TRUE, res.get("success"));
+        assertEquals(SeckillResultService.QUEUED, res.get("status"));
+        String key = SeckillResultService.resultKey((String) res.get("order_id"));
+        verify(valueOps).set(eq(key), eq("QUEUED:50"), any(java.time.Duration.class));
+        verify(redis, never()).execute(eq(SeckillScripts.ROLLBACK), anyList(), any(), any());
+
+        pending.completeExceptionally(new RuntimeException("broker down"));
+        verify(redis, timeout(1000)).execute(eq(SeckillScripts.ROLLBACK), anyList(), any(), any());
+        verify(valueOps, timeout(1000)).set(eq(key), eq("FAILED:50"), any(java.time.Duration.class));
+    }
+
+    @Test
+    void orderCreatedPayload_isValidJson() throws Exception {
+        String json = OrderEventService.encodeOrderCreated("r\"1\\x\n", "o-1", 7L, 8L, new BigDecimal("19.90"), 123L);
+        var node = new com.fasterxml.jackson.databind.ObjectMapper().readTree(json);
+        assertEquals("order_created", node.path("event_type").asText());
+        assertEquals("r\"1\\x\n", node.path("request_id").asText());
+        assertEquals("o-1", node.path("order_id").asText());
+        assertEquals(7L, node.path("user_id").asLong());
+        assertEquals(8L, node.path("goods_id").asLong());
+        assertTrue(node.path("price").isNumber());
+        assertEquals(19.90, node.path("price").asDouble(), 1e-9);
+        assertEquals(123L, node.path("created_at").asLong());
     }
 }
@@ -0,0 +1,100 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.flashsale.backend.repository.SeckillGoodsRepository;
+import com.flashsale.backend.repository.SeckillGoodsStockRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductDetailCacheTest {
+    @Test
+    void bodyIsCachedWithoutStockAndJoinedWithLiveStock() throws Exception {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyList())).thenReturn(Arrays.asList("{\"id\":7,\"name\":\"g7\",\"stock\":9}", null, "3"));
+        when(vops.get(InventoryService.stockKey(7L))).thenReturn("2");
+        InventoryService inventory = new InventoryService(redis, Mockito.mock(LoggerService.class), new SimpleMeterRegistry(),
+                new StockLeaseService(redis, new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 5000), Mockito.mock(LoggerService.class), new SimpleMeterRegistry()), null);
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        ObjectMapper mapper = new ObjectMapper();
+        ProductDetailCache cache = new ProductDetailCache(redis, goodsRepo, inventory, mapper, Mockito.mock(LoggerService.class),
+                new SimpleMeterRegistry(), 100, 300, 2000, 30000);
+
+        ProductDetailCache.Detail first = cache.get(7L);
+        assertEquals(3L, first.stock());
+        assertFalse(new String(first.body(), StandardCharsets.UTF_8).contains("stock"));
+        JsonNode joined = mapper.readTree(ProductDetailCache.withStock(first.body(), first.stock()));
+        assertEquals(3L, joined.get("stock").asLong());
+        assertEquals("g7", joined.get("name").asText());
+
+        // the second view only reads the stock key
+        assertEquals(2L, cache.get(7L).stock());
+        verify(vops, times(1)).multiGet(anyList());
+        verify(goodsRepo, never()).findById(anyLong());
+    }
+
+    @Test
+    void missingStockKeyIsSeededInsteadOfServingTheBodyStock() throws Exception {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        // the cached body still says 9, but MySQL has 4 left since the key was evicted
+        when(vops.multiGet(anyList())).thenReturn(Arrays.asList("{\"id\":7,\"stock\":9}", null, null));
+        when(vops.get(InventoryService.stockKey(7L))).thenReturn(null, "4");
+        when(vops.setIfAbsent(InventoryService.stockKey(7L), "4")).thenReturn(true);
+        SeckillGoodsStockRepository stockRepo = Mockito.mock(SeckillGoodsStockRepository.class);
+        when(stockRepo.findStock(7L)).thenReturn(4L);
+        LoggerService log = Mockito.mock(LoggerService.class);
+        InventoryService inventory = new InventoryService(redis, log, new SimpleMeterRegistry(),
+                new StockLeaseService(redis, new SoldOutRegistry(redis, log, 5000), log, new SimpleMeterRegistry()), stockRepo);
+        ProductDetailCache cache = new ProductDetailCache(redis, Mockito.mock(SeckillGoodsRepository.class), inventory, new ObjectMapper(), log,
+                new SimpleMeterRegistry(), 100, 300, 2000, 30000);
+
+        assertEquals(4L, cache.get(7L).stock());
+        verify(vops).setIfAbsent(InventoryService.stockKey(7L), "4");
+    }
+
+    @Test
+    void unknownIdsAreCachedAsMissing() throws Exception {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.multiGet(anyList())).thenReturn(Arrays.asList(null, null, null));
+        SeckillGoodsRepository goodsRepo = Mockito.mock(SeckillGoodsRepository.class);
+        when(goodsRepo.findById(404L)).thenReturn(Optional.empty());
+        ProductDetailCache cache = new ProductDetailCache(redis, goodsRepo, Mockito.mock(InventoryService.class), new ObjectMapper(),
+                Mockito.mock(LoggerService.class), new SimpleMeterRegistry(), 100, 300, 2000, 30000);
+
+        assertNull(cache.get(404L));
+        assertNull(cache.get(404L));
+        verify(goodsRepo, times(1)).findById(404L);
+        verify(vops).set(ProductDetailCache.missingKey(404L), "1", Duration.ofMillis(30000));
+
+        // another node that sees the marker skips MySQL entirely
+        ProductDetailCache other = new ProductDetailCache(redis, goodsRepo, Mockito.mock(InventoryService.class), new ObjectMapper(),
+                Mockito.mock(LoggerService.class), new SimpleMeterRegistry(), 100, 300, 2000, 30000);
+        when(vops.multiGet(anyList())).thenReturn(Arrays.asList(null, "1", null));
+        assertNull(other.get(404L));
+        verify(goodsRepo, times(1)).findById(404L);
+    }
+
+    @Test
+    void stockIsSplicedIntoAnEmptyBody() {
+        assertEquals("{\"stock\":0}", new String(ProductDetailCache.withStock("{}".getBytes(StandardCharsets.UTF_8), 0), StandardCharsets.UTF_8));
+    }
+}
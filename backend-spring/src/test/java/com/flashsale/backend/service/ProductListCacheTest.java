@@ -0,0 +1,173 @@
+package com.flashsale.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ProductListCacheTest {
+    @Test
+    void l2HitIsServedFromL1UntilInvalidated() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.get(CacheService.LIST_GEN_KEY)).thenReturn("7");
+        RedisStringCommands strings = rawStrings(redis);
+        when(strings.get(bytes("products:7:1:10:active"))).thenReturn(bytes("{\"total\":1}"));
+        when(vops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProductListCache cache = new ProductListCache(redis, new CacheService(redis, registry), registry, 1 << 20, 60000, false, 0, 2000, 500, 2000);
+
+        assertEquals("l2", cache.getOrLoad("1:10:active", true, () -> fail("loader")).source());
+        ProductListCache.Result second = cache.getOrLoad("1:10:active", true, () -> fail("loader"));
+        assertEquals("l1", second.source());
+        assertEquals("{\"total\":1}", new String(second.body(), StandardCharsets.UTF_8));
+        // the L1 hit made no Redis call at all
+        verify(strings, times(1)).get(bytes("products:7:1:10:active"));
+        verify(vops, times(1)).get(CacheService.LIST_GEN_KEY);
+
+        cache.onMessage(new DefaultMessage(ProductListCache.CHANNEL.getBytes(StandardCharsets.UTF_8), "8".getBytes(StandardCharsets.UTF_8)), null);
+        when(vops.get(CacheService.LIST_GEN_KEY)).thenReturn("8");
+        ProductListCache.Result miss = cache.getOrLoad("1:10:active", true, () -> "{}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(ProductListCache.LOADED, miss.source());
+
+        verify(strings).set(eq(bytes("products:8:1:10:active")), eq(bytes("{}")), eq(Expiration.from(ProductListCache.ACTIVE_TTL)), any());
+        verify(vops).set("products:etag:8:1:10:active", ProductListCache.etagOf(bytes("{}")), ProductListCache.ACTIVE_TTL);
+        verify(vops).setIfAbsent(eq("products:lease:8:1:10:active"), anyString(), any(Duration.class));
+        assertEquals(1.0, registry.get("products_list_cache_requests_total").tag("result", "l1_hit").counter().count());
+        assertEquals(1.0, registry.get("products_list_cache_requests_total").tag("result", "l2_hit").counter().count());
+        assertEquals(1.0, registry.get("products_list_cache_requests_total").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.get(CacheService.LIST_GEN_KEY)).thenReturn("1");
+        RedisStringCommands strings = rawStrings(redis);
+        when(vops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProductListCache cache = new ProductListCache(redis, new CacheService(redis, registry), registry, 1 << 20, 60000, false, 0, 2000, 500, 2000);
+
+        int callers = 8;
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<ProductListCache.Result>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> cache.getOrLoad("1:10:all", false, () -> {
+                    loads.incrementAndGet();
+                    try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                    return "{\"total\":3}".getBytes(StandardCharsets.UTF_8);
+                })));
+            }
+            // let every caller reach the in-flight load before it completes
+            while (registry.get("products_list_cache_requests_total").tag("result", "coalesced").counter().count() < callers - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<ProductListCache.Result> r : results) {
+                assertEquals("{\"total\":3}", new String(r.get(5, TimeUnit.SECONDS).body(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        verify(strings, times(1)).set(eq(bytes("products:1:1:10:all")), any(byte[].class), eq(Expiration.from(ProductListCache.TTL)), any());
+    }
+
+    @Test
+    void callerStopsWaitingOnAStuckLoad() throws Exception {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.get(CacheService.LIST_GEN_KEY)).thenReturn("1");
+        rawStrings(redis);
+        when(vops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProductListCache cache = new ProductListCache(redis, new CacheService(redis, registry), registry, 1 << 20, 60000, false, 0, 2000, 500, 50);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<ProductListCache.Result> stuck = pool.submit(() -> cache.getOrLoad("1:10:all", false, () -> {
+                started.countDown();
+                try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                return "{\"total\":1}".getBytes(StandardCharsets.UTF_8);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            ProductListCache.Result own = cache.getOrLoad("1:10:all", false, () -> "{\"total\":2}".getBytes(StandardCharsets.UTF_8));
+            assertEquals(ProductListCache.LOADED, own.source());
+            assertEquals("{\"total\":2}", new String(own.body(), StandardCharsets.UTF_8));
+            assertEquals(1.0, registry.get("products_list_cache_requests_total").tag("result", "share_timeout").counter().count());
+
+            release.countDown();
+            assertEquals(ProductListCache.LOADED, stuck.get(5, TimeUnit.SECONDS).source());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void storedEtagAnswersAConditionalRequestWithoutTheBody() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> vops = Mockito.mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(vops);
+        when(vops.get(CacheService.LIST_GEN_KEY)).thenReturn("7");
+        RedisStringCommands strings = rawStrings(redis);
+        String etag = ProductListCache.etagOf(bytes("{\"total\":1}"));
+        // another node built the page; this node's L1 is empty
+        when(vops.get("products:etag:7:1:10:all")).thenReturn(etag);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProductListCache cache = new ProductListCache(redis, new CacheService(redis, registry), registry, 1 << 20, 60000, false, 0, 2000, 500, 2000);
+
+        assertEquals(etag, cache.matchingEtag("1:10:all", etag::equals));
+        assertNull(cache.matchingEtag("1:10:all", "\"old\""::equals));
+        verify(strings, never()).get(any(byte[].class));
+        assertEquals(1.0, registry.get("products_list_cache_requests_total").tag("result", "etag_hit").counter().count());
+
+        // once the page is in L1 its ETag is known without Redis
+        cache.getOrLoad("1:10:active", true, () -> bytes("{}"));
+        clearInvocations(vops);
+        assertEquals(ProductListCache.etagOf(bytes("{}")), cache.matchingEtag("1:10:active", t -> true));
+        verifyNoInteractions(vops);
+    }
+
+    private static RedisStringCommands rawStrings(StringRedisTemplate redis) {
+        RedisConnection con = Mockito.mock(RedisConnection.class);
+        RedisStringCommands strings = Mockito.mock(RedisStringCommands.class);
+        when(con.stringCommands()).thenReturn(strings);
+        when(redis.execute(any(RedisCallback.class))).thenAnswer(inv -> ((RedisCallback<?>) inv.getArgument(0)).doInRedis(con));
+        return strings;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SoldOutRegistryTest {
+    @Test
+    void markAndResetBroadcast() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SoldOutRegistry registry = new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 60_000);
+        assertFalse(registry.isSoldOut(7L));
+        registry.markSoldOut(7L);
+        registry.markSoldOut(7L);
+        assertTrue(registry.isSoldOut(7L));
+        verify(redis, times(1)).convertAndSend(eq(SoldOutRegistry.CHANNEL), anyString());
+        registry.reset(7L);
+        assertFalse(registry.isSoldOut(7L));
+        verify(redis, times(2)).convertAndSend(eq(SoldOutRegistry.CHANNEL), anyString());
+    }
+
+    @Test
+    void remoteMessagesRespectEpochOrder() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SoldOutRegistry registry = new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 60_000);
+        long now = System.currentTimeMillis();
+        registry.onMessage(message("S:9:" + now), null);
+        assertTrue(registry.isSoldOut(9L));
+        registry.onMessage(message("R:9:" + (now - 1000)), null);
+        assertTrue(registry.isSoldOut(9L));
+        registry.onMessage(message("R:9:" + (now + 1)), null);
+        assertFalse(registry.isSoldOut(9L));
+        verify(redis, never()).convertAndSend(anyString(), anyString());
+    }
+
+    @Test
+    void expiredMarkLetsOneRequestRecheck() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SoldOutRegistry registry = new SoldOutRegistry(redis, Mockito.mock(LoggerService.class), 1_000);
+        registry.onMessage(message("S:3:" + (System.currentTimeMillis() - 5_000)), null);
+        assertFalse(registry.isSoldOut(3L));
+        assertTrue(registry.isSoldOut(3L));
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(SoldOutRegistry.CHANNEL.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,101 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StockLeaseServiceTest {
+    private static StockLeaseService newLeases(StringRedisTemplate redis) {
+        LoggerService log = Mockito.mock(LoggerService.class);
+        StockLeaseService leases = new StockLeaseService(redis, new SoldOutRegistry(redis, log, 5000), log, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(leases, "enabled", true);
+        ReflectionTestUtils.setField(leases, "minStock", 1000L);
+        ReflectionTestUtils.setField(leases, "minSize", 10L);
+        ReflectionTestUtils.setField(leases, "maxSize", 200L);
+        ReflectionTestUtils.setField(leases, "targetSeconds", 2.0);
+        ReflectionTestUtils.setField(leases, "idleReturnMs", 0L);
+        ReflectionTestUtils.setField(leases, "ttlMs", 10000L);
+        return leases;
+    }
+
+    @Test
+    void decrementsAreServedFromOneLease() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        when(sops.add(anyString(), any(String[].class))).thenReturn(1L);
+        when(redis.execute(eq(SeckillScripts.LEASE), anyList(), any(), any(), any(), any(), any())).thenReturn(10L, 0L);
+        StockLeaseService leases = newLeases(redis);
+
+        assertTrue(leases.applies(4L, 5000L));
+        assertFalse(leases.applies(5L, 10L));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(9L - i, leases.decrement(100L + i, 4L).remaining());
+        }
+        assertEquals(-1L, leases.decrement(200L, 4L).remaining());
+        verify(redis, times(2)).execute(eq(SeckillScripts.LEASE), anyList(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void repeatBuyerGetsTheUnitBackAndIdleLeaseIsReturned() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        when(sops.add(anyString(), any(String[].class))).thenReturn(1L, 0L);
+        when(redis.execute(eq(SeckillScripts.LEASE), anyList(), any(), any(), any(), any(), any())).thenReturn(10L);
+        when(redis.execute(eq(SeckillScripts.LEASE_RETURN), anyList(), any(), any(), any(), any())).thenReturn(9L);
+        StockLeaseService leases = newLeases(redis);
+
+        assertEquals(9L, leases.decrement(1L, 4L).remaining());
+        assertEquals(-3L, leases.decrement(1L, 4L).remaining());
+        leases.returnIdleLeases();
+        verify(redis).execute(eq(SeckillScripts.LEASE_RETURN), anyList(), eq("4"), eq("9"), anyString(), eq("1"));
+    }
+
+    @Test
+    void emptyStockKeyIsNotSoldOutWhileOtherNodesHoldUnits() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        when(redis.execute(eq(SeckillScripts.LEASE), anyList(), any(), any(), any(), any(), any())).thenReturn(StockLeaseService.HELD_ELSEWHERE, 0L);
+        StockLeaseService leases = newLeases(redis);
+
+        assertEquals(StockLeaseService.HELD_ELSEWHERE, leases.decrement(1L, 4L).remaining());
+        assertEquals(-1L, leases.decrement(1L, 4L).remaining());
+    }
+
+    @Test
+    void heartbeatReportsUnsoldUnitsAndReclaimsSilentNodes() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        SetOperations<String, String> sops = Mockito.mock(SetOperations.class);
+        when(redis.opsForSet()).thenReturn(sops);
+        when(sops.add(anyString(), any(String[].class))).thenReturn(1L);
+        HashOperations<String, Object, Object> hops = Mockito.mock(HashOperations.class);
+        doReturn(hops).when(redis).opsForHash();
+        when(hops.keys(StockLeaseService.LEASES_KEY)).thenReturn(Set.of("4", "6"));
+        when(redis.execute(eq(SeckillScripts.LEASE), anyList(), any(), any(), any(), any(), any())).thenReturn(10L);
+        when(redis.execute(eq(SeckillScripts.LEASE_REPORT), anyList(), any(), any(), any(), any())).thenReturn(7L, -1L);
+        when(redis.execute(eq(SeckillScripts.LEASE_RECLAIM), anyList(), eq("6"), any())).thenReturn(12L);
+        StockLeaseService leases = newLeases(redis);
+
+        for (int i = 0; i < 3; i++) leases.decrement(1L + i, 4L);
+        leases.heartbeat();
+        verify(redis).execute(eq(SeckillScripts.LEASE_REPORT), anyList(), eq("4"), anyString(), eq("7"), anyString());
+        // goods 6 was leased by a node that stopped reporting; its units went back to the stock key
+        verify(redis).execute(eq(SeckillScripts.LEASE_RECLAIM), anyList(), eq("6"), anyString());
+
+        // another node reclaimed this node's lease while it was silent: the local units are dropped, not sold
+        leases.heartbeat();
+        when(redis.execute(eq(SeckillScripts.LEASE), anyList(), any(), any(), any(), any(), any())).thenReturn(0L);
+        assertEquals(-1L, leases.decrement(9L, 4L).remaining());
+    }
+}
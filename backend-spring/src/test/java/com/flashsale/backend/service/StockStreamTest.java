@@ -0,0 +1,51 @@
+package com.flashsale.backend.service;
+
+import com.flashsale.backend.logging.LoggerService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StockStreamTest {
+    @Test
+    void changesAreCoalescedIntoOneMessagePerInterval() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        InventoryService inventory = Mockito.mock(InventoryService.class);
+        when(inventory.drainChanged()).thenReturn(Set.of(7L), Set.of());
+        when(inventory.stockOf(anyCollection())).thenReturn(Map.of(7L, 5L));
+        StockStream stream = new StockStream(redis, inventory, new ObjectMapper(), Mockito.mock(LoggerService.class),
+                new SimpleMeterRegistry(), true, 10, 5, 60000, 10000);
+
+        stream.publishChanges();
+        stream.publishChanges();
+
+        verify(redis, times(1)).convertAndSend(StockStream.CHANNEL, "7:5");
+    }
+
+    @Test
+    void connectionsAreCappedAndGauged() {
+        StringRedisTemplate redis = Mockito.mock(StringRedisTemplate.class);
+        InventoryService inventory = Mockito.mock(InventoryService.class);
+        when(inventory.stockOf(anyCollection())).thenReturn(Map.of());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StockStream stream = new StockStream(redis, inventory, new ObjectMapper(), Mockito.mock(LoggerService.class),
+                registry, true, 2, 5, 60000, 10000);
+
+        assertNotNull(stream.subscribe(List.of(1L, 2L)));
+        assertNotNull(stream.subscribe(List.of(2L)));
+        assertNull(stream.subscribe(List.of(3L)));
+        assertEquals(2.0, registry.get("stock_stream_connections").gauge().value());
+        // the snapshot for each new subscriber is one batched read
+        verify(inventory, times(2)).stockOf(anyCollection());
+        stream.close();
+    }
+}